@@ -0,0 +1,62 @@
+package com.animallogic.markovchain;
+
+import com.animallogic.markovchain.fsm.TransitionGraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+// Copies the UTF-8 bytes of the words out of the graph into a buffer that is drained into a channel when full, so
+// nothing is decoded, encoded or allocated per word
+final class ChannelWordSink implements WordSink {
+    private final TransitionGraph transitionGraph;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    ChannelWordSink(TransitionGraph transitionGraph, WritableByteChannel channel, ByteBuffer buffer) {
+        if (buffer.capacity() == 0) {
+            throw new IllegalArgumentException("Buffers need room for at least one byte");
+        }
+        this.transitionGraph = Objects.requireNonNull(transitionGraph);
+        this.channel = Objects.requireNonNull(channel);
+        this.buffer = Objects.requireNonNull(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void word(int wordId) throws IOException {
+        // The EOF suffix ends the text as an empty word
+        if (transitionGraph.isEof(wordId)) {
+            return;
+        }
+
+        int length = transitionGraph.wordByteLength(wordId);
+        for (int copied = 0; copied < length; copied += transitionGraph.copyWordBytes(wordId, copied, buffer)) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+        }
+    }
+
+    @Override
+    public void space() throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) ' ');
+    }
+
+    // Writes whatever is left in the buffer
+    void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -1,10 +1,13 @@
 package com.animallogic.markovchain;
 
 import com.animallogic.markovchain.fsm.TextFiniteStateMachine;
-import com.animallogic.markovchain.fsm.types.Prefix;
-import com.animallogic.markovchain.fsm.types.Suffix;
+import com.animallogic.markovchain.fsm.TransitionGraph;
+import com.animallogic.markovchain.random.RandomSource;
 import com.google.common.collect.ImmutableList;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -12,26 +15,53 @@ import java.util.Objects;
 import java.util.Random;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+// Iterators, written texts and streams of texts draw from the random source the generator was given when it is thread
+// safe, and from their own split of it otherwise, so a generator can be shared by several threads whatever the source.
+// A seeded source splits the same way every time, so seeded generators still generate the same texts.
 public class MarkovChainRandomTextGenerator implements Iterable<String> {
-    private final TextFiniteStateMachine textFiniteStateMachine;
-    private final Random rng;
+    private static final int START_STATE_TEXT = -1;
 
-    public MarkovChainRandomTextGenerator(TextFiniteStateMachine textFiniteStateMachine, Random rng) {
-        this.textFiniteStateMachine = Objects.requireNonNull(textFiniteStateMachine);
+    public enum StartPolicy {
+        // Start from any prefix of the corpus
+        ANY_PREFIX,
+        // Start only from prefixes that begin a line, i.e. the first prefix of the corpus and the ones that follow a
+        // word ending with a line feed
+        LINE_START
+    }
+
+    private final TransitionGraph transitionGraph;
+    private final RandomSource rng;
+    private final StartPolicy startPolicy;
+
+    public MarkovChainRandomTextGenerator(TextFiniteStateMachine textFiniteStateMachine, RandomSource rng, StartPolicy startPolicy) {
+        this.transitionGraph = Objects.requireNonNull(textFiniteStateMachine).transitionGraph();
         this.rng = Objects.requireNonNull(rng);
+        this.startPolicy = Objects.requireNonNull(startPolicy);
+    }
+
+    public MarkovChainRandomTextGenerator(TextFiniteStateMachine textFiniteStateMachine, RandomSource rng) {
+        this(textFiniteStateMachine, rng, StartPolicy.ANY_PREFIX);
+    }
+
+    public MarkovChainRandomTextGenerator(TextFiniteStateMachine textFiniteStateMachine, Random rng, StartPolicy startPolicy) {
+        this(textFiniteStateMachine, RandomSource.of(Objects.requireNonNull(rng)), startPolicy);
+    }
+
+    public MarkovChainRandomTextGenerator(TextFiniteStateMachine textFiniteStateMachine, Random rng) {
+        this(textFiniteStateMachine, rng, StartPolicy.ANY_PREFIX);
     }
 
     public MarkovChainRandomTextGenerator(TextFiniteStateMachine textFiniteStateMachine) {
-        this(textFiniteStateMachine, new Random());
+        this(textFiniteStateMachine, RandomSource.threadLocal());
     }
 
     @Override
     public Iterator<String> iterator() {
-        return new RandomTextIterator(textFiniteStateMachine, rng);
+        return new RandomTextIterator(transitionGraph, iteratorSource(), startPolicy);
     }
 
     public Stream<String> stream() {
@@ -39,62 +69,228 @@ public class MarkovChainRandomTextGenerator implements Iterable<String> {
         return StreamSupport.stream(splitIterator, false);
     }
 
+    // Writes the text with the words separated by a space, except after the words that end a line, without building a
+    // string per word or for the whole text (a Writer is best buffered). Returns the number of words written, the first
+    // one being the start prefix like in the iterator.
+    public long writeTo(Appendable out, long maxWords) throws IOException {
+        Objects.requireNonNull(out);
+        return write(new WordSink() {
+            @Override
+            public void word(int wordId) throws IOException {
+                out.append(transitionGraph.isEof(wordId) ? "" : transitionGraph.word(wordId));
+            }
+
+            @Override
+            public void space() throws IOException {
+                out.append(' ');
+            }
+        }, maxWords);
+    }
+
+    public long writeTo(Appendable out) throws IOException {
+        return writeTo(out, Long.MAX_VALUE);
+    }
+
+    // The same text as UTF-8 in the buffer, which is cleared first and drained into the channel whenever it fills up and
+    // once the text ends, so one buffer can be reused for every text. The bytes of the words are copied from the model,
+    // the text is never encoded and nothing is allocated per word, unlike the iterator which hands out a String each.
+    public long writeTo(WritableByteChannel channel, ByteBuffer buffer, long maxWords) throws IOException {
+        ChannelWordSink out = new ChannelWordSink(transitionGraph, channel, buffer);
+        long words = write(out, maxWords);
+        out.flush();
+        return words;
+    }
+
+    public long writeTo(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        return writeTo(channel, buffer, Long.MAX_VALUE);
+    }
+
+    private long write(WordSink out, long maxWords) throws IOException {
+        RandomTextIterator iterator = new RandomTextIterator(transitionGraph, iteratorSource(), startPolicy);
+        long words = 0;
+        for (; words < maxWords && iterator.hasNext(); words++) {
+            int wordId = iterator.step();
+            if (wordId == START_STATE_TEXT) {
+                int lastWord = transitionGraph.prefixSize() - 1;
+                for (int i = 0; i < lastWord; i++) {
+                    out.word(transitionGraph.stateWordId(iterator.startState, i));
+                    out.space();
+                }
+                wordId = transitionGraph.stateWordId(iterator.startState, lastWord);
+            }
+
+            out.word(wordId);
+            if (!transitionGraph.endsLine(wordId)) {
+                out.space();
+            }
+        }
+        return words;
+    }
+
+    // count independent texts of at most maxWords words each, the words of every text as the iterator returns them.
+    // Text i is generated from RandomSource.xoroshiro(seed, i) with a seed drawn once from the source of the generator,
+    // so the stream can be made parallel and split any way (it runs on the ForkJoinPool it is collected from) and a
+    // seeded generator still generates the same texts.
+    public Stream<List<String>> texts(long count, int maxWords) {
+        if (count < 0 || maxWords < 0) {
+            throw new IllegalArgumentException(String.format("Cannot generate %d texts of %d words", count, maxWords));
+        }
+        return StreamSupport.stream(new TextSpliterator(iteratorSource().nextLong(), 0, count, maxWords), false);
+    }
+
+    // Splitting only ever draws once from the source, under its lock for the sources that are not thread safe
+    private RandomSource iteratorSource() {
+        return rng.isThreadSafe() ? rng : rng.split();
+    }
+
+    private List<String> text(long seed, long index, int maxWords) {
+        Iterator<String> iterator = new RandomTextIterator(transitionGraph, RandomSource.xoroshiro(seed, index), startPolicy);
+        ImmutableList.Builder<String> words = ImmutableList.builder();
+        for (int i = 0; i < maxWords && iterator.hasNext(); i++) {
+            words.add(iterator.next());
+        }
+        return words.build();
+    }
+
+    // Texts [next, end), split in halves
+    private class TextSpliterator implements Spliterator<List<String>> {
+        private final long seed;
+        private final long end;
+        private final int maxWords;
+        private long next;
+
+        TextSpliterator(long seed, long next, long end, int maxWords) {
+            this.seed = seed;
+            this.next = next;
+            this.end = end;
+            this.maxWords = maxWords;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super List<String>> action) {
+            if (next >= end) {
+                return false;
+            }
+            action.accept(text(seed, next++, maxWords));
+            return true;
+        }
+
+        @Override
+        public Spliterator<List<String>> trySplit() {
+            long middle = (next + end) >>> 1;
+            if (middle <= next) {
+                return null;
+            }
+            TextSpliterator prefix = new TextSpliterator(seed, next, middle, maxWords);
+            next = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+        }
+    }
+
     private class RandomTextIterator implements Iterator<String> {
         private boolean firstPrefix;
-        private TextFiniteStateMachine textFiniteStateMachine;
-        private List<Prefix> prefixes;
-        private Random rng;
-        private Prefix currentPrefix;
+        private TransitionGraph transitionGraph;
+        private RandomSource rng;
+        private int startState;
+        private int currentState;
+        // Next slot of the run being walked, -1 outside runs
+        private int runSlot;
 
-        RandomTextIterator(TextFiniteStateMachine textFiniteStateMachine, Random rng) {
-            this.textFiniteStateMachine = textFiniteStateMachine;
+        RandomTextIterator(TransitionGraph transitionGraph, RandomSource rng, StartPolicy startPolicy) {
+            this.transitionGraph = transitionGraph;
             this.rng = rng;
             this.firstPrefix = true;
+            this.currentState = TransitionGraph.NO_STATE;
+            this.runSlot = -1;
+
+            if (transitionGraph.stateCount() > 0) {
+                currentState = startState(startPolicy);
+            }
+            this.startState = currentState;
+        }
 
-            prefixes = textFiniteStateMachine.prefixes();
+        // States are dense ids, so picking the start is a single random index into the chosen set of states
+        private int startState(StartPolicy startPolicy) {
+            switch (startPolicy) {
+                case ANY_PREFIX:
+                    return rng.nextInt(transitionGraph.stateCount());
 
-            if (prefixes.size() > 0) {
-                int randomStartIndex = rng.nextInt(prefixes.size());
-                currentPrefix = prefixes.get(randomStartIndex);
+                case LINE_START:
+                    return transitionGraph.lineStartState(rng.nextInt(transitionGraph.lineStartCount()));
+
+                default:
+                    throw new IllegalStateException("Unknown start policy " + startPolicy);
             }
         }
 
         @Override
         public boolean hasNext() {
-            return !textFiniteStateMachine.sufficesFor(currentPrefix).isEmpty();
+            return runSlot >= 0 || (currentState != TransitionGraph.NO_STATE && transitionGraph.transitionCount(currentState) > 0);
         }
 
         @Override
         public String next() {
-            List<Suffix> suffices = textFiniteStateMachine.sufficesFor(currentPrefix);
-            if (suffices.isEmpty()) {
+            if (!hasNext()) {
                 throw new NoSuchElementException();
             }
 
-            Suffix randomSuffix = suffices.get(rng.nextInt(suffices.size()));
+            int wordId = step();
+            return wordId == START_STATE_TEXT ? transitionGraph.stateText(startState) : text(wordId);
+        }
 
-            Prefix previousPrefix = currentPrefix;
+        // Walks one transition and returns the id of its word, or START_STATE_TEXT for the first one, which generates
+        // the words of the start state instead
+        int step() {
+            // States with a single transition are read off their run without looking at the transitions, the walk is
+            // the same one since they never draw from the generator
+            if (runSlot < 0 && !firstPrefix && transitionGraph.transitionCount(currentState) == 1) {
+                runSlot = transitionGraph.runSlot(currentState);
+            }
+            if (runSlot >= 0) {
+                return nextRunWordId();
+            }
 
-            currentPrefix = rotatePrefixToLeft(currentPrefix, randomSuffix);
+            // Pick a random edge and jump to its target
+            int transition = transitionGraph.randomTransition(currentState, rng);
+
+            currentState = transitionGraph.target(currentState, transition);
 
             if (firstPrefix) {
                 firstPrefix = false;
-                return previousPrefix.words().stream().collect(Collectors.joining(" "));
+                return START_STATE_TEXT;
             } else {
-                if (randomSuffix.isEof()) {
-                    return "";
-                } else {
-                    return randomSuffix.value();
-                }
+                return transitionGraph.wordId(transition);
+            }
+        }
+
+        private int nextRunWordId() {
+            int wordId = transitionGraph.runWord(runSlot);
+            int next = transitionGraph.runNext(runSlot);
+            if (next == TransitionGraph.CONTINUES_RUN) {
+                runSlot++;
+            } else {
+                currentState = next;
+                runSlot = -1;
             }
+            return wordId;
         }
 
-        Prefix rotatePrefixToLeft(Prefix prefix, Suffix suffix) {
-            List<String> words = prefix.words();
-            ImmutableList.Builder<String> builder = ImmutableList.builder();
-            builder.addAll(words.subList(1, words.size()));
-            builder.add(suffix.value());
-            return Prefix.of(builder.build());
+        private String text(int wordId) {
+            if (transitionGraph.isEof(wordId)) {
+                return "";
+            } else {
+                return transitionGraph.word(wordId);
+            }
         }
     }
 }
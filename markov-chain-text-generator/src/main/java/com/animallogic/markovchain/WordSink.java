@@ -0,0 +1,10 @@
+package com.animallogic.markovchain;
+
+import java.io.IOException;
+
+// Where MarkovChainRandomTextGenerator.writeTo puts the words it generates, by id, and the spaces between them
+interface WordSink {
+    void word(int wordId) throws IOException;
+
+    void space() throws IOException;
+}
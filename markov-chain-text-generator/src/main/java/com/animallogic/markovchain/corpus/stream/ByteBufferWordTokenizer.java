@@ -0,0 +1,219 @@
+package com.animallogic.markovchain.corpus.stream;
+
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream.ExtraSpacesHandling;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+// Splits UTF-8 encoded bytes into words without decoding whole lines first. The produced words are exactly the same
+// ones FileCorpusStream produces (lines are split like BufferedReader.readLine() does and whitespace is decided by
+// Character.isWhitespace), but only the bytes of each word are turned into a String. Malformed UTF-8 is reported
+// instead of replaced, like the reader of FileCorpusStream does.
+class ByteBufferWordTokenizer {
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private final ExtraSpacesHandling extraSpacesHandling;
+    private final CharsetDecoder decoder;
+
+    private int position;
+    private boolean atLineStart;
+    private byte[] scratch;
+    private char[] charScratch;
+
+    ByteBufferWordTokenizer(ByteBuffer buffer, int start, int limit, ExtraSpacesHandling extraSpacesHandling) {
+        this.buffer = Objects.requireNonNull(buffer);
+        this.limit = limit;
+        this.extraSpacesHandling = Objects.requireNonNull(extraSpacesHandling);
+        this.position = start;
+        this.atLineStart = true;
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.scratch = new byte[64];
+        this.charScratch = new char[64];
+    }
+
+    // Returns null once all the bytes have been tokenized
+    String nextWord() throws CharacterCodingException {
+        if (atLineStart && position >= limit) {
+            return null;
+        }
+        atLineStart = false;
+
+        switch (extraSpacesHandling) {
+            case IGNORE_EXTRA_SPACES:
+                return nextWordIgnoringExtraSpaces();
+
+            case MORE_THAN_TWO_SPACES_IS_A_WORD:
+                return nextWordKeepingExtraSpaces();
+
+            default:
+                throw new IllegalStateException("Unknown extra spaces handling option " + extraSpacesHandling);
+        }
+    }
+
+    private String nextWordIgnoringExtraSpaces() throws CharacterCodingException {
+        int whitespaceLength;
+        while (!isEndOfLine(position) && (whitespaceLength = whitespaceLength(position)) > 0) {
+            position += whitespaceLength;
+        }
+
+        int start = position;
+        while (!isEndOfLine(position) && whitespaceLength(position) == 0) {
+            position += charLength(position);
+        }
+
+        if (isEndOfLine(position)) {
+            int end = position;
+            consumeLineTerminator();
+            return decodeWithLineFeed(start, end);
+        }
+
+        return decode(start, position);
+    }
+
+    private String nextWordKeepingExtraSpaces() throws CharacterCodingException {
+        while (true) {
+            if (isEndOfLine(position)) {
+                consumeLineTerminator();
+                return "\n";
+            }
+
+            int start = position;
+            int firstCharLength = whitespaceLength(position);
+            boolean whitespaceRun = firstCharLength > 0;
+
+            int lastCharLength = 0;
+            int charsInRun = 0;
+            while (!isEndOfLine(position)) {
+                int whitespaceLength = whitespaceLength(position);
+                if ((whitespaceLength > 0) != whitespaceRun) {
+                    break;
+                }
+                lastCharLength = whitespaceRun ? whitespaceLength : charLength(position);
+                position += lastCharLength;
+                charsInRun++;
+            }
+            int end = position;
+
+            if (isEndOfLine(position)) {
+                consumeLineTerminator();
+                return decodeWithLineFeed(start, end);
+            }
+
+            if (!whitespaceRun) {
+                return decode(start, end);
+            }
+
+            // Runs of more than two spaces are a word on their own, minus the spaces that separate them from the
+            // surrounding words
+            if (charsInRun > 2) {
+                return decode(start + firstCharLength, end - lastCharLength);
+            }
+        }
+    }
+
+    private boolean isEndOfLine(int index) {
+        if (index >= limit) {
+            return true;
+        }
+        byte b = buffer.get(index);
+        return b == LINE_FEED || b == CARRIAGE_RETURN;
+    }
+
+    private void consumeLineTerminator() {
+        atLineStart = true;
+        if (position >= limit) {
+            return;
+        }
+
+        byte b = buffer.get(position);
+        position++;
+        if (b == CARRIAGE_RETURN && position < limit && buffer.get(position) == LINE_FEED) {
+            position++;
+        }
+    }
+
+    // Number of bytes of the whitespace character starting at index, 0 if the character is not a whitespace
+    private int whitespaceLength(int index) {
+        int b = buffer.get(index) & 0xFF;
+        if (b < 0x80) {
+            return Character.isWhitespace(b) ? 1 : 0;
+        }
+
+        // Every non ASCII whitespace lives in U+1680..U+3000, which is always encoded with 3 bytes
+        if (b >= 0xE1 && b <= 0xE3 && index + 2 < limit) {
+            int b1 = buffer.get(index + 1) & 0xFF;
+            int b2 = buffer.get(index + 2) & 0xFF;
+            if ((b1 & 0xC0) == 0x80 && (b2 & 0xC0) == 0x80) {
+                int codePoint = ((b & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F);
+                return Character.isWhitespace(codePoint) ? 3 : 0;
+            }
+        }
+
+        return 0;
+    }
+
+    private int charLength(int index) {
+        int b = buffer.get(index) & 0xFF;
+        int length;
+        if (b < 0xC0) {
+            length = 1;
+        } else if (b < 0xE0) {
+            length = 2;
+        } else if (b < 0xF0) {
+            length = 3;
+        } else {
+            length = 4;
+        }
+        return Math.min(length, limit - index);
+    }
+
+    private String decode(int start, int end) throws CharacterCodingException {
+        return decodeScratch(copyToScratch(start, end, 0));
+    }
+
+    private String decodeWithLineFeed(int start, int end) throws CharacterCodingException {
+        int length = copyToScratch(start, end, 1);
+        scratch[length] = LINE_FEED;
+        return decodeScratch(length + 1);
+    }
+
+    // UTF-8 never decodes to more chars than it has bytes, so a char scratch as long as the bytes always fits them
+    private String decodeScratch(int length) throws CharacterCodingException {
+        if (charScratch.length < length) {
+            charScratch = new char[Math.max(charScratch.length * 2, length)];
+        }
+
+        CharBuffer chars = CharBuffer.wrap(charScratch);
+        decoder.reset();
+        CoderResult result = decoder.decode(ByteBuffer.wrap(scratch, 0, length), chars, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(chars);
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        return new String(charScratch, 0, chars.position());
+    }
+
+    private int copyToScratch(int start, int end, int extraCapacity) {
+        int length = end - start;
+        if (scratch.length < length + extraCapacity) {
+            scratch = new byte[Math.max(scratch.length * 2, length + extraCapacity)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(start + i);
+        }
+        return length;
+    }
+}
@@ -6,5 +6,24 @@ import java.util.Optional;
 public interface CorpusStream extends Closeable {
     Optional<String> nextWord();
 
+    // Copies up to maxWords words into words[offset...] and returns how many were copied, 0 means there are no words
+    // left. Implementations should override it to skip the Optional and the call per word.
+    default int nextWords(String[] words, int offset, int maxWords) {
+        int count = 0;
+        while (count < maxWords) {
+            Optional<String> maybeNextWord = nextWord();
+            if (!maybeNextWord.isPresent()) {
+                break;
+            }
+            words[offset + count] = maybeNextWord.get();
+            count++;
+        }
+        return count;
+    }
+
+    default int nextWords(String[] words) {
+        return nextWords(words, 0, words.length);
+    }
+
     boolean consumed();
 }
@@ -55,21 +55,39 @@ public class FileCorpusStream implements CorpusStream {
 
     @Override
     public Optional<String> nextWord() {
-        if (currentLineQueue.isEmpty()) {
-            try {
-                String line = bufferedReader.readLine();
-                if (line == null) {
-                    consumed = true;
-                    return Optional.empty();
-                }
+        if (currentLineQueue.isEmpty() && !readNextLine()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(currentLineQueue.poll());
+    }
 
-                currentLineQueue.addAll(extractWords(line, extraSpacesHandlingOption));
-            } catch (IOException e) {
-                return Optional.empty();
+    @Override
+    public int nextWords(String[] words, int offset, int maxWords) {
+        int count = 0;
+        while (count < maxWords) {
+            if (currentLineQueue.isEmpty() && !readNextLine()) {
+                break;
             }
+            words[offset + count] = currentLineQueue.poll();
+            count++;
         }
+        return count;
+    }
 
-        return Optional.of(currentLineQueue.poll());
+    private boolean readNextLine() {
+        try {
+            String line = bufferedReader.readLine();
+            if (line == null) {
+                consumed = true;
+                return false;
+            }
+
+            currentLineQueue.addAll(extractWords(line, extraSpacesHandlingOption));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
     }
 
     private List<String> extractWords(String line, ExtraSpacesHandling extraSpacesHandling) {
@@ -32,6 +32,17 @@ public class InMemoryCorpusStream implements CorpusStream {
         }
     }
 
+    @Override
+    public int nextWords(String[] words, int offset, int maxWords) {
+        // Closing a partly read stream leaves the index past the (now empty) words
+        int count = Math.max(0, Math.min(maxWords, this.words.size() - currentWordIndex));
+        for (int i = 0; i < count; i++) {
+            words[offset + i] = this.words.get(currentWordIndex + i);
+        }
+        currentWordIndex += count;
+        return count;
+    }
+
     @Override
     public boolean consumed() {
         return currentWordIndex >= words.size();
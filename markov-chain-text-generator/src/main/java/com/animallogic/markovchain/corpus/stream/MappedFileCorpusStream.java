@@ -0,0 +1,133 @@
+package com.animallogic.markovchain.corpus.stream;
+
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream.ExtraSpacesHandling;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Optional;
+
+public class MappedFileCorpusStream implements CorpusStream {
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel fileChannel;
+    private final ExtraSpacesHandling extraSpacesHandlingOption;
+    private final long fileSize;
+    private final long maxSegmentSize;
+
+    private long nextSegmentOffset;
+    private ByteBufferWordTokenizer tokenizer;
+    private boolean consumed;
+    private boolean failed;
+
+    public MappedFileCorpusStream(Path path) throws IOException {
+        this(path, ExtraSpacesHandling.IGNORE_EXTRA_SPACES);
+    }
+
+    public MappedFileCorpusStream(Path path, ExtraSpacesHandling extraSpacesHandlingOption) throws IOException {
+        this(path, extraSpacesHandlingOption, MAX_SEGMENT_SIZE);
+    }
+
+    @VisibleForTesting
+    MappedFileCorpusStream(Path path, ExtraSpacesHandling extraSpacesHandlingOption, long maxSegmentSize) throws IOException {
+        this.extraSpacesHandlingOption = Objects.requireNonNull(extraSpacesHandlingOption);
+        this.maxSegmentSize = maxSegmentSize;
+        fileChannel = FileChannel.open(Objects.requireNonNull(path), StandardOpenOption.READ);
+        fileSize = fileChannel.size();
+
+        nextSegmentOffset = 0;
+        consumed = false;
+        failed = false;
+    }
+
+    @Override
+    public Optional<String> nextWord() {
+        return Optional.ofNullable(readWord());
+    }
+
+    @Override
+    public int nextWords(String[] words, int offset, int maxWords) {
+        int count = 0;
+        while (count < maxWords) {
+            String word = readWord();
+            if (word == null) {
+                break;
+            }
+            words[offset + count] = word;
+            count++;
+        }
+        return count;
+    }
+
+    // Once a segment could not be mapped or held malformed UTF-8 the stream stops without being consumed, the same as
+    // FileCorpusStream does when its reader fails
+    private String readWord() {
+        if (failed) {
+            return null;
+        }
+
+        try {
+            String word = tokenizer == null ? null : tokenizer.nextWord();
+
+            while (word == null) {
+                if (nextSegmentOffset >= fileSize) {
+                    consumed = true;
+                    return null;
+                }
+
+                tokenizer = mapNextSegment();
+                word = tokenizer.nextWord();
+            }
+
+            return word;
+        } catch (IOException e) {
+            failed = true;
+            tokenizer = null;
+            return null;
+        }
+    }
+
+    // A MappedByteBuffer cannot go past 2GB, so bigger files are mapped in segments that always end on a line
+    // boundary. Words never span lines, so each segment can be tokenized on its own.
+    private ByteBufferWordTokenizer mapNextSegment() throws IOException {
+        long segmentSize = Math.min(maxSegmentSize, fileSize - nextSegmentOffset);
+        MappedByteBuffer segment = fileChannel.map(FileChannel.MapMode.READ_ONLY, nextSegmentOffset, segmentSize);
+
+        int limit = (int) segmentSize;
+        if (nextSegmentOffset + segmentSize < fileSize) {
+            limit = lastLineEnd(segment, limit);
+            if (limit == 0) {
+                throw new IOException(
+                        String.format("Line starting at byte %d is longer than the maximum segment size of %d bytes", nextSegmentOffset, maxSegmentSize)
+                );
+            }
+        }
+
+        nextSegmentOffset += limit;
+        return new ByteBufferWordTokenizer(segment, 0, limit, extraSpacesHandlingOption);
+    }
+
+    private int lastLineEnd(MappedByteBuffer segment, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (segment.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean consumed() {
+        return consumed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+        tokenizer = null;
+    }
+}
@@ -0,0 +1,139 @@
+package com.animallogic.markovchain.corpus.stream;
+
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream.ExtraSpacesHandling;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Keeps a bounded number of chunks being tokenized ahead of the reader, so the memory used is a few chunks no matter
+// how big the file is
+class ParallelFileCorpusStream implements CorpusStream {
+    private static final String[] NO_WORDS = new String[0];
+
+    private final FileChannel fileChannel;
+    private final List<Long> boundaries;
+    private final ExtraSpacesHandling extraSpacesHandlingOption;
+    private final ForkJoinPool pool;
+    private final int maxChunksInFlight;
+
+    private final Queue<ForkJoinTask<String[]>> chunksInFlight;
+    private int nextChunkToSubmit;
+    private String[] currentChunk;
+    private int currentWordIndex;
+    private boolean consumed;
+
+    ParallelFileCorpusStream(FileChannel fileChannel, List<Long> boundaries, ExtraSpacesHandling extraSpacesHandlingOption, ForkJoinPool pool) {
+        this.fileChannel = fileChannel;
+        this.boundaries = boundaries;
+        this.extraSpacesHandlingOption = extraSpacesHandlingOption;
+        this.pool = pool;
+        this.maxChunksInFlight = 2 * pool.getParallelism();
+
+        chunksInFlight = new ArrayDeque<>();
+        nextChunkToSubmit = 0;
+        currentChunk = NO_WORDS;
+        currentWordIndex = 0;
+        consumed = false;
+
+        submitChunks();
+    }
+
+    @Override
+    public Optional<String> nextWord() {
+        if (currentWordIndex >= currentChunk.length && !nextChunk()) {
+            return Optional.empty();
+        }
+
+        return Optional.of(currentChunk[currentWordIndex++]);
+    }
+
+    @Override
+    public int nextWords(String[] words, int offset, int maxWords) {
+        int count = 0;
+        while (count < maxWords) {
+            if (currentWordIndex >= currentChunk.length && !nextChunk()) {
+                break;
+            }
+
+            int wordsToCopy = Math.min(maxWords - count, currentChunk.length - currentWordIndex);
+            System.arraycopy(currentChunk, currentWordIndex, words, offset + count, wordsToCopy);
+            currentWordIndex += wordsToCopy;
+            count += wordsToCopy;
+        }
+        return count;
+    }
+
+    // Skips empty chunks, returns false once there are no chunks left or one of them could not be read
+    private boolean nextChunk() {
+        while (currentWordIndex >= currentChunk.length) {
+            ForkJoinTask<String[]> chunk = chunksInFlight.poll();
+            if (chunk == null) {
+                consumed = true;
+                return false;
+            }
+
+            try {
+                currentChunk = chunk.join();
+            } catch (RuntimeException e) {
+                cancelChunksInFlight();
+                return false;
+            }
+            currentWordIndex = 0;
+
+            submitChunks();
+        }
+        return true;
+    }
+
+    private void submitChunks() {
+        while (chunksInFlight.size() < maxChunksInFlight && nextChunkToSubmit < boundaries.size() - 1) {
+            long start = boundaries.get(nextChunkToSubmit);
+            long end = boundaries.get(nextChunkToSubmit + 1);
+            chunksInFlight.add(pool.submit(() -> tokenize(start, end)));
+            nextChunkToSubmit++;
+        }
+    }
+
+    private String[] tokenize(long start, long end) throws IOException {
+        int size = (int) (end - start);
+        MappedByteBuffer chunk = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        ByteBufferWordTokenizer tokenizer = new ByteBufferWordTokenizer(chunk, 0, size, extraSpacesHandlingOption);
+
+        List<String> words = new ArrayList<>(size / 4);
+        String word = tokenizer.nextWord();
+        while (word != null) {
+            words.add(word);
+            word = tokenizer.nextWord();
+        }
+        return words.toArray(NO_WORDS);
+    }
+
+    private void cancelChunksInFlight() {
+        ForkJoinTask<String[]> chunk;
+        while ((chunk = chunksInFlight.poll()) != null) {
+            chunk.cancel(true);
+        }
+        nextChunkToSubmit = boundaries.size() - 1;
+    }
+
+    @Override
+    public boolean consumed() {
+        return consumed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cancelChunksInFlight();
+        currentChunk = NO_WORDS;
+        currentWordIndex = 0;
+        fileChannel.close();
+    }
+}
@@ -0,0 +1,94 @@
+package com.animallogic.markovchain.corpus.stream;
+
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream.ExtraSpacesHandling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+// Creates corpus streams that tokenize a single file on several threads: the file is split in byte ranges that end
+// on a line feed, every range is tokenized on its own in the pool and the words are handed out in file order
+public class ParallelFileCorpusStreamFactory {
+    private static final long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int BOUNDARY_SCAN_BUFFER_SIZE = 8 * 1024;
+
+    private final ForkJoinPool pool;
+    private final long chunkSize;
+
+    public ParallelFileCorpusStreamFactory(ForkJoinPool pool) {
+        this(pool, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelFileCorpusStreamFactory(ForkJoinPool pool, long chunkSize) {
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    String.format("The chunk size has to be a positive number up to %d bytes (got %d)", Integer.MAX_VALUE, chunkSize)
+            );
+        }
+        this.pool = Objects.requireNonNull(pool);
+        this.chunkSize = chunkSize;
+    }
+
+    public CorpusStream createCorpusStream(Path path) throws IOException {
+        return createCorpusStream(path, ExtraSpacesHandling.IGNORE_EXTRA_SPACES);
+    }
+
+    public CorpusStream createCorpusStream(Path path, ExtraSpacesHandling extraSpacesHandlingOption) throws IOException {
+        FileChannel fileChannel = FileChannel.open(Objects.requireNonNull(path), StandardOpenOption.READ);
+        try {
+            List<Long> boundaries = chunkBoundaries(fileChannel);
+            return new ParallelFileCorpusStream(fileChannel, boundaries, Objects.requireNonNull(extraSpacesHandlingOption), pool);
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    // Boundaries are placed right after the first line feed found from every chunkSize bytes, so that words and
+    // lines never straddle two chunks. The first boundary is always 0 and the last one is always the file size.
+    private List<Long> chunkBoundaries(FileChannel fileChannel) throws IOException {
+        long fileSize = fileChannel.size();
+        ByteBuffer scanBuffer = ByteBuffer.allocate(BOUNDARY_SCAN_BUFFER_SIZE);
+
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+
+        long chunkStart = 0;
+        while (chunkStart < fileSize) {
+            long chunkEnd = chunkStart + chunkSize >= fileSize ? fileSize : nextLineStart(fileChannel, chunkStart + chunkSize, scanBuffer);
+            if (chunkEnd - chunkStart > Integer.MAX_VALUE) {
+                throw new IOException(
+                        String.format("Line starting before byte %d is longer than the maximum chunk size of %d bytes", chunkStart + chunkSize, Integer.MAX_VALUE)
+                );
+            }
+            boundaries.add(chunkEnd);
+            chunkStart = chunkEnd;
+        }
+
+        return boundaries;
+    }
+
+    private long nextLineStart(FileChannel fileChannel, long from, ByteBuffer scanBuffer) throws IOException {
+        long position = from - 1;
+        while (true) {
+            scanBuffer.clear();
+            int read = fileChannel.read(scanBuffer, position);
+            if (read <= 0) {
+                return fileChannel.size();
+            }
+
+            for (int i = 0; i < read; i++) {
+                if (scanBuffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFile.Section;
+import com.animallogic.markovchain.fsm.engine.IntArray;
+import com.animallogic.markovchain.fsm.engine.PackedPrefixIndex;
+import com.animallogic.markovchain.fsm.engine.PackedWordIndex;
+import com.animallogic.markovchain.fsm.engine.WordDictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Builds a model file without keeping the states in the heap. States are buffered as (prefix word ids, suffix word id)
+// records up to the heap budget, sorted and spilled to run files in the work directory with the repeated records
+// counted once, and the runs are merged k at a time until one sorted run is left. That run is streamed straight into
+// the memory mapped sections of the model file, prefixes getting their ids in sorted order, and the hash slots and
+// transition targets are then filled looking prefixes up in the mapped file. Every pass reads or writes the data in
+// sequence, so the time grows linearly with the corpus, with a merge pass more every time the runs outgrow the fan-in.
+//
+// The heap holds the word dictionary, one run buffer and a bit per state for the line starts.
+final class ExternalModelBuilder {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_RUN_RECORDS = 1024;
+
+    private final int prefixSize;
+    private final int recordWidth;
+    private final Path workDirectory;
+    private final int mergeFanIn;
+
+    private final WordDictionary dictionary;
+    private final List<Run> runs;
+    // Records back to back, recordWidth ints each: the prefix word ids then the suffix word id
+    private final int[] records;
+    private final int[] order;
+    private final int[] sorted;
+    private int recordCount;
+
+    private final int[] corpusStart;
+    private long statesCount;
+
+    ExternalModelBuilder(int prefixSize, Path workDirectory, long heapBudgetBytes) {
+        this.prefixSize = prefixSize;
+        this.recordWidth = prefixSize + 1;
+        this.workDirectory = workDirectory;
+
+        long bytesPerRecord = (long) recordWidth * Integer.BYTES + 2 * Integer.BYTES;
+        int runRecords = (int) Math.max(MIN_RUN_RECORDS, Math.min(Integer.MAX_VALUE / recordWidth, heapBudgetBytes / 2 / bytesPerRecord));
+        this.mergeFanIn = (int) Math.max(2, Math.min(1024, heapBudgetBytes / 2 / STREAM_BUFFER_SIZE));
+
+        dictionary = new WordDictionary();
+        runs = new ArrayList<>();
+        records = new int[runRecords * recordWidth];
+        order = new int[runRecords];
+        sorted = new int[runRecords];
+        recordCount = 0;
+
+        corpusStart = new int[prefixSize];
+        statesCount = 0;
+    }
+
+    int internWord(String word) {
+        return dictionary.intern(word);
+    }
+
+    // The prefix is read from a ring buffer of word ids starting at start
+    void addState(int[] window, int start, int suffixWordId) throws IOException {
+        if (statesCount == 0) {
+            for (int i = 0; i < prefixSize; i++) {
+                corpusStart[i] = window[(start + i) % prefixSize];
+            }
+        }
+        statesCount++;
+
+        if (recordCount == order.length) {
+            runs.add(spill());
+        }
+        int offset = recordCount * recordWidth;
+        for (int i = 0; i < prefixSize; i++) {
+            records[offset + i] = window[(start + i) % prefixSize];
+        }
+        records[offset + prefixSize] = suffixWordId;
+        recordCount++;
+    }
+
+    void build(Path modelFile) throws IOException {
+        try {
+            if (statesCount > Integer.MAX_VALUE) {
+                throw new IOException(String.format("The corpus has %d states, model files count up to %d", statesCount, Integer.MAX_VALUE));
+            }
+            if (recordCount > 0) {
+                runs.add(spill());
+            }
+
+            while (runs.size() > 1) {
+                List<Run> merged = new ArrayList<>();
+                for (int first = 0; first < runs.size(); first += mergeFanIn) {
+                    merged.add(merge(runs.subList(first, Math.min(runs.size(), first + mergeFanIn))));
+                }
+                runs.clear();
+                runs.addAll(merged);
+            }
+
+            // Section lengths come from the run the model is written from, the one left after merging
+            writeModel(modelFile, runs.isEmpty() ? Run.EMPTY : runs.get(0));
+        } finally {
+            for (Run run : runs) {
+                Files.deleteIfExists(run.path);
+            }
+        }
+    }
+
+    // Sorts the buffered records and writes them as a run, a record per distinct state with its occurrences
+    private Run spill() throws IOException {
+        sortRecords();
+
+        Path output = Files.createTempFile(workDirectory, "run", ".bin");
+        try (RunWriter writer = new RunWriter(output)) {
+            for (int i = 0; i < recordCount; i++) {
+                writer.add(records, order[i] * recordWidth, 1);
+            }
+            recordCount = 0;
+            return writer.finish();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(output);
+            throw e;
+        }
+    }
+
+    // LSD radix sort of the record indexes, 16 bits of a word id at a time starting by the suffix
+    private void sortRecords() {
+        for (int i = 0; i < recordCount; i++) {
+            order[i] = i;
+        }
+
+        int[] counts = new int[(1 << 16) + 1];
+        int[] from = order;
+        int[] to = sorted;
+        boolean wideIds = dictionary.size() > (1 << 16);
+        for (int column = recordWidth - 1; column >= 0; column--) {
+            for (int shift = 0; shift <= (wideIds ? 16 : 0); shift += 16) {
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < recordCount; i++) {
+                    counts[((records[from[i] * recordWidth + column] >>> shift) & 0xFFFF) + 1]++;
+                }
+                for (int digit = 0; digit < 1 << 16; digit++) {
+                    counts[digit + 1] += counts[digit];
+                }
+                for (int i = 0; i < recordCount; i++) {
+                    to[counts[(records[from[i] * recordWidth + column] >>> shift) & 0xFFFF]++] = from[i];
+                }
+
+                int[] swap = from;
+                from = to;
+                to = swap;
+            }
+        }
+
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, recordCount);
+        }
+    }
+
+    private Run merge(List<Run> inputs) throws IOException {
+        Path output = Files.createTempFile(workDirectory, "run", ".bin");
+        PriorityQueue<RunReader> readers = new PriorityQueue<>(inputs.size(), (a, b) -> compareRecords(a.record, b.record));
+        Run merged;
+        try (RunWriter writer = new RunWriter(output)) {
+            for (Run input : inputs) {
+                RunReader reader = new RunReader(input.path);
+                if (reader.next()) {
+                    readers.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+
+            while (!readers.isEmpty()) {
+                RunReader reader = readers.poll();
+                writer.add(reader.record, 0, reader.record[recordWidth]);
+                if (reader.next()) {
+                    readers.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            merged = writer.finish();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(output);
+            throw e;
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+
+        for (Run input : inputs) {
+            Files.delete(input.path);
+        }
+        return merged;
+    }
+
+    private int compareRecords(int[] a, int[] b) {
+        for (int i = 0; i < recordWidth; i++) {
+            if (a[i] != b[i]) {
+                return Integer.compare(a[i], b[i]);
+            }
+        }
+        return 0;
+    }
+
+    private void writeModel(Path modelFile, Run run) throws IOException {
+        int prefixCount = toInt(run.prefixes, "prefixes");
+        int transitionCount = toInt(run.records, "transitions");
+        PackedWordIndex words = dictionary.pack();
+
+        long[] lengths = new long[Section.values().length];
+        lengths[Section.WORD_OFFSETS.ordinal()] = words.offsets().length();
+        lengths[Section.WORD_SLOTS.ordinal()] = words.slots().length();
+        lengths[Section.WORD_BYTES.ordinal()] = words.bytes().remaining();
+        lengths[Section.PREFIX_WORDS.ordinal()] = (long) prefixCount * prefixSize;
+        lengths[Section.PREFIX_SLOTS.ordinal()] = PackedPrefixIndex.slotCount(prefixCount);
+        lengths[Section.FIRST_TRANSITIONS.ordinal()] = prefixCount + 1L;
+        lengths[Section.TRANSITION_WORDS.ordinal()] = transitionCount;
+        lengths[Section.TRANSITION_TARGETS.ordinal()] = transitionCount;
+        lengths[Section.CUMULATIVE_OCCURRENCES.ordinal()] = transitionCount;
+        lengths[Section.ALIAS_PROBABILITIES.ordinal()] = transitionCount;
+        lengths[Section.ALIASES.ordinal()] = transitionCount;
+
+        try (FileChannel channel = FileChannel.open(modelFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long[] offsets = new long[Section.values().length];
+            MappedByteBuffer[] sections = new MappedByteBuffer[Section.values().length];
+            long offset = TextFiniteStateMachineFile.HEADER_SIZE;
+            for (Section section : Section.values()) {
+                offsets[section.ordinal()] = offset;
+                if (section != Section.LINE_START_STATES) {
+                    sections[section.ordinal()] = map(channel, offset, lengths[section.ordinal()] * section.elementSize);
+                    offset = TextFiniteStateMachineFile.align(offset + lengths[section.ordinal()] * section.elementSize);
+                }
+            }
+
+            putInts(sections[Section.WORD_OFFSETS.ordinal()].asIntBuffer(), words.offsets());
+            putInts(sections[Section.WORD_SLOTS.ordinal()].asIntBuffer(), words.slots());
+            sections[Section.WORD_BYTES.ordinal()].put(words.bytes());
+
+            writeTransitions(sections, run);
+
+            IntBuffer prefixWords = sections[Section.PREFIX_WORDS.ordinal()].asIntBuffer();
+            IntBuffer prefixSlots = sections[Section.PREFIX_SLOTS.ordinal()].asIntBuffer();
+            PackedPrefixIndex.fillSlots(prefixSize, prefixWords, prefixSlots);
+
+            int[] lineStartStates = writeTargets(sections, new PackedPrefixIndex(prefixSize, IntArray.wrap(prefixWords), IntArray.wrap(prefixSlots)), prefixCount);
+            lengths[Section.LINE_START_STATES.ordinal()] = lineStartStates.length;
+            MappedByteBuffer lineStarts = map(channel, offsets[Section.LINE_START_STATES.ordinal()], (long) lineStartStates.length * Integer.BYTES);
+            lineStarts.asIntBuffer().put(lineStartStates);
+
+            for (MappedByteBuffer section : sections) {
+                if (section != null) {
+                    section.force();
+                }
+            }
+            lineStarts.force();
+
+            ByteBuffer header = ByteBuffer.allocate(TextFiniteStateMachineFile.HEADER_SIZE).order(TextFiniteStateMachineFile.BYTE_ORDER);
+            header.putInt(TextFiniteStateMachineFile.MAGIC);
+            header.putInt(TextFiniteStateMachineFile.VERSION);
+            header.putInt(prefixSize);
+            header.putInt(Section.values().length);
+            for (Section section : Section.values()) {
+                header.putLong(offsets[section.ordinal()]);
+                header.putLong(lengths[section.ordinal()] * section.elementSize);
+            }
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+    // Streams the merged run: a state per distinct prefix and a transition per record, with the alias table of every
+    // state built once all its transitions are read
+    private void writeTransitions(MappedByteBuffer[] sections, Run run) throws IOException {
+        IntBuffer prefixWords = sections[Section.PREFIX_WORDS.ordinal()].asIntBuffer();
+        IntBuffer firstTransitions = sections[Section.FIRST_TRANSITIONS.ordinal()].asIntBuffer();
+        IntBuffer transitionWords = sections[Section.TRANSITION_WORDS.ordinal()].asIntBuffer();
+        IntBuffer cumulativeOccurrences = sections[Section.CUMULATIVE_OCCURRENCES.ordinal()].asIntBuffer();
+        AliasWriter aliasWriter = new AliasWriter(sections);
+
+        if (run != Run.EMPTY) {
+            try (RunReader reader = new RunReader(run.path)) {
+                int[] prefix = new int[prefixSize];
+                int occurrences = 0;
+                while (reader.next()) {
+                    int[] record = reader.record;
+                    if (transitionWords.position() == 0 || !samePrefix(prefix, record)) {
+                        aliasWriter.endState();
+                        firstTransitions.put(transitionWords.position());
+                        prefixWords.put(record, 0, prefixSize);
+                        System.arraycopy(record, 0, prefix, 0, prefixSize);
+                    }
+
+                    occurrences += record[recordWidth];
+                    transitionWords.put(record[prefixSize]);
+                    cumulativeOccurrences.put(occurrences);
+                    aliasWriter.add(record[recordWidth]);
+                }
+            }
+        }
+        aliasWriter.endState();
+        firstTransitions.put(transitionWords.position());
+    }
+
+    // Target of every transition looked up in the mapped prefixes, returns the line start states
+    private int[] writeTargets(MappedByteBuffer[] sections, PackedPrefixIndex prefixes, int prefixCount) {
+        IntBuffer firstTransitions = sections[Section.FIRST_TRANSITIONS.ordinal()].asIntBuffer();
+        IntBuffer transitionWords = sections[Section.TRANSITION_WORDS.ordinal()].asIntBuffer();
+        IntBuffer transitionTargets = sections[Section.TRANSITION_TARGETS.ordinal()].asIntBuffer();
+
+        boolean[] endsLine = new boolean[dictionary.size()];
+        for (int wordId = 0; wordId < endsLine.length; wordId++) {
+            endsLine[wordId] = dictionary.word(wordId).endsWith("\n");
+        }
+
+        BitSet lineStarts = new BitSet(prefixCount);
+        if (statesCount > 0) {
+            lineStarts.set(prefixes.find(corpusStart, 0));
+        }
+
+        int[] window = new int[prefixSize];
+        for (int state = 0; state < prefixCount; state++) {
+            for (int i = 0; i < prefixSize; i++) {
+                window[i] = prefixes.wordAt(state, i);
+            }
+            boolean lineEnd = endsLine[window[0]];
+
+            for (int transition = firstTransitions.get(state); transition < firstTransitions.get(state + 1); transition++) {
+                window[0] = transitionWords.get(transition);
+                int target = prefixes.find(window, 1 % prefixSize);
+                transitionTargets.put(transition, target);
+                if (lineEnd && target != TransitionGraph.NO_STATE) {
+                    lineStarts.set(target);
+                }
+            }
+        }
+
+        return lineStarts.stream().toArray();
+    }
+
+    private boolean samePrefix(int[] a, int[] b) {
+        for (int i = 0; i < prefixSize; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(String.format("A model file section of %d bytes is over the %d bytes limit", length, Integer.MAX_VALUE));
+        }
+        MappedByteBuffer section = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+        section.order(TextFiniteStateMachineFile.BYTE_ORDER);
+        return section;
+    }
+
+    private static void putInts(IntBuffer buffer, IntArray values) {
+        for (int i = 0; i < values.length(); i++) {
+            buffer.put(i, values.get(i));
+        }
+    }
+
+    private static int toInt(long count, String what) throws IOException {
+        if (count > Integer.MAX_VALUE) {
+            throw new IOException(String.format("The corpus has %d %s, model files count up to %d", count, what, Integer.MAX_VALUE));
+        }
+        return (int) count;
+    }
+
+    // Buffers the occurrences of the transitions of the current state and writes its alias table when it ends
+    private static class AliasWriter {
+        private final DoubleBuffer aliasProbabilities;
+        private final IntBuffer aliases;
+        private int[] occurrences = new int[16];
+        private double[] probabilities = new double[16];
+        private int[] stateAliases = new int[16];
+        private TransitionGraph.AliasTableBuilder builder = new TransitionGraph.AliasTableBuilder(occurrences, probabilities, stateAliases);
+        private int count;
+
+        AliasWriter(MappedByteBuffer[] sections) {
+            aliasProbabilities = sections[Section.ALIAS_PROBABILITIES.ordinal()].asDoubleBuffer();
+            aliases = sections[Section.ALIASES.ordinal()].asIntBuffer();
+        }
+
+        void add(int transitionOccurrences) {
+            if (count == occurrences.length) {
+                occurrences = Arrays.copyOf(occurrences, count * 2);
+                probabilities = new double[count * 2];
+                stateAliases = new int[count * 2];
+                builder = new TransitionGraph.AliasTableBuilder(occurrences, probabilities, stateAliases);
+            }
+            occurrences[count++] = transitionOccurrences;
+        }
+
+        void endState() {
+            if (count == 0) {
+                return;
+            }
+
+            int first = aliases.position();
+            builder.buildState(0, count);
+            for (int i = 0; i < count; i++) {
+                aliasProbabilities.put(probabilities[i]);
+                aliases.put(first + stateAliases[i]);
+            }
+            count = 0;
+        }
+    }
+
+    // A run file with the number of records and of distinct prefixes in it
+    private static final class Run {
+        // No run at all, for corpora shorter than the prefix
+        static final Run EMPTY = new Run(null, 0, 0);
+
+        private final Path path;
+        private final long records;
+        private final long prefixes;
+
+        Run(Path path, long records, long prefixes) {
+            this.path = path;
+            this.records = records;
+            this.prefixes = prefixes;
+        }
+    }
+
+    // Records of a run: prefix word ids, suffix word id and occurrences, sorted and with no two equal states
+    private class RunWriter implements Closeable {
+        private final Path path;
+        private final DataOutputStream output;
+        private final int[] pending;
+        private boolean hasPending;
+        private boolean closed;
+        private long records;
+        private long prefixes;
+
+        RunWriter(Path path) throws IOException {
+            this.path = path;
+            output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), STREAM_BUFFER_SIZE));
+            pending = new int[recordWidth + 1];
+            hasPending = false;
+            closed = false;
+            records = 0;
+            prefixes = 0;
+        }
+
+        // Records have to come in order, a record equal to the previous one adds up to its occurrences
+        void add(int[] data, int offset, int occurrences) throws IOException {
+            if (hasPending) {
+                boolean sameState = true;
+                boolean samePrefix = true;
+                for (int i = 0; i < recordWidth; i++) {
+                    if (pending[i] != data[offset + i]) {
+                        sameState = false;
+                        samePrefix &= i >= prefixSize;
+                    }
+                }
+
+                if (sameState) {
+                    pending[recordWidth] = Math.addExact(pending[recordWidth], occurrences);
+                    return;
+                }
+                writePending();
+                prefixes += samePrefix ? 0 : 1;
+            } else {
+                prefixes++;
+            }
+
+            System.arraycopy(data, offset, pending, 0, recordWidth);
+            pending[recordWidth] = occurrences;
+            hasPending = true;
+        }
+
+        // Closes the run once every record is added, returns it with its counts
+        Run finish() throws IOException {
+            close();
+            return new Run(path, records, prefixes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (hasPending) {
+                    writePending();
+                }
+            } finally {
+                output.close();
+            }
+        }
+
+        private void writePending() throws IOException {
+            for (int value : pending) {
+                output.writeInt(value);
+            }
+            records++;
+        }
+    }
+
+    private class RunReader implements Closeable {
+        private final DataInputStream input;
+        private final int[] record;
+
+        RunReader(Path run) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), STREAM_BUFFER_SIZE));
+            record = new int[recordWidth + 1];
+        }
+
+        boolean next() throws IOException {
+            try {
+                record[0] = input.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            for (int i = 1; i < record.length; i++) {
+                record[i] = input.readInt();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
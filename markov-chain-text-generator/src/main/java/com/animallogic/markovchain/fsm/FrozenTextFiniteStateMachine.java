@@ -0,0 +1,176 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.fsm.engine.SuffixMemoryReport;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.State;
+import com.animallogic.markovchain.fsm.types.Suffix;
+import com.google.common.collect.ImmutableList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Immutable snapshot of a TextFiniteStateMachine, created by TextFiniteStateMachine.freeze() or opened from a model
+// file. Everything is read from the transition graph, which is compiled up front and reachable from final fields, so
+// once constructed a snapshot can be shared by any number of threads without locking, even when it is published
+// without synchronization. Nothing in it is written after construction: sufficesFor() and prefixes() return read only
+// views that do not copy the tables.
+final class FrozenTextFiniteStateMachine extends TextFiniteStateMachine {
+    private final TransitionGraph transitionGraph;
+    private final List<Prefix> prefixes;
+    // The report of the suffixes the snapshot was frozen from, null when it was not built from a SuffixStore
+    private final SuffixMemoryReport memoryReport;
+    // The file the tables are read from when it has to stay open, null otherwise
+    private final Closeable file;
+
+    FrozenTextFiniteStateMachine(PrefixSize fixedPrefixSize, TransitionGraph transitionGraph) {
+        this(fixedPrefixSize, transitionGraph, null, null);
+    }
+
+    FrozenTextFiniteStateMachine(PrefixSize fixedPrefixSize, TransitionGraph transitionGraph, SuffixMemoryReport memoryReport, Closeable file) {
+        super(fixedPrefixSize, null, null, null, transitionGraph.totalOccurrences());
+        this.transitionGraph = transitionGraph;
+        this.prefixes = new FrozenPrefixListView();
+        this.memoryReport = memoryReport;
+        this.file = file;
+    }
+
+    @Override
+    boolean addState(State state) {
+        throw new IllegalStateException("The state machine is frozen, no more states can be added to it");
+    }
+
+    @Override
+    void addState(int[] window, int start, int suffixWordId) {
+        throw new IllegalStateException("The state machine is frozen, no more states can be added to it");
+    }
+
+    @Override
+    int internWord(String word) {
+        throw new IllegalStateException("The state machine is frozen, no more words can be added to it");
+    }
+
+    // The report taken when the state machine was frozen, models opened from a file or built from a suffix array were
+    // never held in a SuffixStore
+    @Override
+    public SuffixMemoryReport memoryReport() {
+        if (memoryReport == null) {
+            throw new IllegalStateException("The state machine was not built from a suffix store, it has no memory report, see statistics()");
+        }
+        return memoryReport;
+    }
+
+    @Override
+    SuffixMemoryReport builtMemoryReport() {
+        return memoryReport;
+    }
+
+    @Override
+    public List<Suffix> sufficesFor(Prefix prefix) {
+        int state = stateOf(prefix);
+        if (state == TransitionGraph.NO_STATE) {
+            return Collections.emptyList();
+        } else {
+            return new FrozenSuffixListView(state);
+        }
+    }
+
+    @Override
+    public int statesCount() {
+        return transitionGraph.totalOccurrences();
+    }
+
+    @Override
+    public List<Prefix> prefixes() {
+        return prefixes;
+    }
+
+    @Override
+    public TextFiniteStateMachine freeze() {
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    @Override
+    public boolean isFrozen() {
+        return true;
+    }
+
+    @Override
+    public TransitionGraph transitionGraph() {
+        return transitionGraph;
+    }
+
+    private int stateOf(Prefix prefix) {
+        if (prefix == null || prefix.words().size() != transitionGraph.prefixSize()) {
+            return TransitionGraph.NO_STATE;
+        }
+
+        List<String> words = prefix.words();
+        int[] wordIds = new int[words.size()];
+        for (int i = 0; i < wordIds.length; i++) {
+            wordIds[i] = transitionGraph.wordIdOf(words.get(i));
+            if (wordIds[i] < 0) {
+                return TransitionGraph.NO_STATE;
+            }
+        }
+
+        return transitionGraph.stateOf(wordIds);
+    }
+
+    // Same order as the views of the state machine under construction, a suffix is listed once per occurrence
+    private class FrozenSuffixListView extends AbstractList<Suffix> implements RandomAccess {
+        private final int state;
+        private final int size;
+
+        FrozenSuffixListView(int state) {
+            this.state = state;
+            this.size = transitionGraph.occurrenceCount(state);
+        }
+
+        @Override
+        public Suffix get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for %d suffixes", index, size));
+            }
+
+            int wordId = transitionGraph.wordId(transitionGraph.transitionOfOccurrence(state, index));
+            return transitionGraph.isEof(wordId) ? Suffix.EOF : Suffix.of(transitionGraph.word(wordId));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private class FrozenPrefixListView extends AbstractList<Prefix> implements RandomAccess {
+        @Override
+        public Prefix get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for %d prefixes", index, size()));
+            }
+
+            ImmutableList.Builder<String> words = ImmutableList.builder();
+            for (int i = 0; i < transitionGraph.prefixSize(); i++) {
+                words.add(transitionGraph.word(transitionGraph.stateWordId(index, i)));
+            }
+            return Prefix.of(words.build());
+        }
+
+        @Override
+        public int size() {
+            return transitionGraph.stateCount();
+        }
+    }
+}
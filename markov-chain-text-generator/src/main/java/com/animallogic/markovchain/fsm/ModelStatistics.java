@@ -0,0 +1,75 @@
+package com.animallogic.markovchain.fsm;
+
+// Size of a compiled model. States with the same suffixes share one suffix distribution, so the transitions of the states
+// take distributionTransitions entries of words, occurrences and alias tables plus a target each. States with a single
+// transition are collapsed into runs that the generator walks as one step, the compression ratio is how many steps a
+// walk through every state takes against how many it takes with the runs.
+public final class ModelStatistics {
+    private final int states;
+    private final int transitions;
+    private final int distributions;
+    private final int distributionTransitions;
+    private final int singleTransitionStates;
+    private final int runs;
+
+    ModelStatistics(int states, int transitions, int distributions, int distributionTransitions, int singleTransitionStates, int runs) {
+        this.states = states;
+        this.transitions = transitions;
+        this.distributions = distributions;
+        this.distributionTransitions = distributionTransitions;
+        this.singleTransitionStates = singleTransitionStates;
+        this.runs = runs;
+    }
+
+    public int states() {
+        return states;
+    }
+
+    public int transitions() {
+        return transitions;
+    }
+
+    public int distributions() {
+        return distributions;
+    }
+
+    public int distributionTransitions() {
+        return distributionTransitions;
+    }
+
+    // Bytes of the transition tables against a distribution per state: every shared transition saves its word, its
+    // cumulative occurrences, its alias and its alias probability, every state costs the id of its distribution
+    public long sharedDistributionBytes() {
+        return (long) states * Integer.BYTES + (distributions + 1L) * Integer.BYTES
+                + (long) distributionTransitions * (3 * Integer.BYTES + Double.BYTES) + (long) transitions * Integer.BYTES;
+    }
+
+    public long unsharedDistributionBytes() {
+        return (long) transitions * (4 * Integer.BYTES + Double.BYTES);
+    }
+
+    public int singleTransitionStates() {
+        return singleTransitionStates;
+    }
+
+    public int runs() {
+        return runs;
+    }
+
+    // States plus runs minus the states inside the runs
+    public int collapsedSteps() {
+        return states - singleTransitionStates + runs;
+    }
+
+    public double compressionRatio() {
+        return collapsedSteps() == 0 ? 1.0 : (double) states / collapsedSteps();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d states, %d transitions in %d distributions of %d transitions (%d bytes, %d unshared), "
+                        + "%d single transition states in %d runs, compression ratio %.2f",
+                states, transitions, distributions, distributionTransitions, sharedDistributionBytes(), unsharedDistributionBytes(),
+                singleTransitionStates, runs, compressionRatio());
+    }
+}
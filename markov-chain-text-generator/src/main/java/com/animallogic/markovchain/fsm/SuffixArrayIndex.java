@@ -0,0 +1,90 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.fsm.engine.SuffixArray;
+import com.animallogic.markovchain.fsm.engine.SuffixArrayPrefixIndex;
+import com.animallogic.markovchain.fsm.engine.WordDictionary;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.Suffix;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+// The whole corpus as word ids with its suffix array and LCP array. The suffixes of a prefix of any size are the
+// words that follow the suffixes starting with the prefix, which sit next to each other in the suffix array and are
+// found by binary search, so one index answers for every prefix size instead of building a state machine per size.
+public final class SuffixArrayIndex {
+    private final WordDictionary dictionary;
+    private final SuffixArray suffixArray;
+
+    SuffixArrayIndex(WordDictionary dictionary, SuffixArray suffixArray) {
+        this.dictionary = dictionary;
+        this.suffixArray = suffixArray;
+    }
+
+    public int wordCount() {
+        return suffixArray.length();
+    }
+
+    // Suffixes of a prefix with any number of words, listed once per occurrence
+    public List<Suffix> sufficesFor(Prefix prefix) {
+        List<String> words = prefix.words();
+        int[] wordIds = new int[words.size()];
+        for (int i = 0; i < wordIds.length; i++) {
+            wordIds[i] = dictionary.idOf(words.get(i));
+            if (wordIds[i] < 0) {
+                return Collections.emptyList();
+            }
+        }
+
+        int first = suffixArray.lowerBound(wordIds, 0, wordIds.length);
+        int last = suffixArray.upperBound(wordIds, 0, wordIds.length);
+        return new SuffixRangeView(first, last, wordIds.length);
+    }
+
+    // A frozen state machine for the prefix size with the same states a TextFiniteStateMachineFactory build of the
+    // corpus has. Prefixes and suffixes are in suffix array order and prefixes are looked up in the suffix array, only
+    // the transition graph of the prefix size is built, in a linear pass over the index: the state every transition
+    // leads to is read off the rank of the position after it rather than searched for.
+    public TextFiniteStateMachine stateMachine(PrefixSize prefixSize) {
+        SuffixArrayPrefixIndex prefixes = new SuffixArrayPrefixIndex(suffixArray, prefixSize.value());
+        SuffixArrayPrefixIndex.RunSuffixTable suffixTable = prefixes.suffixTable();
+
+        int corpusStartState = TransitionGraph.NO_STATE;
+        if (suffixArray.length() >= prefixSize.value()) {
+            corpusStartState = prefixes.prefixOfRank(suffixArray.firstPositionRank());
+        }
+
+        TransitionGraph graph = TransitionGraph.compile(dictionary.pack(), prefixes, suffixTable, suffixTable::targetAt, corpusStartState);
+        return new FrozenTextFiniteStateMachine(prefixSize, graph);
+    }
+
+    private class SuffixRangeView extends AbstractList<Suffix> implements RandomAccess {
+        private final int firstRank;
+        private final int size;
+        private final int prefixLength;
+
+        SuffixRangeView(int firstRank, int lastRank, int prefixLength) {
+            this.firstRank = firstRank;
+            this.size = lastRank - firstRank;
+            this.prefixLength = prefixLength;
+        }
+
+        @Override
+        public Suffix get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for %d suffixes", index, size));
+            }
+
+            int next = suffixArray.suffixAt(firstRank + index) + prefixLength;
+            return next < suffixArray.length() ? Suffix.of(dictionary.word(suffixArray.token(next))) : Suffix.EOF;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
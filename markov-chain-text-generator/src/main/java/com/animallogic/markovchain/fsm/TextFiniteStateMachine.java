@@ -1,24 +1,44 @@
 package com.animallogic.markovchain.fsm;
 
+import com.animallogic.markovchain.fsm.engine.PrefixTable;
+import com.animallogic.markovchain.fsm.engine.SuffixMemoryReport;
+import com.animallogic.markovchain.fsm.engine.SuffixStore;
+import com.animallogic.markovchain.fsm.engine.WordDictionary;
 import com.animallogic.markovchain.fsm.types.Prefix;
 import com.animallogic.markovchain.fsm.types.PrefixSize;
 import com.animallogic.markovchain.fsm.types.State;
 import com.animallogic.markovchain.fsm.types.Suffix;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.ImmutableList;
 
-import java.util.ArrayList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.RandomAccess;
 
-public class TextFiniteStateMachine {
-    private Multimap<Prefix, Suffix> finiteStateMachine;
-    private PrefixSize fixedPrefixSize;
+public class TextFiniteStateMachine implements Closeable {
+    private final PrefixSize fixedPrefixSize;
+    private final WordDictionary dictionary;
+    private final PrefixTable prefixTable;
+    private final SuffixStore suffixStore;
+    private int statesCount;
+    private TransitionGraph transitionGraph;
+    private TextFiniteStateMachine frozenSnapshot;
 
     TextFiniteStateMachine(PrefixSize fixedPrefixSize) {
+        this(fixedPrefixSize, new WordDictionary(), new PrefixTable(fixedPrefixSize.value()), new SuffixStore(), 0);
+    }
+
+    // Frozen snapshots pass no tables, they read everything from their transition graph
+    TextFiniteStateMachine(PrefixSize fixedPrefixSize, WordDictionary dictionary, PrefixTable prefixTable, SuffixStore suffixStore, int statesCount) {
         this.fixedPrefixSize = fixedPrefixSize;
-        finiteStateMachine = ArrayListMultimap.create();
+        this.dictionary = dictionary;
+        this.prefixTable = prefixTable;
+        this.suffixStore = suffixStore;
+        this.statesCount = statesCount;
     }
 
     boolean addState(State state) {
@@ -29,26 +49,202 @@ public class TextFiniteStateMachine {
         }
 
         State s = Objects.requireNonNull(state);
-        return finiteStateMachine.put(s.prefix(), s.suffix());
+
+        List<String> words = s.prefix().words();
+        int[] prefixWords = new int[words.size()];
+        for (int i = 0; i < prefixWords.length; i++) {
+            prefixWords[i] = internWord(words.get(i));
+        }
+
+        addState(prefixWords, 0, internWord(s.suffix().value()));
+        return true;
+    }
+
+    // Word id to build states with, the EOF suffix is WordDictionary.EOF_ID
+    int internWord(String word) {
+        return dictionary.intern(word);
+    }
+
+    // Adds the state whose prefix is read from the ring buffer of word ids starting at start, the builder path that
+    // creates no objects per state
+    void addState(int[] window, int start, int suffixWordId) {
+        if (frozenSnapshot != null) {
+            throw new IllegalStateException("The state machine has been frozen, no more states can be added to it");
+        }
+
+        int prefixId = prefixTable.intern(window, start);
+        suffixStore.add(prefixId, suffixWordId);
+        statesCount++;
+        transitionGraph = null;
     }
 
     public List<Suffix> sufficesFor(Prefix prefix) {
-        if (prefix == null) {
+        int prefixId = prefixIdOf(prefix);
+        if (prefixId < 0) {
             return Collections.emptyList();
         } else {
-            return new ArrayList<>(finiteStateMachine.get(prefix));
+            return new SuffixListView(prefixId);
         }
     }
 
     public int statesCount() {
-        return finiteStateMachine.size();
+        return statesCount;
     }
 
     public List<Prefix> prefixes() {
-        return new ArrayList<>(finiteStateMachine.keySet());
+        return new PrefixListView();
+    }
+
+    // Counts of the compiled transition graph, see ModelStatistics
+    public ModelStatistics statistics() {
+        return transitionGraph().statistics();
+    }
+
+    // Fan-outs of the prefixes and the memory their suffixes take while the state machine is built
+    public SuffixMemoryReport memoryReport() {
+        return suffixStore.memoryReport();
+    }
+
+    // Bytes of the tables while the state machine is built, estimated like in SuffixMemoryReport
+    long tableBytes() {
+        return dictionary.bytes() + prefixTable.bytes() + suffixStore.memoryReport().bytes();
+    }
+
+    // The report copies of the state machine carry over, null when there is none
+    SuffixMemoryReport builtMemoryReport() {
+        return suffixStore.memoryReport();
+    }
+
+    // Ends the construction of the state machine: the snapshot takes over the tables (so no more states can be added
+    // to this instance) and is immutable, see FrozenTextFiniteStateMachine. It keeps the memory report of the suffixes
+    // as they were when frozen. The snapshot keeps the words packed as UTF-8 only, see TransitionGraph.
+    public TextFiniteStateMachine freeze() {
+        if (frozenSnapshot == null) {
+            frozenSnapshot = new FrozenTextFiniteStateMachine(fixedPrefixSize, TransitionGraph.compile(dictionary.pack(), prefixTable, suffixStore, corpusStartState()),
+                    suffixStore.memoryReport(), null);
+        }
+        return frozenSnapshot;
+    }
+
+    // Frozen copy that keeps the dictionary, the prefixes and the transitions in direct buffers instead of heap arrays
+    // and strings, see TransitionGraph.offHeap(). Each table is limited to 2 GB, like in model files.
+    public TextFiniteStateMachine offHeap() {
+        return new FrozenTextFiniteStateMachine(fixedPrefixSize, transitionGraph().offHeap(), builtMemoryReport(), null);
+    }
+
+    public boolean isFrozen() {
+        return false;
+    }
+
+    // Compiled on first use and kept until a new state is added
+    public TransitionGraph transitionGraph() {
+        TransitionGraph graph = transitionGraph;
+        if (graph == null) {
+            graph = TransitionGraph.compile(dictionary, prefixTable, suffixStore, corpusStartState());
+            transitionGraph = graph;
+        }
+        return graph;
+    }
+
+    // Prefix ids are handed out in insertion order, so the first prefix added is the one the corpus starts with
+    private int corpusStartState() {
+        return prefixTable.size() > 0 ? 0 : TransitionGraph.NO_STATE;
+    }
+
+    // Models opened through a page cache keep their file open until closed, the others hold nothing to close
+    @Override
+    public void close() throws IOException {
     }
 
     public PrefixSize getFixedPrefixSize() {
         return fixedPrefixSize;
     }
+
+    private int prefixIdOf(Prefix prefix) {
+        if (prefix == null || prefix.words().size() != fixedPrefixSize.value()) {
+            return -1;
+        }
+
+        List<String> words = prefix.words();
+        int[] prefixWords = new int[words.size()];
+        for (int i = 0; i < prefixWords.length; i++) {
+            prefixWords[i] = dictionary.idOf(words.get(i));
+            if (prefixWords[i] < 0) {
+                return -1;
+            }
+        }
+
+        return prefixTable.find(prefixWords, 0);
+    }
+
+    private Suffix suffixOf(int wordId) {
+        return wordId == WordDictionary.EOF_ID ? Suffix.EOF : Suffix.of(dictionary.word(wordId));
+    }
+
+    private Prefix prefixOf(int prefixId) {
+        ImmutableList.Builder<String> words = ImmutableList.builder();
+        for (int i = 0; i < prefixTable.prefixSize(); i++) {
+            words.add(dictionary.word(prefixTable.wordAt(prefixId, i)));
+        }
+        return Prefix.of(words.build());
+    }
+
+    // Read only views over the int encoded tables. Suffixes are listed once per occurrence, grouped by suffix in the
+    // order they were first seen. Each view keeps the occurrences the prefix had when the view was created.
+    private class SuffixListView extends AbstractList<Suffix> implements RandomAccess {
+        private final int prefixId;
+        private final int[] cumulativeOccurrences;
+        private final int size;
+
+        SuffixListView(int prefixId) {
+            this.prefixId = prefixId;
+
+            cumulativeOccurrences = new int[suffixStore.distinctSuffixCount(prefixId)];
+            int occurrences = 0;
+            for (int i = 0; i < cumulativeOccurrences.length; i++) {
+                occurrences += suffixStore.occurrencesAt(prefixId, i);
+                cumulativeOccurrences[i] = occurrences;
+            }
+            this.size = occurrences;
+        }
+
+        @Override
+        public Suffix get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for %d suffixes", index, size));
+            }
+
+            int distinctIndex = Arrays.binarySearch(cumulativeOccurrences, index + 1);
+            if (distinctIndex < 0) {
+                distinctIndex = -distinctIndex - 1;
+            }
+            return suffixOf(suffixStore.suffixAt(prefixId, distinctIndex));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private class PrefixListView extends AbstractList<Prefix> implements RandomAccess {
+        private final int size;
+
+        PrefixListView() {
+            this.size = prefixTable.size();
+        }
+
+        @Override
+        public Prefix get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for %d prefixes", index, size));
+            }
+            return prefixOf(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
 }
@@ -1,35 +1,51 @@
 package com.animallogic.markovchain.fsm;
 
 import com.animallogic.markovchain.corpus.stream.CorpusStream;
-import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream.ExtraSpacesHandling;
+import com.animallogic.markovchain.corpus.stream.ParallelFileCorpusStreamFactory;
+import com.animallogic.markovchain.fsm.engine.ShardedStateTable;
+import com.animallogic.markovchain.fsm.engine.SuffixArray;
+import com.animallogic.markovchain.fsm.engine.WordDictionary;
 import com.animallogic.markovchain.fsm.types.PrefixSize;
-import com.animallogic.markovchain.fsm.types.State;
-import com.animallogic.markovchain.fsm.types.Suffix;
 import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
-import com.google.common.collect.EvictingQueue;
 import io.atlassian.fugue.Either;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Optional;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 public class TextFiniteStateMachineFactory {
+    private static final int BATCH_SIZE = 1024;
+
+    // Slides a ring buffer of word ids over the corpus, so no objects are created per word
     public Either<TextFiniteStateMachineError, TextFiniteStateMachine> createTextFiniteStateMachine(CorpusStream corpusStream, PrefixSize prefixSize) {
         TextFiniteStateMachine finiteStateMachine = new TextFiniteStateMachine(prefixSize);
 
-        EvictingQueue<String> slidingWindow = EvictingQueue.create(prefixSize.value());
+        // Word i of the corpus goes to window[i % prefixSize], once full the prefix of the state whose suffix is word i
+        // starts at the slot that word i overwrites
+        int[] window = new int[prefixSize.value()];
+        long wordsRead = 0;
+
+        String[] batch = new String[BATCH_SIZE];
 
         try (CorpusStream stream = corpusStream) {
-            Optional<String> maybeNextWord = stream.nextWord();
+            int wordsInBatch = stream.nextWords(batch);
 
-            while (maybeNextWord.isPresent()) {
-                String nextWord = maybeNextWord.get();
+            while (wordsInBatch > 0) {
+                for (int i = 0; i < wordsInBatch; i++) {
+                    int nextWord = finiteStateMachine.internWord(batch[i]);
+                    int slot = (int) (wordsRead % window.length);
 
-                createStateIfFullWindow(slidingWindow, Suffix.of(nextWord)).ifPresent(finiteStateMachine::addState);
+                    if (wordsRead >= window.length) {
+                        finiteStateMachine.addState(window, slot, nextWord);
+                    }
 
-                slidingWindow.add(nextWord);
+                    window[slot] = nextWord;
+                    wordsRead++;
+                }
 
-                maybeNextWord = stream.nextWord();
+                wordsInBatch = stream.nextWords(batch);
             }
 
             if (!stream.consumed()) {
@@ -40,17 +56,147 @@ public class TextFiniteStateMachineFactory {
         }
 
         // Add the final state to the FSM
-        createStateIfFullWindow(slidingWindow, Suffix.EOF).ifPresent(finiteStateMachine::addState);
+        if (wordsRead >= window.length) {
+            finiteStateMachine.addState(window, (int) (wordsRead % window.length), WordDictionary.EOF_ID);
+        }
+
+        return Either.right(finiteStateMachine.freeze());
+    }
+
+    // Tokenizes the corpus file and counts its states on the given pool, building the same state machine a sequential
+    // FileCorpusStream would produce
+    public Either<TextFiniteStateMachineError, TextFiniteStateMachine> createTextFiniteStateMachine(Path corpus, ExtraSpacesHandling extraSpacesHandling, PrefixSize prefixSize, ForkJoinPool pool) {
+        CorpusStream corpusStream;
+        try {
+            corpusStream = new ParallelFileCorpusStreamFactory(pool).createCorpusStream(corpus, extraSpacesHandling);
+        } catch (IOException e) {
+            return TextFiniteStateMachineError.asLeft("An IO error occurred while opening the corpus file, see attached exception for more details", e);
+        }
 
-        return Either.right(finiteStateMachine);
+        return createTextFiniteStateMachine(corpusStream, prefixSize, pool);
     }
 
-    private Optional<State> createStateIfFullWindow(EvictingQueue<String> slidingWindow, Suffix suffix) {
-        if (slidingWindow.remainingCapacity() == 0) {
-            Prefix prefix = Prefix.of(new ArrayList<>(slidingWindow));
-            return Optional.of(State.of(prefix, suffix));
-        } else {
-            return Optional.empty();
+    // Reads the words on the calling thread and counts the states on the pool: every worker takes a range of the
+    // corpus and the partial tables are merged by prefix hash partition. Gives the same state machine as the sequential
+    // build, prefix and suffix orders included.
+    public Either<TextFiniteStateMachineError, TextFiniteStateMachine> createTextFiniteStateMachine(CorpusStream corpusStream, PrefixSize prefixSize, ForkJoinPool pool) {
+        Either<TextFiniteStateMachineError, TokenizedCorpus> errorOrCorpus = readTokens(corpusStream);
+        if (errorOrCorpus.isLeft()) {
+            return Either.left(errorOrCorpus.left().get());
+        }
+
+        TokenizedCorpus corpus = errorOrCorpus.right().get();
+        ShardedStateTable states = ShardedStateTable.build(corpus.tokens, corpus.tokenCount, prefixSize.value(), pool);
+        return Either.right(new TextFiniteStateMachine(prefixSize, corpus.dictionary, states.prefixTable(), states.suffixStore(), states.statesCount()).freeze());
+    }
+
+    // The states of one part of a corpus collection, merged afterwards with the parts that go before and after it
+    public Either<TextFiniteStateMachineError, TextFiniteStateMachinePart> createTextFiniteStateMachinePart(CorpusStream corpusStream, PrefixSize prefixSize) {
+        Either<TextFiniteStateMachineError, TokenizedCorpus> errorOrCorpus = readTokens(corpusStream);
+        if (errorOrCorpus.isLeft()) {
+            return Either.left(errorOrCorpus.left().get());
+        }
+
+        TokenizedCorpus corpus = errorOrCorpus.right().get();
+        return Either.right(TextFiniteStateMachinePart.of(prefixSize, corpus.dictionary, corpus.tokens, corpus.tokenCount));
+    }
+
+    // Reads the corpus once into a suffix array index that serves state machines of every prefix size
+    public Either<TextFiniteStateMachineError, SuffixArrayIndex> createSuffixArrayIndex(CorpusStream corpusStream) {
+        Either<TextFiniteStateMachineError, TokenizedCorpus> errorOrCorpus = readTokens(corpusStream);
+        if (errorOrCorpus.isLeft()) {
+            return Either.left(errorOrCorpus.left().get());
+        }
+
+        TokenizedCorpus corpus = errorOrCorpus.right().get();
+        SuffixArray suffixArray = SuffixArray.build(Arrays.copyOf(corpus.tokens, corpus.tokenCount), corpus.dictionary.size());
+        return Either.right(new SuffixArrayIndex(corpus.dictionary, suffixArray));
+    }
+
+    // Writes the model file of the corpus (see TextFiniteStateMachineFile) with the states sorted in run files under the
+    // work directory, so the heap only needs the word dictionary and the given budget whatever the corpus size
+    public Either<TextFiniteStateMachineError, Path> createModelFile(CorpusStream corpusStream, PrefixSize prefixSize, Path modelFile, Path workDirectory, long heapBudgetBytes) {
+        ExternalModelBuilder builder = new ExternalModelBuilder(prefixSize.value(), workDirectory, heapBudgetBytes);
+
+        int[] window = new int[prefixSize.value()];
+        long wordsRead = 0;
+
+        String[] batch = new String[BATCH_SIZE];
+
+        try (CorpusStream stream = corpusStream) {
+            int wordsInBatch = stream.nextWords(batch);
+
+            while (wordsInBatch > 0) {
+                for (int i = 0; i < wordsInBatch; i++) {
+                    int nextWord = builder.internWord(batch[i]);
+                    int slot = (int) (wordsRead % window.length);
+
+                    if (wordsRead >= window.length) {
+                        builder.addState(window, slot, nextWord);
+                    }
+
+                    window[slot] = nextWord;
+                    wordsRead++;
+                }
+
+                wordsInBatch = stream.nextWords(batch);
+            }
+
+            if (!stream.consumed()) {
+                return TextFiniteStateMachineError.asLeft("Could not read next word from corpus, the stream is not consumed/closed yet the returned word was an Optional.empty");
+            }
+
+            if (wordsRead >= window.length) {
+                builder.addState(window, (int) (wordsRead % window.length), WordDictionary.EOF_ID);
+            }
+            builder.build(modelFile);
+        } catch (IOException e) {
+            return TextFiniteStateMachineError.asLeft("An IO error occurred while building the model file, see attached exception for more details", e);
+        }
+
+        return Either.right(modelFile);
+    }
+
+    private Either<TextFiniteStateMachineError, TokenizedCorpus> readTokens(CorpusStream corpusStream) {
+        WordDictionary dictionary = new WordDictionary();
+        int[] tokens = new int[BATCH_SIZE];
+        int tokenCount = 0;
+
+        String[] batch = new String[BATCH_SIZE];
+
+        try (CorpusStream stream = corpusStream) {
+            int wordsInBatch = stream.nextWords(batch);
+
+            while (wordsInBatch > 0) {
+                if (tokenCount + wordsInBatch > tokens.length) {
+                    tokens = Arrays.copyOf(tokens, Math.max(tokens.length * 2, tokenCount + wordsInBatch));
+                }
+                for (int i = 0; i < wordsInBatch; i++) {
+                    tokens[tokenCount++] = dictionary.intern(batch[i]);
+                }
+
+                wordsInBatch = stream.nextWords(batch);
+            }
+
+            if (!stream.consumed()) {
+                return TextFiniteStateMachineError.asLeft("Could not read next word from corpus, the stream is not consumed/closed yet the returned word was an Optional.empty");
+            }
+        } catch (IOException e) {
+            return TextFiniteStateMachineError.asLeft("An IO error occurred while closing the corpus stream source, see attached exception for more details", e);
+        }
+
+        return Either.right(new TokenizedCorpus(dictionary, tokens, tokenCount));
+    }
+
+    private static class TokenizedCorpus {
+        private final WordDictionary dictionary;
+        private final int[] tokens;
+        private final int tokenCount;
+
+        TokenizedCorpus(WordDictionary dictionary, int[] tokens, int tokenCount) {
+            this.dictionary = dictionary;
+            this.tokens = tokens;
+            this.tokenCount = tokenCount;
         }
     }
 }
@@ -0,0 +1,359 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.fsm.engine.DoubleArray;
+import com.animallogic.markovchain.fsm.engine.IntArray;
+import com.animallogic.markovchain.fsm.engine.PageCache;
+import com.animallogic.markovchain.fsm.engine.PackedPrefixIndex;
+import com.animallogic.markovchain.fsm.engine.PackedWordIndex;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
+import io.atlassian.fugue.Either;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.function.Function;
+
+// Saves the compiled transition graph of a state machine and opens it back by memory mapping every table, so an opened
+// model generates text straight from the file with nothing to parse or rebuild.
+//
+// Layout, every number little endian:
+//   header   magic (int), version (int), prefix size (int), section count (int)
+//            then for every section: offset (long) and length in bytes (long)
+//   sections one per Section below, in that order, each starting at a multiple of 8 bytes
+public class TextFiniteStateMachineFile {
+    static final int MAGIC = 0x4D434D46;
+    static final int VERSION = 1;
+
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    enum Section {
+        WORD_OFFSETS(Integer.BYTES),
+        WORD_SLOTS(Integer.BYTES),
+        WORD_BYTES(Byte.BYTES),
+        PREFIX_WORDS(Integer.BYTES),
+        PREFIX_SLOTS(Integer.BYTES),
+        FIRST_TRANSITIONS(Integer.BYTES),
+        TRANSITION_WORDS(Integer.BYTES),
+        TRANSITION_TARGETS(Integer.BYTES),
+        CUMULATIVE_OCCURRENCES(Integer.BYTES),
+        ALIAS_PROBABILITIES(Double.BYTES),
+        ALIASES(Integer.BYTES),
+        LINE_START_STATES(Integer.BYTES);
+
+        final int elementSize;
+
+        Section(int elementSize) {
+            this.elementSize = elementSize;
+        }
+    }
+
+    static final int HEADER_SIZE = 4 * Integer.BYTES + Section.values().length * 2 * Long.BYTES;
+
+    public Either<TextFiniteStateMachineError, Path> save(TextFiniteStateMachine textFiniteStateMachine, Path path) {
+        // Model files keep the suffix distribution of every state, see TransitionGraph.unshared()
+        TransitionGraph graph = Objects.requireNonNull(textFiniteStateMachine).transitionGraph().unshared();
+        PackedWordIndex words = graph.words();
+        PackedPrefixIndex prefixes = graph.prefixes().pack();
+
+        long[] lengths = new long[Section.values().length];
+        lengths[Section.WORD_OFFSETS.ordinal()] = words.offsets().length();
+        lengths[Section.WORD_SLOTS.ordinal()] = words.slots().length();
+        lengths[Section.WORD_BYTES.ordinal()] = words.bytes().remaining();
+        lengths[Section.PREFIX_WORDS.ordinal()] = prefixes.words().length();
+        lengths[Section.PREFIX_SLOTS.ordinal()] = prefixes.slots().length();
+        lengths[Section.FIRST_TRANSITIONS.ordinal()] = graph.firstTransitions().length();
+        lengths[Section.TRANSITION_WORDS.ordinal()] = graph.transitionWords().length();
+        lengths[Section.TRANSITION_TARGETS.ordinal()] = graph.transitionTargets().length();
+        lengths[Section.CUMULATIVE_OCCURRENCES.ordinal()] = graph.cumulativeOccurrences().length();
+        lengths[Section.ALIAS_PROBABILITIES.ordinal()] = graph.aliasProbabilities().length();
+        lengths[Section.ALIASES.ordinal()] = graph.aliases().length();
+        lengths[Section.LINE_START_STATES.ordinal()] = graph.lineStartStates().length();
+
+        try (FileChannel channel = FileChannel.open(Objects.requireNonNull(path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SectionWriter writer = new SectionWriter(channel);
+
+            writer.putInt(MAGIC);
+            writer.putInt(VERSION);
+            writer.putInt(graph.prefixSize());
+            writer.putInt(Section.values().length);
+            long offset = HEADER_SIZE;
+            for (Section section : Section.values()) {
+                long length = lengths[section.ordinal()] * section.elementSize;
+                writer.putLong(offset);
+                writer.putLong(length);
+                offset = align(offset + length);
+            }
+
+            writer.putInts(words.offsets());
+            writer.putInts(words.slots());
+            writer.putBytes(words.bytes());
+            writer.putInts(prefixes.words());
+            writer.putInts(prefixes.slots());
+            writer.putInts(graph.firstTransitions());
+            writer.putInts(graph.transitionWords());
+            writer.putInts(graph.transitionTargets());
+            writer.putInts(graph.cumulativeOccurrences());
+            writer.putDoubles(graph.aliasProbabilities());
+            writer.putInts(graph.aliases());
+            writer.putInts(graph.lineStartStates());
+            writer.flush();
+        } catch (IOException e) {
+            return TextFiniteStateMachineError.asLeft("An IO error occurred while saving the model file, see attached exception for more details", e);
+        }
+
+        return Either.right(path);
+    }
+
+    // The returned state machine is frozen and reads its tables from the mapped file, which stays mapped as long as the
+    // state machine is reachable
+    public Either<TextFiniteStateMachineError, TextFiniteStateMachine> open(Path path) {
+        try (FileChannel channel = FileChannel.open(Objects.requireNonNull(path), StandardOpenOption.READ)) {
+            Either<TextFiniteStateMachineError, Header> errorOrHeader = readHeader(channel);
+            if (errorOrHeader.isLeft()) {
+                return Either.left(errorOrHeader.left().get());
+            }
+
+            Header header = errorOrHeader.right().get();
+            ByteBuffer[] sections = new ByteBuffer[Section.values().length];
+            for (Section section : Section.values()) {
+                sections[section.ordinal()] = channel.map(FileChannel.MapMode.READ_ONLY, header.offsets[section.ordinal()], header.lengths[section.ordinal()]).order(BYTE_ORDER);
+            }
+
+            return toStateMachine(header.prefixSize,
+                    section -> IntArray.wrap(sections[section.ordinal()].asIntBuffer()),
+                    section -> DoubleArray.wrap(sections[section.ordinal()].asDoubleBuffer()),
+                    sections[Section.WORD_BYTES.ordinal()], null);
+        } catch (IOException e) {
+            return TextFiniteStateMachineError.asLeft("An IO error occurred while opening the model file, see attached exception for more details", e);
+        }
+    }
+
+    // The returned state machine reads its tables through the page cache instead of mapping them, so only the pages of
+    // the prefixes looked up are in memory at any time and the model can be bigger than the memory. The word bytes are
+    // read into the heap. The file stays open until the state machine is closed, which also drops its pages from the
+    // cache, and an IO error while reading a page is thrown as an UncheckedIOException.
+    public Either<TextFiniteStateMachineError, TextFiniteStateMachine> open(Path path, PageCache pageCache) {
+        Objects.requireNonNull(pageCache);
+        // The channel until its pages are in the cache, then the paged file that closes both
+        Closeable opened = null;
+        try {
+            FileChannel channel = FileChannel.open(Objects.requireNonNull(path), StandardOpenOption.READ);
+            opened = channel;
+            Either<TextFiniteStateMachineError, Header> errorOrHeader = readHeader(channel);
+            if (errorOrHeader.isLeft()) {
+                channel.close();
+                return Either.left(errorOrHeader.left().get());
+            }
+
+            Header header = errorOrHeader.right().get();
+            ByteBuffer wordBytes = ByteBuffer.allocate((int) header.lengths[Section.WORD_BYTES.ordinal()]);
+            while (wordBytes.hasRemaining()) {
+                if (channel.read(wordBytes, header.offsets[Section.WORD_BYTES.ordinal()] + wordBytes.position()) < 0) {
+                    throw new EOFException("The model file ended in the middle of its word bytes");
+                }
+            }
+            wordBytes.flip();
+
+            PageCache.PagedFile file = pageCache.file(channel, BYTE_ORDER);
+            opened = file;
+            Either<TextFiniteStateMachineError, TextFiniteStateMachine> errorOrStateMachine = toStateMachine(header.prefixSize,
+                    section -> file.ints(header.offsets[section.ordinal()], header.lengths[section.ordinal()]),
+                    section -> file.doubles(header.offsets[section.ordinal()], header.lengths[section.ordinal()]),
+                    wordBytes, file);
+            if (errorOrStateMachine.isLeft()) {
+                file.close();
+            }
+            return errorOrStateMachine;
+        } catch (IOException | UncheckedIOException e) {
+            closeQuietly(opened);
+            return TextFiniteStateMachineError.asLeft("An IO error occurred while opening the model file, see attached exception for more details", e);
+        }
+    }
+
+    private Either<TextFiniteStateMachineError, Header> readHeader(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < HEADER_SIZE) {
+            return TextFiniteStateMachineError.asLeft(String.format("The file is not a model file, it is only %d bytes long", fileSize));
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(BYTE_ORDER);
+        while (header.hasRemaining()) {
+            channel.read(header, header.position());
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            return TextFiniteStateMachineError.asLeft("The file is not a model file, it does not start with the model file magic number");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            return TextFiniteStateMachineError.asLeft(String.format("Unsupported model file version %d, only version %d can be opened", version, VERSION));
+        }
+        int prefixSize = header.getInt();
+        int sectionCount = header.getInt();
+        if (prefixSize < 2 || sectionCount != Section.values().length) {
+            return TextFiniteStateMachineError.asLeft(String.format("Corrupted model file header (prefix size %d, %d sections)", prefixSize, sectionCount));
+        }
+
+        long[] offsets = new long[sectionCount];
+        long[] lengths = new long[sectionCount];
+        for (Section section : Section.values()) {
+            long offset = header.getLong();
+            long length = header.getLong();
+            if (offset < HEADER_SIZE || length < 0 || offset + length > fileSize || length > Integer.MAX_VALUE || length % section.elementSize != 0) {
+                return TextFiniteStateMachineError.asLeft(String.format("Corrupted model file, section %s at %d with %d bytes does not fit in a file of %d bytes", section, offset, length, fileSize));
+            }
+            offsets[section.ordinal()] = offset;
+            lengths[section.ordinal()] = length;
+        }
+
+        return Either.right(new Header(prefixSize, offsets, lengths));
+    }
+
+    // The file is closed with the state machine, null when there is nothing to close
+    private Either<TextFiniteStateMachineError, TextFiniteStateMachine> toStateMachine(int prefixSize, Function<Section, IntArray> ints,
+                                                                                       Function<Section, DoubleArray> doubles, ByteBuffer wordBytes,
+                                                                                       Closeable file) {
+        PackedWordIndex words = new PackedWordIndex(ints.apply(Section.WORD_OFFSETS), ints.apply(Section.WORD_SLOTS), wordBytes);
+        PackedPrefixIndex prefixes = new PackedPrefixIndex(prefixSize, ints.apply(Section.PREFIX_WORDS), ints.apply(Section.PREFIX_SLOTS));
+
+        IntArray firstTransitions = ints.apply(Section.FIRST_TRANSITIONS);
+        int transitions = ints.apply(Section.TRANSITION_WORDS).length();
+        boolean consistent = words.offsets().length() > 1
+                && isPowerOfTwo(words.slots().length())
+                && isPowerOfTwo(prefixes.slots().length())
+                && prefixes.words().length() % prefixSize == 0
+                && firstTransitions.length() == prefixes.size() + 1
+                && firstTransitions.get(firstTransitions.length() - 1) == transitions
+                && ints.apply(Section.TRANSITION_TARGETS).length() == transitions
+                && ints.apply(Section.CUMULATIVE_OCCURRENCES).length() == transitions
+                && doubles.apply(Section.ALIAS_PROBABILITIES).length() == transitions
+                && ints.apply(Section.ALIASES).length() == transitions;
+        if (!consistent) {
+            return TextFiniteStateMachineError.asLeft("Corrupted model file, the sizes of its tables do not match");
+        }
+
+        TransitionGraph graph = new TransitionGraph(words, prefixes, firstTransitions,
+                ints.apply(Section.TRANSITION_WORDS), ints.apply(Section.TRANSITION_TARGETS),
+                ints.apply(Section.CUMULATIVE_OCCURRENCES), doubles.apply(Section.ALIAS_PROBABILITIES),
+                ints.apply(Section.ALIASES), ints.apply(Section.LINE_START_STATES));
+
+        return Either.right(new FrozenTextFiniteStateMachine(PrefixSize.of(prefixSize), graph, null, file));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Already failing with the error that made the channel useless
+        }
+    }
+
+    private static boolean isPowerOfTwo(int value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    static long align(long offset) {
+        return (offset + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    // Buffers the writes and pads every section to the next multiple of 8 bytes
+    private static class SectionWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+
+        SectionWriter(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(BYTE_ORDER);
+            this.position = 0;
+        }
+
+        void putInt(int value) throws IOException {
+            ensureRemaining(Integer.BYTES);
+            buffer.putInt(value);
+            position += Integer.BYTES;
+        }
+
+        void putLong(long value) throws IOException {
+            ensureRemaining(Long.BYTES);
+            buffer.putLong(value);
+            position += Long.BYTES;
+        }
+
+        void putInts(IntArray values) throws IOException {
+            for (int i = 0; i < values.length(); i++) {
+                putInt(values.get(i));
+            }
+            pad();
+        }
+
+        void putDoubles(DoubleArray values) throws IOException {
+            for (int i = 0; i < values.length(); i++) {
+                ensureRemaining(Double.BYTES);
+                buffer.putDouble(values.get(i));
+                position += Double.BYTES;
+            }
+            pad();
+        }
+
+        void putBytes(ByteBuffer values) throws IOException {
+            while (values.hasRemaining()) {
+                ensureRemaining(1);
+                int length = Math.min(values.remaining(), buffer.remaining());
+                ByteBuffer chunk = values.duplicate();
+                chunk.limit(chunk.position() + length);
+                buffer.put(chunk);
+                values.position(values.position() + length);
+                position += length;
+            }
+            pad();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void pad() throws IOException {
+            while (position != align(position)) {
+                ensureRemaining(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        private void ensureRemaining(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    private static class Header {
+        private final int prefixSize;
+        private final long[] offsets;
+        private final long[] lengths;
+
+        Header(int prefixSize, long[] offsets, long[] lengths) {
+            this.prefixSize = prefixSize;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+    }
+}
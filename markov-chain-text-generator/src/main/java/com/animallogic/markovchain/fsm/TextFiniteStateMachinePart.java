@@ -0,0 +1,317 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.fsm.engine.PrefixTable;
+import com.animallogic.markovchain.fsm.engine.SuffixStore;
+import com.animallogic.markovchain.fsm.engine.WordDictionary;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
+import io.atlassian.fugue.Either;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+// The states of one part of a corpus, built on its own and merged with the parts around it. A part keeps the states
+// whose suffix is inside the part plus its first and last prefix size words: merging a part with the one that follows
+// it adds the states that straddle both, and the state of the last window with the EOF suffix is only added once the
+// whole corpus is merged. Merging is associative and the empty part is its identity, so parts can be reduced in any
+// grouping as long as their order is kept, and the merged state machine is the one a sequential build of the whole
+// corpus gives, prefix and suffix orders included.
+public final class TextFiniteStateMachinePart {
+    static final int MAGIC = 0x4D434D50;
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final PrefixSize prefixSize;
+    private final WordDictionary dictionary;
+    private final PrefixTable prefixTable;
+    private final SuffixStore suffixStore;
+    private final int statesCount;
+    private final long wordCount;
+    // First and last words of the part, up to prefix size each, the whole part when it is shorter than that
+    private final int[] head;
+    private final int[] tail;
+
+    private TextFiniteStateMachinePart(PrefixSize prefixSize, WordDictionary dictionary, PrefixTable prefixTable, SuffixStore suffixStore,
+                                       int statesCount, long wordCount, int[] head, int[] tail) {
+        this.prefixSize = prefixSize;
+        this.dictionary = dictionary;
+        this.prefixTable = prefixTable;
+        this.suffixStore = suffixStore;
+        this.statesCount = statesCount;
+        this.wordCount = wordCount;
+        this.head = head;
+        this.tail = tail;
+    }
+
+    public static TextFiniteStateMachinePart empty(PrefixSize prefixSize) {
+        return new TextFiniteStateMachinePart(prefixSize, new WordDictionary(), new PrefixTable(prefixSize.value()), new SuffixStore(), 0, 0, new int[0], new int[0]);
+    }
+
+    static TextFiniteStateMachinePart of(PrefixSize prefixSize, WordDictionary dictionary, int[] tokens, int tokenCount) {
+        int k = prefixSize.value();
+        PrefixTable prefixTable = new PrefixTable(k);
+        SuffixStore suffixStore = new SuffixStore();
+        int[] window = new int[k];
+        for (int position = 0; position + k < tokenCount; position++) {
+            System.arraycopy(tokens, position, window, 0, k);
+            suffixStore.add(prefixTable.intern(window, 0), tokens[position + k]);
+        }
+
+        int ends = Math.min(k, tokenCount);
+        return new TextFiniteStateMachinePart(prefixSize, dictionary, prefixTable, suffixStore, Math.max(0, tokenCount - k), tokenCount,
+                Arrays.copyOf(tokens, ends), Arrays.copyOfRange(tokens, tokenCount - ends, tokenCount));
+    }
+
+    // This part followed by the next one
+    public TextFiniteStateMachinePart merge(TextFiniteStateMachinePart next) {
+        return merge(prefixSize, Arrays.asList(this, next));
+    }
+
+    // The parts one after the other, merged in a single pass instead of copying the states of the first parts once per
+    // merge
+    public static TextFiniteStateMachinePart merge(PrefixSize prefixSize, List<TextFiniteStateMachinePart> parts) {
+        int k = prefixSize.value();
+        int expectedPrefixes = 0;
+        for (TextFiniteStateMachinePart part : parts) {
+            if (part.prefixSize.value() != k) {
+                throw new IllegalArgumentException(
+                        String.format("Parts with prefixes of %d and %d words cannot be merged", k, part.prefixSize.value())
+                );
+            }
+            expectedPrefixes += part.prefixTable.size();
+        }
+
+        WordDictionary mergedDictionary = new WordDictionary();
+        PrefixTable mergedPrefixes = new PrefixTable(k, expectedPrefixes);
+        SuffixStore mergedSuffixes = new SuffixStore(expectedPrefixes);
+        int states = 0;
+        long wordCount = 0;
+        int[] head = new int[0];
+        int[] tail = new int[0];
+        int[] window = new int[k];
+
+        // States are added by the position of their suffix, like a sequential build does: the ones straddling the
+        // words so far and the part, whose suffix is in the first words of the part, then the ones inside the part
+        for (TextFiniteStateMachinePart part : parts) {
+            int[] wordIds = internAll(part.dictionary, mergedDictionary);
+            int[] partHead = map(part.head, wordIds);
+
+            int[] boundary = concat(tail, partHead);
+            for (int start = 0; start < tail.length && start + k < boundary.length; start++) {
+                System.arraycopy(boundary, start, window, 0, k);
+                mergedSuffixes.add(mergedPrefixes.intern(window, 0), boundary[start + k]);
+                states++;
+            }
+
+            addStates(part.prefixTable, part.suffixStore, wordIds, mergedPrefixes, mergedSuffixes);
+            states = Math.addExact(states, part.statesCount);
+
+            wordCount += part.wordCount;
+            int ends = (int) Math.min(k, wordCount);
+            head = Arrays.copyOf(concat(head, partHead), ends);
+            int[] lastWords = concat(tail, map(part.tail, wordIds));
+            tail = Arrays.copyOfRange(lastWords, lastWords.length - ends, lastWords.length);
+        }
+
+        return new TextFiniteStateMachinePart(prefixSize, mergedDictionary, mergedPrefixes, mergedSuffixes, states, wordCount, head, tail);
+    }
+
+    // The frozen state machine of the corpus when this part is all of it, the last window is the state with the EOF
+    // suffix
+    public TextFiniteStateMachine toStateMachine() {
+        int k = prefixSize.value();
+        WordDictionary words = new WordDictionary();
+        int[] wordIds = internAll(dictionary, words);
+        PrefixTable prefixes = new PrefixTable(k, prefixTable.size() + 1);
+        SuffixStore suffixes = new SuffixStore(prefixTable.size() + 1);
+        addStates(prefixTable, suffixStore, wordIds, prefixes, suffixes);
+
+        int states = statesCount;
+        if (wordCount >= k) {
+            suffixes.add(prefixes.intern(map(tail, wordIds), 0), WordDictionary.EOF_ID);
+            states++;
+        }
+
+        return new TextFiniteStateMachine(prefixSize, words, prefixes, suffixes, states).freeze();
+    }
+
+    public PrefixSize prefixSize() {
+        return prefixSize;
+    }
+
+    public long wordCount() {
+        return wordCount;
+    }
+
+    // States whose suffix is in the part, without the state of the last window
+    public int statesCount() {
+        return statesCount;
+    }
+
+    // Layout, every number big endian:
+    //   magic (int), version (int), prefix size (int), word count (long), states count (int)
+    //   dictionary size (int), then every word but the EOF one as UTF-8 byte count (int) and bytes
+    //   head length (int) and word ids, tail length (int) and word ids
+    //   prefix count (int), then for every prefix its word ids, distinct suffix count (int) and (word id, occurrences)
+    public Either<TextFiniteStateMachineError, Path> save(Path path) {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Objects.requireNonNull(path)), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(prefixSize.value());
+            output.writeLong(wordCount);
+            output.writeInt(statesCount);
+
+            output.writeInt(dictionary.size());
+            for (int id = WordDictionary.EOF_ID + 1; id < dictionary.size(); id++) {
+                byte[] word = dictionary.word(id).getBytes(StandardCharsets.UTF_8);
+                output.writeInt(word.length);
+                output.write(word);
+            }
+            writeInts(output, head);
+            writeInts(output, tail);
+
+            output.writeInt(prefixTable.size());
+            for (int prefixId = 0; prefixId < prefixTable.size(); prefixId++) {
+                for (int i = 0; i < prefixSize.value(); i++) {
+                    output.writeInt(prefixTable.wordAt(prefixId, i));
+                }
+                int distinct = suffixStore.distinctSuffixCount(prefixId);
+                output.writeInt(distinct);
+                for (int s = 0; s < distinct; s++) {
+                    output.writeInt(suffixStore.suffixAt(prefixId, s));
+                    output.writeInt(suffixStore.occurrencesAt(prefixId, s));
+                }
+            }
+        } catch (IOException e) {
+            return TextFiniteStateMachineError.asLeft("An IO error occurred while saving the part file, see attached exception for more details", e);
+        }
+
+        return Either.right(path);
+    }
+
+    public static Either<TextFiniteStateMachineError, TextFiniteStateMachinePart> open(Path path) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(Objects.requireNonNull(path)), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC) {
+                return TextFiniteStateMachineError.asLeft("The file is not a part file, it does not start with the part file magic number");
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                return TextFiniteStateMachineError.asLeft(String.format("Unsupported part file version %d, only version %d can be opened", version, VERSION));
+            }
+            int k = input.readInt();
+            long wordCount = input.readLong();
+            int statesCount = input.readInt();
+            if (k < 2 || wordCount < 0 || statesCount < 0) {
+                return TextFiniteStateMachineError.asLeft(String.format("Corrupted part file header (prefix size %d, %d words, %d states)", k, wordCount, statesCount));
+            }
+
+            WordDictionary dictionary = new WordDictionary();
+            int dictionarySize = input.readInt();
+            for (int id = WordDictionary.EOF_ID + 1; id < dictionarySize; id++) {
+                byte[] word = new byte[input.readInt()];
+                input.readFully(word);
+                if (dictionary.intern(new String(word, StandardCharsets.UTF_8)) != id) {
+                    return TextFiniteStateMachineError.asLeft(String.format("Corrupted part file, word %d is repeated in its dictionary", id));
+                }
+            }
+            int[] head = readWordIds(input, k, dictionarySize);
+            int[] tail = readWordIds(input, k, dictionarySize);
+
+            PrefixTable prefixTable = new PrefixTable(k);
+            SuffixStore suffixStore = new SuffixStore();
+            int prefixCount = input.readInt();
+            int[] window = new int[k];
+            for (int prefixId = 0; prefixId < prefixCount; prefixId++) {
+                for (int i = 0; i < k; i++) {
+                    window[i] = wordId(input.readInt(), dictionarySize);
+                }
+                if (prefixTable.intern(window, 0) != prefixId) {
+                    return TextFiniteStateMachineError.asLeft(String.format("Corrupted part file, prefix %d is repeated", prefixId));
+                }
+                int distinct = input.readInt();
+                for (int s = 0; s < distinct; s++) {
+                    suffixStore.add(prefixId, wordId(input.readInt(), dictionarySize), input.readInt());
+                }
+            }
+
+            return Either.right(new TextFiniteStateMachinePart(PrefixSize.of(k), dictionary, prefixTable, suffixStore, statesCount, wordCount, head, tail));
+        } catch (EOFException e) {
+            return TextFiniteStateMachineError.asLeft("The part file is truncated", e);
+        } catch (IOException | IllegalArgumentException e) {
+            return TextFiniteStateMachineError.asLeft("An error occurred while opening the part file, see attached exception for more details", e);
+        }
+    }
+
+    private static void addStates(PrefixTable fromPrefixes, SuffixStore fromSuffixes, int[] wordIds, PrefixTable toPrefixes, SuffixStore toSuffixes) {
+        int[] window = new int[fromPrefixes.prefixSize()];
+        for (int prefixId = 0; prefixId < fromPrefixes.size(); prefixId++) {
+            for (int i = 0; i < window.length; i++) {
+                window[i] = wordIds[fromPrefixes.wordAt(prefixId, i)];
+            }
+            int mergedId = toPrefixes.intern(window, 0);
+            for (int s = 0; s < fromSuffixes.distinctSuffixCount(prefixId); s++) {
+                toSuffixes.add(mergedId, wordIds[fromSuffixes.suffixAt(prefixId, s)], fromSuffixes.occurrencesAt(prefixId, s));
+            }
+        }
+    }
+
+    // Ids of every word of the dictionary in the other one
+    private static int[] internAll(WordDictionary from, WordDictionary to) {
+        int[] wordIds = new int[from.size()];
+        for (int id = 0; id < wordIds.length; id++) {
+            wordIds[id] = to.intern(from.word(id));
+        }
+        return wordIds;
+    }
+
+    private static int[] map(int[] words, int[] wordIds) {
+        int[] mapped = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            mapped[i] = wordIds[words[i]];
+        }
+        return mapped;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] words = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, words, first.length, second.length);
+        return words;
+    }
+
+    private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+        output.writeInt(values.length);
+        for (int value : values) {
+            output.writeInt(value);
+        }
+    }
+
+    private static int[] readWordIds(DataInputStream input, int prefixSize, int dictionarySize) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > prefixSize) {
+            throw new IOException(String.format("Corrupted part file, %d words at the end of a part with prefixes of %d words", length, prefixSize));
+        }
+        int[] words = new int[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = wordId(input.readInt(), dictionarySize);
+        }
+        return words;
+    }
+
+    private static int wordId(int wordId, int dictionarySize) throws IOException {
+        if (wordId < 0 || wordId >= dictionarySize) {
+            throw new IOException(String.format("Corrupted part file, word id %d is not in its dictionary of %d words", wordId, dictionarySize));
+        }
+        return wordId;
+    }
+}
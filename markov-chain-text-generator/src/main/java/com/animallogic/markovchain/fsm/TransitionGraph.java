@@ -0,0 +1,646 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.fsm.engine.DoubleArray;
+import com.animallogic.markovchain.fsm.engine.HashMixer;
+import com.animallogic.markovchain.fsm.engine.IntArray;
+import com.animallogic.markovchain.fsm.engine.PackedWordIndex;
+import com.animallogic.markovchain.fsm.engine.PrefixIndex;
+import com.animallogic.markovchain.fsm.engine.SuffixTable;
+import com.animallogic.markovchain.fsm.engine.WordDictionary;
+import com.animallogic.markovchain.fsm.engine.WordIndex;
+import com.animallogic.markovchain.random.RandomSource;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+// A TextFiniteStateMachine compiled for generation: states are the prefix ids and every distinct suffix of a prefix is
+// a transition that already knows the id of the state it leads to, so walking the chain never builds or hashes
+// prefixes. Transitions of a state are stored contiguously, state s owns [firstTransition(s), firstTransition(s) +
+// transitionCount(s)), and are weighted by how many times the suffix followed the prefix in the corpus. Every state also
+// gets a Walker/Vose alias table, so a weighted transition is picked in constant time whatever the fan-out of the state.
+//
+// The words, occurrences and alias tables of the transitions only depend on the suffixes of the state, so states with
+// the same suffixes, in the same order and with the same occurrences, share one suffix distribution. Only the targets,
+// which depend on the prefix, are kept per state: target(state, transition) maps a transition of the distribution to
+// the target of the state. Graphs opened from a file have a distribution per state.
+//
+// The tables are read through IntArray and DoubleArray, a graph is either compiled on the heap or opened straight from
+// the buffers of a model file (see TextFiniteStateMachineFile).
+public final class TransitionGraph {
+    public static final int NO_STATE = -1;
+    public static final int CONTINUES_RUN = -2;
+
+    private final WordIndex words;
+    // The words as UTF-8, for output to copy instead of encoding them: the words themselves when they are packed, as in
+    // every frozen graph, which keeps them once and decodes a string when asked for one. The graphs of state machines
+    // still being built keep their words as strings and only pack them for the first output that needs their bytes,
+    // so compiling them again after every new state does not copy the words.
+    private PackedWordIndex wordBytes;
+    private final PrefixIndex prefixes;
+    // First target of every state in transitionTargets
+    private final IntArray firstTransitions;
+    private final IntArray transitionTargets;
+    // Distribution of every state, empty when every state has its own. Distribution d owns the transitions
+    // [firstDistributionTransitions(d), firstDistributionTransitions(d + 1)) of the tables below.
+    private final IntArray stateDistributions;
+    private final IntArray firstDistributionTransitions;
+    private final IntArray transitionWords;
+    // Occurrences of every transition added up to and including it, over all the transitions of the graph
+    private final IntArray cumulativeOccurrences;
+    // Alias table: the column picked for a transition keeps it with its probability and otherwise falls back to its alias
+    private final DoubleArray aliasProbabilities;
+    private final IntArray aliases;
+    // States that start a line: the first prefix of the corpus and every prefix reached from a prefix whose first word
+    // ends a line
+    private final IntArray lineStartStates;
+    // Runs of states with a single transition, walked without looking at their transitions. runSlots has the slot of
+    // every state with a single transition or -1. Slot i of runSteps is the word of the transition at 2i and at 2i + 1
+    // either CONTINUES_RUN, the next state being the one in slot i + 1, or the state the run ends at. Both are kept
+    // together so walking a run reads memory in sequence. Empty for graphs opened from a file.
+    private final IntArray runSlots;
+    private final IntArray runSteps;
+    // Occurrences of all the states, shared transitions are counted once per state
+    private final int totalOccurrences;
+
+    TransitionGraph(WordIndex words, PrefixIndex prefixes, IntArray firstTransitions, IntArray transitionWords,
+                    IntArray transitionTargets, IntArray cumulativeOccurrences, DoubleArray aliasProbabilities, IntArray aliases,
+                    IntArray lineStartStates) {
+        this(words, prefixes, firstTransitions, transitionTargets, IntArray.wrap(new int[0]), firstTransitions, transitionWords,
+                cumulativeOccurrences, aliasProbabilities, aliases, lineStartStates, IntArray.wrap(new int[0]), IntArray.wrap(new int[0]),
+                cumulativeOccurrences.length() == 0 ? 0 : cumulativeOccurrences.get(cumulativeOccurrences.length() - 1));
+    }
+
+    private TransitionGraph(WordIndex words, PrefixIndex prefixes, IntArray firstTransitions, IntArray transitionTargets,
+                            IntArray stateDistributions, IntArray firstDistributionTransitions, IntArray transitionWords,
+                            IntArray cumulativeOccurrences, DoubleArray aliasProbabilities, IntArray aliases,
+                            IntArray lineStartStates, IntArray runSlots, IntArray runSteps, int totalOccurrences) {
+        this.words = words;
+        this.wordBytes = words instanceof PackedWordIndex ? (PackedWordIndex) words : null;
+        this.prefixes = prefixes;
+        this.firstTransitions = firstTransitions;
+        this.transitionTargets = transitionTargets;
+        this.stateDistributions = stateDistributions;
+        this.firstDistributionTransitions = firstDistributionTransitions;
+        this.transitionWords = transitionWords;
+        this.cumulativeOccurrences = cumulativeOccurrences;
+        this.aliasProbabilities = aliasProbabilities;
+        this.aliases = aliases;
+        this.lineStartStates = lineStartStates;
+        this.runSlots = runSlots;
+        this.runSteps = runSteps;
+        this.totalOccurrences = totalOccurrences;
+    }
+
+    // The corpus start state is the prefix made of the first words of the corpus, NO_STATE when there are no states
+    static TransitionGraph compile(WordIndex words, PrefixIndex prefixes, SuffixTable suffixTable, int corpusStartState) {
+        // The target of a transition is the prefix rotated one word to the left with the suffix appended, which in a
+        // ring buffer is just overwriting the first word and starting one position later
+        int prefixSize = prefixes.prefixSize();
+        int[] window = new int[prefixSize];
+        IntBinaryOperator targets = (state, transition) -> {
+            for (int i = 0; i < prefixSize; i++) {
+                window[i] = prefixes.wordAt(state, i);
+            }
+            window[0] = suffixTable.suffixAt(state, transition);
+            return prefixes.find(window, 1 % prefixSize);
+        };
+        return compile(words, prefixes, suffixTable, targets, corpusStartState);
+    }
+
+    // Same as above with the target of every transition, the distinct suffix of the state, given instead of looked up
+    static TransitionGraph compile(WordIndex words, PrefixIndex prefixes, SuffixTable suffixTable, IntBinaryOperator targets,
+                                   int corpusStartState) {
+        int stateCount = prefixes.size();
+
+        int[] firstTransitions = new int[stateCount + 1];
+        for (int state = 0; state < stateCount; state++) {
+            firstTransitions[state + 1] = firstTransitions[state] + suffixTable.distinctSuffixCount(state);
+        }
+
+        int[] transitionTargets = new int[firstTransitions[stateCount]];
+        long totalOccurrences = 0;
+        for (int state = 0; state < stateCount; state++) {
+            for (int i = 0; i < suffixTable.distinctSuffixCount(state); i++) {
+                transitionTargets[firstTransitions[state] + i] = targets.applyAsInt(state, i);
+                totalOccurrences += suffixTable.occurrencesAt(state, i);
+            }
+        }
+
+        DistributionTableBuilder distributions = new DistributionTableBuilder(suffixTable, stateCount, firstTransitions[stateCount]);
+        int[] stateDistributions = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            stateDistributions[state] = distributions.distributionOf(state);
+        }
+
+        int distributionCount = distributions.size();
+        int[] firstDistributionTransitions = Arrays.copyOf(distributions.firstTransitions, distributionCount + 1);
+        int transitionCount = firstDistributionTransitions[distributionCount];
+        int[] transitionWords = Arrays.copyOf(distributions.words, transitionCount);
+        int[] transitionOccurrences = Arrays.copyOf(distributions.occurrences, transitionCount);
+        int[] cumulativeOccurrences = new int[transitionCount];
+        int occurrences = 0;
+        for (int transition = 0; transition < transitionCount; transition++) {
+            occurrences += transitionOccurrences[transition];
+            cumulativeOccurrences[transition] = occurrences;
+        }
+
+        double[] aliasProbabilities = new double[transitionCount];
+        int[] aliases = new int[transitionCount];
+        new AliasTableBuilder(transitionOccurrences, aliasProbabilities, aliases).build(firstDistributionTransitions, distributionCount);
+
+        int[] runSlots = new int[stateCount];
+        int singleTransitionStates = 0;
+        for (int state = 0; state < stateCount; state++) {
+            singleTransitionStates += firstTransitions[state + 1] - firstTransitions[state] == 1 ? 1 : 0;
+        }
+        int[] runSteps = new int[singleTransitionStates * 2];
+        collapseRuns(firstTransitions, transitionTargets, stateDistributions, firstDistributionTransitions, transitionWords, runSlots, runSteps);
+
+        return new TransitionGraph(words, prefixes, IntArray.wrap(firstTransitions), IntArray.wrap(transitionTargets),
+                IntArray.wrap(stateDistributions), IntArray.wrap(firstDistributionTransitions), IntArray.wrap(transitionWords),
+                IntArray.wrap(cumulativeOccurrences), DoubleArray.wrap(aliasProbabilities), IntArray.wrap(aliases),
+                IntArray.wrap(lineStartStates(words, prefixes, firstTransitions, transitionTargets, corpusStartState)),
+                IntArray.wrap(runSlots), IntArray.wrap(runSteps), (int) totalOccurrences);
+    }
+
+    // Lays every maximal chain of single transition states out in consecutive slots. Chains are walked from the states
+    // no other single transition state leads to first, so a chain is only split where chains join or loop.
+    private static void collapseRuns(int[] firstTransitions, int[] transitionTargets, int[] stateDistributions,
+                                     int[] firstDistributionTransitions, int[] transitionWords, int[] runSlots, int[] runSteps) {
+        int stateCount = firstTransitions.length - 1;
+        boolean[] continuesRun = new boolean[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            runSlots[state] = -1;
+            if (firstTransitions[state + 1] - firstTransitions[state] == 1 && transitionTargets[firstTransitions[state]] != NO_STATE) {
+                continuesRun[transitionTargets[firstTransitions[state]]] = true;
+            }
+        }
+
+        int slot = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int head = 0; head < stateCount; head++) {
+                if (firstTransitions[head + 1] - firstTransitions[head] != 1 || runSlots[head] >= 0 || (pass == 0 && continuesRun[head])) {
+                    continue;
+                }
+
+                int state = head;
+                while (state != NO_STATE && firstTransitions[state + 1] - firstTransitions[state] == 1 && runSlots[state] < 0) {
+                    runSlots[state] = slot;
+                    runSteps[2 * slot] = transitionWords[firstDistributionTransitions[stateDistributions[state]]];
+                    runSteps[2 * slot + 1] = CONTINUES_RUN;
+                    slot++;
+                    state = transitionTargets[firstTransitions[state]];
+                }
+                runSteps[2 * slot - 1] = state;
+            }
+        }
+    }
+
+    private static int[] lineStartStates(WordIndex words, PrefixIndex prefixes, int[] firstTransitions, int[] transitionTargets, int corpusStartState) {
+        int stateCount = prefixes.size();
+        boolean[] lineStart = new boolean[stateCount];
+        if (corpusStartState != NO_STATE) {
+            lineStart[corpusStartState] = true;
+        }
+
+        for (int state = 0; state < stateCount; state++) {
+            if (!endsLine(words, prefixes.wordAt(state, 0))) {
+                continue;
+            }
+            for (int transition = firstTransitions[state]; transition < firstTransitions[state + 1]; transition++) {
+                if (transitionTargets[transition] != NO_STATE) {
+                    lineStart[transitionTargets[transition]] = true;
+                }
+            }
+        }
+
+        int count = 0;
+        for (boolean start : lineStart) {
+            count += start ? 1 : 0;
+        }
+        int[] lineStartStates = new int[count];
+        for (int state = 0, i = 0; state < stateCount; state++) {
+            if (lineStart[state]) {
+                lineStartStates[i++] = state;
+            }
+        }
+        return lineStartStates;
+    }
+
+    // Copy of the graph with every table in direct buffers, so none of the model is left in the heap for the garbage
+    // collector to trace or move
+    TransitionGraph offHeap() {
+        IntArray offHeapFirstTransitions = IntArray.copyOffHeap(firstTransitions);
+        return new TransitionGraph(wordBytes().offHeap(), prefixes.pack().offHeap(), offHeapFirstTransitions,
+                IntArray.copyOffHeap(transitionTargets), IntArray.copyOffHeap(stateDistributions),
+                isShared() ? IntArray.copyOffHeap(firstDistributionTransitions) : offHeapFirstTransitions,
+                IntArray.copyOffHeap(transitionWords), IntArray.copyOffHeap(cumulativeOccurrences),
+                DoubleArray.copyOffHeap(aliasProbabilities), IntArray.copyOffHeap(aliases), IntArray.copyOffHeap(lineStartStates),
+                IntArray.copyOffHeap(runSlots), IntArray.copyOffHeap(runSteps), totalOccurrences);
+    }
+
+    // Copy of the graph with a distribution per state, the layout of model files. Runs are left out like in opened files.
+    TransitionGraph unshared() {
+        if (!isShared()) {
+            return this;
+        }
+
+        int transitionCount = transitionTargets.length();
+        int[] unsharedWords = new int[transitionCount];
+        int[] unsharedCumulativeOccurrences = new int[transitionCount];
+        double[] unsharedAliasProbabilities = new double[transitionCount];
+        int[] unsharedAliases = new int[transitionCount];
+        int occurrences = 0;
+        for (int state = 0; state < stateCount(); state++) {
+            int first = firstTransition(state);
+            int firstTarget = firstTransitions.get(state);
+            for (int i = 0; i < transitionCount(state); i++) {
+                occurrences += occurrences(first + i);
+                unsharedWords[firstTarget + i] = transitionWords.get(first + i);
+                unsharedCumulativeOccurrences[firstTarget + i] = occurrences;
+                unsharedAliasProbabilities[firstTarget + i] = aliasProbabilities.get(first + i);
+                unsharedAliases[firstTarget + i] = firstTarget + aliases.get(first + i) - first;
+            }
+        }
+
+        return new TransitionGraph(wordBytes(), prefixes, firstTransitions, IntArray.wrap(unsharedWords), transitionTargets,
+                IntArray.wrap(unsharedCumulativeOccurrences), DoubleArray.wrap(unsharedAliasProbabilities),
+                IntArray.wrap(unsharedAliases), lineStartStates);
+    }
+
+    private boolean isShared() {
+        return stateDistributions.length() > 0;
+    }
+
+    public int stateCount() {
+        return firstTransitions.length() - 1;
+    }
+
+    public int prefixSize() {
+        return prefixes.prefixSize();
+    }
+
+    public int lineStartCount() {
+        return lineStartStates.length();
+    }
+
+    public int lineStartState(int index) {
+        return lineStartStates.get(index);
+    }
+
+    public int firstTransition(int state) {
+        return firstDistributionTransitions.get(isShared() ? stateDistributions.get(state) : state);
+    }
+
+    public int transitionCount(int state) {
+        return firstTransitions.get(state + 1) - firstTransitions.get(state);
+    }
+
+    // Slot of the run that starts at the state, -1 when the state has more or less than one transition or the graph has
+    // no runs. The words of the run are in the following slots up to the one whose next step is not CONTINUES_RUN.
+    public int runSlot(int state) {
+        return runSlots.length() == 0 ? -1 : runSlots.get(state);
+    }
+
+    public int runWord(int slot) {
+        return runSteps.get(2 * slot);
+    }
+
+    // CONTINUES_RUN or the state the run ends at, NO_STATE if the text ends there
+    public int runNext(int slot) {
+        return runSteps.get(2 * slot + 1);
+    }
+
+    public ModelStatistics statistics() {
+        int runs = 0;
+        for (int slot = 0; slot < runSteps.length() / 2; slot++) {
+            runs += runNext(slot) != CONTINUES_RUN ? 1 : 0;
+        }
+        return new ModelStatistics(stateCount(), transitionTargets.length(), firstDistributionTransitions.length() - 1,
+                transitionWords.length(), runSteps.length() / 2, runs);
+    }
+
+    // Returns NO_STATE for word tuples that are not a prefix of the graph
+    public int stateOf(int[] wordIds) {
+        return prefixes.find(wordIds, 0);
+    }
+
+    public int stateWordId(int state, int index) {
+        return prefixes.wordAt(state, index);
+    }
+
+    // Returns -1 for words that are not in the graph
+    public int wordIdOf(String word) {
+        return words.idOf(word);
+    }
+
+    // Picks a transition of the state with a probability proportional to its occurrences: a uniformly picked column
+    // of the alias table and a biased coin to choose between the column and its alias. States with a single transition
+    // do not draw from the generator at all.
+    public int randomTransition(int state, RandomSource rng) {
+        int first = firstTransition(state);
+        int count = transitionCount(state);
+        if (count == 1) {
+            return first;
+        }
+
+        int column = first + rng.nextInt(count);
+        return rng.nextDouble() < aliasProbabilities.get(column) ? column : aliases.get(column);
+    }
+
+    // Probability of randomTransition() picking the transition: its own share of its column plus the share of every
+    // column that falls back to it
+    @VisibleForTesting
+    double selectionProbability(int state, int transition) {
+        int first = firstTransition(state);
+        int count = transitionCount(state);
+
+        double probability = aliasProbabilities.get(transition);
+        for (int column = first; column < first + count; column++) {
+            if (column != transition && aliases.get(column) == transition) {
+                probability += 1.0 - aliasProbabilities.get(column);
+            }
+        }
+        return probability / count;
+    }
+
+    public int occurrences(int transition) {
+        return cumulativeOccurrences.get(transition) - occurrencesBefore(transition);
+    }
+
+    // Total number of times the suffixes of the state followed its prefix
+    public int occurrenceCount(int state) {
+        int first = firstTransition(state);
+        int last = first + transitionCount(state) - 1;
+        return last < first ? 0 : cumulativeOccurrences.get(last) - occurrencesBefore(first);
+    }
+
+    // Total number of states added to the state machine the graph was compiled from
+    public int totalOccurrences() {
+        return totalOccurrences;
+    }
+
+    // The transition holding the given occurrence when the suffixes of the state are listed once per occurrence, in
+    // transition order
+    public int transitionOfOccurrence(int state, int occurrence) {
+        int low = firstTransition(state);
+        int high = low + transitionCount(state) - 1;
+        int target = occurrencesBefore(low) + occurrence;
+
+        // First transition whose cumulative occurrences go past the target
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulativeOccurrences.get(middle) > target) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    // The state a transition of the state leads to
+    public int target(int state, int transition) {
+        return transitionTargets.get(firstTransitions.get(state) + transition - firstTransition(state));
+    }
+
+    public int wordId(int transition) {
+        return transitionWords.get(transition);
+    }
+
+    public String word(int wordId) {
+        return words.word(wordId);
+    }
+
+    public int wordByteLength(int wordId) {
+        return wordBytes().byteLength(wordId);
+    }
+
+    // Copies the UTF-8 bytes of the word from the given one on into the target, as many as it has room for. Returns how
+    // many were copied.
+    public int copyWordBytes(int wordId, int from, ByteBuffer target) {
+        return wordBytes().copyBytes(wordId, from, target);
+    }
+
+    public boolean endsLine(int wordId) {
+        return wordBytes().endsWith(wordId, (byte) '\n');
+    }
+
+    public boolean isEof(int wordId) {
+        return wordId == WordDictionary.EOF_ID;
+    }
+
+    public String stateText(int state) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < prefixes.prefixSize(); i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(words.word(prefixes.wordAt(state, i)));
+        }
+        return text.toString();
+    }
+
+    private int occurrencesBefore(int transition) {
+        return transition == 0 ? 0 : cumulativeOccurrences.get(transition - 1);
+    }
+
+    // Tables of the graph, for TextFiniteStateMachineFile to write
+    PackedWordIndex words() {
+        return wordBytes();
+    }
+
+    private PackedWordIndex wordBytes() {
+        PackedWordIndex packed = wordBytes;
+        if (packed == null) {
+            packed = words.pack();
+            wordBytes = packed;
+        }
+        return packed;
+    }
+
+    private static boolean endsLine(WordIndex words, int wordId) {
+        if (words instanceof PackedWordIndex) {
+            return ((PackedWordIndex) words).endsWith(wordId, (byte) '\n');
+        }
+        return words.word(wordId).endsWith("\n");
+    }
+
+    PrefixIndex prefixes() {
+        return prefixes;
+    }
+
+    IntArray firstTransitions() {
+        return firstTransitions;
+    }
+
+    IntArray transitionWords() {
+        return transitionWords;
+    }
+
+    IntArray transitionTargets() {
+        return transitionTargets;
+    }
+
+    IntArray cumulativeOccurrences() {
+        return cumulativeOccurrences;
+    }
+
+    DoubleArray aliasProbabilities() {
+        return aliasProbabilities;
+    }
+
+    IntArray aliases() {
+        return aliases;
+    }
+
+    IntArray lineStartStates() {
+        return lineStartStates;
+    }
+
+    // Suffix distributions of the states, each distinct one added once. Distributions are found through an open
+    // addressing table over a hash of their words and occurrences and compared with the suffixes of the state.
+    private static class DistributionTableBuilder {
+        private final SuffixTable suffixTable;
+        private final int[] firstTransitions;
+        private final int[] words;
+        private final int[] occurrences;
+        private final int[] slots;
+        private int size;
+
+        DistributionTableBuilder(SuffixTable suffixTable, int stateCount, int transitionCount) {
+            this.suffixTable = suffixTable;
+            this.firstTransitions = new int[stateCount + 1];
+            this.words = new int[transitionCount];
+            this.occurrences = new int[transitionCount];
+            this.slots = new int[Integer.highestOneBit(Math.max(1, stateCount)) * 4];
+            this.size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int distributionOf(int state) {
+            int count = suffixTable.distinctSuffixCount(state);
+            int hash = count;
+            for (int i = 0; i < count; i++) {
+                hash = 31 * (31 * hash + suffixTable.suffixAt(state, i)) + suffixTable.occurrencesAt(state, i);
+            }
+
+            int mask = slots.length - 1;
+            int slot = HashMixer.mix(hash) & mask;
+            while (slots[slot] != 0) {
+                int distribution = slots[slot] - 1;
+                if (sameSuffixes(distribution, state, count)) {
+                    return distribution;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            int first = firstTransitions[size];
+            for (int i = 0; i < count; i++) {
+                words[first + i] = suffixTable.suffixAt(state, i);
+                occurrences[first + i] = suffixTable.occurrencesAt(state, i);
+            }
+            firstTransitions[size + 1] = first + count;
+            slots[slot] = ++size;
+            return size - 1;
+        }
+
+        private boolean sameSuffixes(int distribution, int state, int count) {
+            int first = firstTransitions[distribution];
+            if (firstTransitions[distribution + 1] - first != count) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (words[first + i] != suffixTable.suffixAt(state, i) || occurrences[first + i] != suffixTable.occurrencesAt(state, i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Vose's alias method. Column weights are kept as exact integers scaled by the fan-out of the state, so columns are
+    // filled without floating point drift and only the final probabilities are turned into doubles.
+    static class AliasTableBuilder {
+        private final int[] occurrences;
+        private final double[] probabilities;
+        private final int[] aliases;
+
+        private long[] scaledWeights = new long[16];
+        private int[] small = new int[16];
+        private int[] large = new int[16];
+
+        AliasTableBuilder(int[] occurrences, double[] probabilities, int[] aliases) {
+            this.occurrences = occurrences;
+            this.probabilities = probabilities;
+            this.aliases = aliases;
+        }
+
+        void build(int[] firstTransitions, int stateCount) {
+            for (int state = 0; state < stateCount; state++) {
+                buildState(firstTransitions[state], firstTransitions[state + 1] - firstTransitions[state]);
+            }
+        }
+
+        // Alias table of the transitions [first, first + count), aliases are indexes of the occurrences array
+        void buildState(int first, int count) {
+            ensureCapacity(count);
+
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                total += occurrences[first + i];
+            }
+
+            // A column is full when its scaled weight reaches the total occurrences of the state
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int i = 0; i < count; i++) {
+                scaledWeights[i] = (long) occurrences[first + i] * count;
+                if (scaledWeights[i] < total) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[largeCount - 1];
+
+                probabilities[first + less] = (double) scaledWeights[less] / total;
+                aliases[first + less] = first + more;
+
+                scaledWeights[more] -= total - scaledWeights[less];
+                if (scaledWeights[more] < total) {
+                    largeCount--;
+                    small[smallCount++] = more;
+                }
+            }
+
+            // Whatever is left is full
+            while (largeCount > 0) {
+                int column = large[--largeCount];
+                probabilities[first + column] = 1.0;
+                aliases[first + column] = first + column;
+            }
+            while (smallCount > 0) {
+                int column = small[--smallCount];
+                probabilities[first + column] = 1.0;
+                aliases[first + column] = first + column;
+            }
+        }
+
+        private void ensureCapacity(int count) {
+            if (count > scaledWeights.length) {
+                scaledWeights = new long[count];
+                small = new int[count];
+                large = new int[count];
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.nio.DoubleBuffer;
+
+// Absolute gets only, so a single instance can be read by any number of threads
+final class BufferDoubleArray implements DoubleArray {
+    private final DoubleBuffer buffer;
+
+    BufferDoubleArray(DoubleBuffer buffer) {
+        this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    public double get(int index) {
+        return buffer.get(index);
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+}
@@ -0,0 +1,22 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.nio.IntBuffer;
+
+// Absolute gets only, so a single instance can be read by any number of threads
+final class BufferIntArray implements IntArray {
+    private final IntBuffer buffer;
+
+    BufferIntArray(IntBuffer buffer) {
+        this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int get(int index) {
+        return buffer.get(index);
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+}
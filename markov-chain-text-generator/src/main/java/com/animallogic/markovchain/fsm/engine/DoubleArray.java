@@ -0,0 +1,30 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+// Read only array of doubles, so the compiled tables of a model can live on the heap or in a buffer (a memory mapped
+// model file for instance) and be read the same way
+public interface DoubleArray {
+    double get(int index);
+
+    int length();
+
+    static DoubleArray wrap(double[] array) {
+        return new HeapDoubleArray(array);
+    }
+
+    static DoubleArray wrap(DoubleBuffer buffer) {
+        return new BufferDoubleArray(buffer);
+    }
+
+    // Copy of the array in a direct buffer, out of the heap
+    static DoubleArray copyOffHeap(DoubleArray array) {
+        DoubleBuffer buffer = ByteBuffer.allocateDirect(Math.multiplyExact(array.length(), Double.BYTES)).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        for (int i = 0; i < array.length(); i++) {
+            buffer.put(i, array.get(i));
+        }
+        return wrap(buffer);
+    }
+}
@@ -0,0 +1,12 @@
+package com.animallogic.markovchain.fsm.engine;
+
+// Spreads the bits of a hash code so that linear probing over a power of two table does not cluster
+public final class HashMixer {
+    private HashMixer() {
+    }
+
+    public static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,21 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.util.Objects;
+
+final class HeapDoubleArray implements DoubleArray {
+    private final double[] array;
+
+    HeapDoubleArray(double[] array) {
+        this.array = Objects.requireNonNull(array);
+    }
+
+    @Override
+    public double get(int index) {
+        return array[index];
+    }
+
+    @Override
+    public int length() {
+        return array.length;
+    }
+}
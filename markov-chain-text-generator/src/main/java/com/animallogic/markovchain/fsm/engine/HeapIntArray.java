@@ -0,0 +1,21 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.util.Objects;
+
+final class HeapIntArray implements IntArray {
+    private final int[] array;
+
+    HeapIntArray(int[] array) {
+        this.array = Objects.requireNonNull(array);
+    }
+
+    @Override
+    public int get(int index) {
+        return array[index];
+    }
+
+    @Override
+    public int length() {
+        return array.length;
+    }
+}
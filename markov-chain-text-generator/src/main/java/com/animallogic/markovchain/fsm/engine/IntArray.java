@@ -0,0 +1,30 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+// Read only array of ints, so the compiled tables of a model can live on the heap or in a buffer (a memory mapped
+// model file for instance) and be read the same way
+public interface IntArray {
+    int get(int index);
+
+    int length();
+
+    static IntArray wrap(int[] array) {
+        return new HeapIntArray(array);
+    }
+
+    static IntArray wrap(IntBuffer buffer) {
+        return new BufferIntArray(buffer);
+    }
+
+    // Copy of the array in a direct buffer, out of the heap
+    static IntArray copyOffHeap(IntArray array) {
+        IntBuffer buffer = ByteBuffer.allocateDirect(Math.multiplyExact(array.length(), Integer.BYTES)).order(ByteOrder.nativeOrder()).asIntBuffer();
+        for (int i = 0; i < array.length(); i++) {
+            buffer.put(i, array.get(i));
+        }
+        return wrap(buffer);
+    }
+}
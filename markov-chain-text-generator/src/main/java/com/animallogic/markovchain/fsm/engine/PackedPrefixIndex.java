@@ -0,0 +1,104 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.nio.IntBuffer;
+import java.util.Objects;
+
+// Prefix tuples stored back to back, prefix i being the word ids [i * prefixSize, (i + 1) * prefixSize). The hash slots
+// are the ones of the PrefixTable the index was packed from, so lookups probe exactly the same way.
+public final class PackedPrefixIndex implements PrefixIndex {
+    private final int prefixSize;
+    private final IntArray words;
+    private final IntArray slots;
+
+    public PackedPrefixIndex(int prefixSize, IntArray words, IntArray slots) {
+        if (prefixSize <= 0) {
+            throw new IllegalArgumentException(String.format("The prefix size has to be a positive number (got %d)", prefixSize));
+        }
+        this.prefixSize = prefixSize;
+        this.words = Objects.requireNonNull(words);
+        this.slots = Objects.requireNonNull(slots);
+    }
+
+    @Override
+    public int find(int[] window, int start) {
+        int mask = slots.length() - 1;
+        int slot = PrefixTable.hash(window, start, prefixSize) & mask;
+        while (slots.get(slot) != 0) {
+            int prefixId = slots.get(slot) - 1;
+            if (matches(prefixId, window, start)) {
+                return prefixId;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int wordAt(int prefixId, int index) {
+        return words.get(prefixId * prefixSize + index);
+    }
+
+    @Override
+    public int size() {
+        return words.length() / prefixSize;
+    }
+
+    @Override
+    public int prefixSize() {
+        return prefixSize;
+    }
+
+    @Override
+    public PackedPrefixIndex pack() {
+        return this;
+    }
+
+    // Copy with the tables in direct buffers
+    public PackedPrefixIndex offHeap() {
+        return new PackedPrefixIndex(prefixSize, IntArray.copyOffHeap(words), IntArray.copyOffHeap(slots));
+    }
+
+    // Number of hash slots PrefixTable ends up with for the given number of prefixes
+    public static int slotCount(int prefixCount) {
+        int slots = 2048;
+        while (slots < 2L * prefixCount) {
+            slots = Math.multiplyExact(slots, 2);
+        }
+        return slots;
+    }
+
+    // Fills the empty hash slots with the prefixes stored back to back in words, probing like PrefixTable does, for
+    // indexes written without a PrefixTable
+    public static void fillSlots(int prefixSize, IntBuffer words, IntBuffer slots) {
+        int mask = slots.limit() - 1;
+        int[] window = new int[prefixSize];
+        for (int prefixId = 0; prefixId < words.limit() / prefixSize; prefixId++) {
+            for (int i = 0; i < prefixSize; i++) {
+                window[i] = words.get(prefixId * prefixSize + i);
+            }
+            int slot = PrefixTable.hash(window, 0, prefixSize) & mask;
+            while (slots.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.put(slot, prefixId + 1);
+        }
+    }
+
+    public IntArray words() {
+        return words;
+    }
+
+    public IntArray slots() {
+        return slots;
+    }
+
+    private boolean matches(int prefixId, int[] window, int start) {
+        int offset = prefixId * prefixSize;
+        for (int i = 0; i < prefixSize; i++) {
+            if (words.get(offset + i) != window[(start + i) % prefixSize]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
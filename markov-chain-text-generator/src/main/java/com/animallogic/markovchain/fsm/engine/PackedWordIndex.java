@@ -0,0 +1,125 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+// Words stored back to back as UTF-8 in a single buffer, word i being the bytes [offsets[i], offsets[i + 1]). The hash
+// slots are the ones of the WordDictionary the index was packed from, so lookups probe exactly the same way.
+//
+// Output can copy the bytes of a word straight from the buffer, without decoding or encoding it again, word() decodes a
+// new String on every call.
+public final class PackedWordIndex implements WordIndex {
+    private final IntArray offsets;
+    private final IntArray slots;
+    private final ByteBuffer bytes;
+
+    public PackedWordIndex(IntArray offsets, IntArray slots, ByteBuffer bytes) {
+        this.offsets = Objects.requireNonNull(offsets);
+        this.slots = Objects.requireNonNull(slots);
+        this.bytes = Objects.requireNonNull(bytes).duplicate();
+    }
+
+    @Override
+    public int idOf(String word) {
+        if (word == null) {
+            return -1;
+        }
+
+        byte[] encoded = word.getBytes(StandardCharsets.UTF_8);
+        int mask = slots.length() - 1;
+        int slot = HashMixer.mix(word.hashCode()) & mask;
+        while (slots.get(slot) != 0) {
+            int id = slots.get(slot) - 1;
+            if (matches(id, encoded)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public String word(int id) {
+        if (id < 0 || id >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Word id %d is not in the dictionary (size %d)", id, size()));
+        }
+        return decode(id);
+    }
+
+    @Override
+    public int size() {
+        return offsets.length() - 1;
+    }
+
+    @Override
+    public PackedWordIndex pack() {
+        return this;
+    }
+
+    public int byteLength(int id) {
+        return offsets.get(id + 1) - offsets.get(id);
+    }
+
+    // Copies the bytes of the word from the given one on into the target, as many as it has room for. Returns how many
+    // were copied.
+    public int copyBytes(int id, int from, ByteBuffer target) {
+        int start = offsets.get(id) + from;
+        int count = Math.min(offsets.get(id + 1) - start, target.remaining());
+        if (bytes.hasArray()) {
+            target.put(bytes.array(), bytes.arrayOffset() + start, count);
+        } else {
+            // Words are a few bytes long, a loop beats setting up a bulk copy from a duplicate
+            for (int i = 0; i < count; i++) {
+                target.put(bytes.get(start + i));
+            }
+        }
+        return count;
+    }
+
+    public boolean endsWith(int id, byte value) {
+        int end = offsets.get(id + 1);
+        return end > offsets.get(id) && bytes.get(end - 1) == value;
+    }
+
+    // Copy with the words and their tables in direct buffers
+    public PackedWordIndex offHeap() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.limit());
+        direct.put(bytes()).flip();
+        return new PackedWordIndex(IntArray.copyOffHeap(offsets), IntArray.copyOffHeap(slots), direct);
+    }
+
+    public IntArray offsets() {
+        return offsets;
+    }
+
+    public IntArray slots() {
+        return slots;
+    }
+
+    public ByteBuffer bytes() {
+        return bytes.duplicate();
+    }
+
+    private String decode(int id) {
+        int start = offsets.get(id);
+        byte[] word = new byte[offsets.get(id + 1) - start];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = bytes.get(start + i);
+        }
+        return new String(word, StandardCharsets.UTF_8);
+    }
+
+    private boolean matches(int id, byte[] encoded) {
+        int start = offsets.get(id);
+        if (offsets.get(id + 1) - start != encoded.length) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (bytes.get(start + i) != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,260 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fixed size pages of files kept in the heap up to a number of pages, the least recently used page going away when
+// another one has to be read. Arrays read through the cache only ever hold the pages that their lookups touch, so a
+// file far bigger than the memory can be served, cold reads paying a positional read of one page each.
+// Safe to share between threads and between files. The pages are split by key into segments, each one an LRU with its
+// own lock and its share of the pages, so lookups of different pages rarely wait on each other. A cache of fewer than
+// two segments worth of pages is a single exact LRU. Pages are read outside the locks.
+public final class PageCache {
+    private static final int MAX_SEGMENTS = 64;
+    private static final int MIN_SEGMENT_PAGES = 64;
+
+    private final int pageShift;
+    private final int maxPages;
+    private final Segment[] segments;
+    private final AtomicInteger nextFileId = new AtomicInteger();
+
+    // The page size has to be a power of two multiple of 8, so no value of an aligned table falls across two pages
+    public PageCache(int pageSize, int maxPages) {
+        if (pageSize < Long.BYTES || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException(String.format("The page size has to be a power of two of at least 8 bytes (got %d)", pageSize));
+        }
+        if (maxPages <= 0) {
+            throw new IllegalArgumentException(String.format("The cache has to hold at least one page (got %d)", maxPages));
+        }
+        this.pageShift = Integer.numberOfTrailingZeros(pageSize);
+        this.maxPages = maxPages;
+
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, maxPages / MIN_SEGMENT_PAGES)));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maxPages / segmentCount + (i < maxPages % segmentCount ? 1 : 0));
+        }
+    }
+
+    public PagedFile file(FileChannel channel, ByteOrder byteOrder) {
+        return new PagedFile(nextFileId.getAndIncrement(), channel, byteOrder);
+    }
+
+    public int pageSize() {
+        return 1 << pageShift;
+    }
+
+    public int maxPages() {
+        return maxPages;
+    }
+
+    public long hits() {
+        long hits = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+            }
+        }
+        return hits;
+    }
+
+    public long misses() {
+        long misses = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                misses += segment.misses;
+            }
+        }
+        return misses;
+    }
+
+    public long evictions() {
+        long evictions = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                evictions += segment.pages.evictions;
+            }
+        }
+        return evictions;
+    }
+
+    public int residentPages() {
+        int residentPages = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                residentPages += segment.pages.size();
+            }
+        }
+        return residentPages;
+    }
+
+    private ByteBuffer page(PagedFile file, long pageIndex) {
+        long key = ((long) file.id << 40) | pageIndex;
+        Segment segment = segments[HashMixer.mix(Long.hashCode(key)) & (segments.length - 1)];
+        synchronized (segment) {
+            ByteBuffer page = segment.pages.get(key);
+            if (page != null) {
+                segment.hits++;
+                return page;
+            }
+            segment.misses++;
+        }
+
+        ByteBuffer page = ByteBuffer.allocate(pageSize()).order(file.byteOrder);
+        long position = pageIndex << pageShift;
+        try {
+            while (page.hasRemaining()) {
+                int read = file.channel.read(page, position + page.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Could not read page %d of a paged file", pageIndex), e);
+        }
+
+        // A file closed while the page was read has already been invalidated, its page is not cached again
+        synchronized (segment) {
+            if (file.closed) {
+                return page;
+            }
+            ByteBuffer raced = segment.pages.putIfAbsent(key, page);
+            return raced != null ? raced : page;
+        }
+    }
+
+    private void invalidate(PagedFile file) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.pages.keySet().removeIf(key -> key >>> 40 == file.id);
+            }
+        }
+    }
+
+    // One LRU of the cache, guarded by its own monitor
+    private static final class Segment {
+        private final PageMap pages;
+        private long hits;
+        private long misses;
+
+        Segment(int maxPages) {
+            this.pages = new PageMap(maxPages);
+        }
+    }
+
+    // Pages in access order, the least recently used one going away past the maximum
+    private static final class PageMap extends LinkedHashMap<Long, ByteBuffer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxPages;
+        private long evictions;
+
+        PageMap(int maxPages) {
+            super(16, 0.75f, true);
+            this.maxPages = maxPages;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+            if (size() > maxPages) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // A file read through the cache, the channel has to stay open as long as its arrays are used. Closing it closes the
+    // channel and drops its pages from the cache.
+    public final class PagedFile implements Closeable {
+        private final int id;
+        private final FileChannel channel;
+        private final ByteOrder byteOrder;
+        // Set before the pages are invalidated, so loads still running do not put them back
+        private volatile boolean closed;
+
+        private PagedFile(int id, FileChannel channel, ByteOrder byteOrder) {
+            this.id = id;
+            this.channel = channel;
+            this.byteOrder = byteOrder;
+        }
+
+        // Ints at [offset, offset + length) bytes of the file, an IO error while reading a page is thrown unchecked
+        public IntArray ints(long offset, long length) {
+            return new PagedIntArray(this, offset, Math.toIntExact(length / Integer.BYTES));
+        }
+
+        public DoubleArray doubles(long offset, long length) {
+            return new PagedDoubleArray(this, offset, Math.toIntExact(length / Double.BYTES));
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                invalidate(this);
+            }
+        }
+    }
+
+    private final class PagedIntArray implements IntArray {
+        private final PagedFile file;
+        private final long offset;
+        private final int length;
+
+        PagedIntArray(PagedFile file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int get(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for %d ints", index, length));
+            }
+            long position = offset + (long) index * Integer.BYTES;
+            return page(file, position >>> pageShift).getInt((int) (position & (pageSize() - 1)));
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+    }
+
+    private final class PagedDoubleArray implements DoubleArray {
+        private final PagedFile file;
+        private final long offset;
+        private final int length;
+
+        PagedDoubleArray(PagedFile file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public double get(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for %d doubles", index, length));
+            }
+            long position = offset + (long) index * Double.BYTES;
+            return page(file, position >>> pageShift).getDouble((int) (position & (pageSize() - 1)));
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+    }
+}
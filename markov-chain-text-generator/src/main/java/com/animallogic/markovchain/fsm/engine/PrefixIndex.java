@@ -0,0 +1,17 @@
+package com.animallogic.markovchain.fsm.engine;
+
+// Read side of a prefix table: dense prefix ids of fixed length word id tuples, looked up from a ring buffer window
+// where word i of the tuple is window[(start + i) % prefixSize]
+public interface PrefixIndex {
+    // Returns -1 for tuples that are not in the index
+    int find(int[] window, int start);
+
+    int wordAt(int prefixId, int index);
+
+    int size();
+
+    int prefixSize();
+
+    // The same tuples and ids laid out as flat arrays, ready to be written to a model file
+    PackedPrefixIndex pack();
+}
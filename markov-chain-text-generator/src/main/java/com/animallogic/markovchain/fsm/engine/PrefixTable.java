@@ -0,0 +1,141 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.util.Arrays;
+
+// Open addressing hash table of fixed length word id tuples, every distinct tuple gets a dense prefix id in insertion
+// order. Lookups take the tuple as a ring buffer: word i of the tuple is window[(start + i) % prefixSize].
+public class PrefixTable implements PrefixIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int prefixSize;
+
+    private int[] words;
+    private int[] slots;
+    private int size;
+
+    public PrefixTable(int prefixSize) {
+        this(prefixSize, INITIAL_CAPACITY);
+    }
+
+    // Sized up front for the expected number of prefixes, so that interning them never grows the table
+    public PrefixTable(int prefixSize, int expectedSize) {
+        if (prefixSize <= 0) {
+            throw new IllegalArgumentException(String.format("The prefix size has to be a positive number (got %d)", prefixSize));
+        }
+        this.prefixSize = prefixSize;
+
+        int capacity = Integer.highestOneBit(Math.max(INITIAL_CAPACITY, expectedSize) - 1) << 1;
+        words = new int[Math.multiplyExact(capacity, prefixSize)];
+        slots = new int[capacity * 2];
+        size = 0;
+    }
+
+    // Returns -1 for tuples that were never interned
+    @Override
+    public int find(int[] window, int start) {
+        int mask = slots.length - 1;
+        int slot = hash(window, start, prefixSize) & mask;
+        while (slots[slot] != 0) {
+            int prefixId = slots[slot] - 1;
+            if (matches(prefixId, window, start)) {
+                return prefixId;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public int intern(int[] window, int start) {
+        int mask = slots.length - 1;
+        int slot = hash(window, start, prefixSize) & mask;
+        while (slots[slot] != 0) {
+            int prefixId = slots[slot] - 1;
+            if (matches(prefixId, window, start)) {
+                return prefixId;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int prefixId = size;
+        if ((prefixId + 1) * prefixSize > words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        int offset = prefixId * prefixSize;
+        for (int i = 0; i < prefixSize; i++) {
+            words[offset + i] = window[(start + i) % prefixSize];
+        }
+        slots[slot] = prefixId + 1;
+        size++;
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+
+        return prefixId;
+    }
+
+    @Override
+    public int wordAt(int prefixId, int index) {
+        return words[prefixId * prefixSize + index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int prefixSize() {
+        return prefixSize;
+    }
+
+    // Bytes of the tuples and the slots, estimated like in SuffixMemoryReport
+    public long bytes() {
+        return SuffixMemoryReport.arrayBytes(words.length, Integer.BYTES) + SuffixMemoryReport.arrayBytes(slots.length, Integer.BYTES);
+    }
+
+    @Override
+    public PackedPrefixIndex pack() {
+        return new PackedPrefixIndex(prefixSize, IntArray.wrap(Arrays.copyOf(words, size * prefixSize)), IntArray.wrap(Arrays.copyOf(slots, slots.length)));
+    }
+
+    private boolean matches(int prefixId, int[] window, int start) {
+        int offset = prefixId * prefixSize;
+        for (int i = 0; i < prefixSize; i++) {
+            if (words[offset + i] != window[(start + i) % prefixSize]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hash(int[] window, int start, int prefixSize) {
+        int h = 0;
+        for (int i = 0; i < prefixSize; i++) {
+            h = HashMixer.mix(h + window[(start + i) % prefixSize]);
+        }
+        return h;
+    }
+
+    private int storedHash(int prefixId) {
+        int offset = prefixId * prefixSize;
+        int h = 0;
+        for (int i = 0; i < prefixSize; i++) {
+            h = HashMixer.mix(h + words[offset + i]);
+        }
+        return h;
+    }
+
+    private void rehash(int capacity) {
+        int[] newSlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int prefixId = 0; prefixId < size; prefixId++) {
+            int slot = storedHash(prefixId) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = prefixId + 1;
+        }
+        slots = newSlots;
+    }
+}
@@ -0,0 +1,190 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Prefix and suffix tables of a word id sequence built on several threads. Every worker counts the windows that start
+// in its own range of the sequence into partial tables of its own, one per partition of the prefix hashes, then every
+// partition merges the partial tables of all the workers at the same time as the others. Prefix ids, suffix orders and
+// occurrences are the same ones a sequential build gives, prefixes keep the position where they are first seen.
+public final class ShardedStateTable {
+    private final PrefixTable prefixTable;
+    private final SuffixStore suffixStore;
+    private final int statesCount;
+
+    private ShardedStateTable(PrefixTable prefixTable, SuffixStore suffixStore, int statesCount) {
+        this.prefixTable = prefixTable;
+        this.suffixStore = suffixStore;
+        this.statesCount = statesCount;
+    }
+
+    // The window starting at every position of tokens[0, tokenCount) with prefixSize words is a state, its suffix is
+    // the word after the window or the EOF suffix for the last one
+    public static ShardedStateTable build(int[] tokens, int tokenCount, int prefixSize, ForkJoinPool pool) {
+        if (prefixSize <= 0) {
+            throw new IllegalArgumentException(String.format("The prefix size has to be a positive number (got %d)", prefixSize));
+        }
+        Objects.requireNonNull(pool);
+
+        int windowCount = Math.max(0, tokenCount - prefixSize + 1);
+        int workers = Math.max(1, Math.min(pool.getParallelism(), windowCount));
+        int partitions = workers;
+
+        // Worker w takes the windows starting in [w * windowCount / workers, (w + 1) * windowCount / workers)
+        List<ForkJoinTask<PartialTable[]>> counting = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            int from = (int) ((long) w * windowCount / workers);
+            int to = (int) ((long) (w + 1) * windowCount / workers);
+            counting.add(pool.submit(() -> count(tokens, tokenCount, prefixSize, from, to, partitions)));
+        }
+        PartialTable[][] partials = new PartialTable[workers][];
+        for (int w = 0; w < workers; w++) {
+            partials[w] = counting.get(w).join();
+        }
+
+        // A single worker already saw every window in order
+        if (workers == 1) {
+            PartialTable partial = partials[0][0];
+            return new ShardedStateTable(partial.prefixes, partial.suffixes, windowCount);
+        }
+
+        List<ForkJoinTask<PartialTable>> merging = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            int partition = p;
+            merging.add(pool.submit(() -> merge(partials, partition, prefixSize)));
+        }
+        PartialTable[] merged = new PartialTable[partitions];
+        int distinctPrefixes = 0;
+        for (int p = 0; p < partitions; p++) {
+            merged[p] = merging.get(p).join();
+            distinctPrefixes += merged[p].prefixes.size();
+        }
+
+        return assemble(tokens, prefixSize, windowCount, merged, distinctPrefixes);
+    }
+
+    public PrefixTable prefixTable() {
+        return prefixTable;
+    }
+
+    public SuffixStore suffixStore() {
+        return suffixStore;
+    }
+
+    public int statesCount() {
+        return statesCount;
+    }
+
+    // Partition of a prefix from the high bits of its hash, the low ones pick the slot inside the partition table
+    static int partitionOf(int hash, int partitions) {
+        return (int) (((hash & 0xFFFFFFFFL) * partitions) >>> 32);
+    }
+
+    private static PartialTable[] count(int[] tokens, int tokenCount, int prefixSize, int from, int to, int partitions) {
+        PartialTable[] tables = new PartialTable[partitions];
+        for (int p = 0; p < partitions; p++) {
+            tables[p] = new PartialTable(prefixSize);
+        }
+
+        // Ring buffer with word j of the sequence at j % prefixSize, the window starting at i starts at i % prefixSize
+        int[] window = new int[prefixSize];
+        for (int i = from; i < Math.min(from + prefixSize, tokenCount); i++) {
+            window[i % prefixSize] = tokens[i];
+        }
+
+        for (int position = from; position < to; position++) {
+            int start = position % prefixSize;
+            int next = position + prefixSize;
+            int suffix = next < tokenCount ? tokens[next] : WordDictionary.EOF_ID;
+
+            int hash = PrefixTable.hash(window, start, prefixSize);
+            tables[partitionOf(hash, partitions)].add(window, start, position, suffix, 1);
+
+            if (next < tokenCount) {
+                window[start] = suffix;
+            }
+        }
+        return tables;
+    }
+
+    // Workers are merged in sequence order, so the first worker that saw a prefix or a suffix decides its order
+    private static PartialTable merge(PartialTable[][] partials, int partition, int prefixSize) {
+        PartialTable merged = new PartialTable(prefixSize);
+        int[] window = new int[prefixSize];
+        for (PartialTable[] workerTables : partials) {
+            PartialTable partial = workerTables[partition];
+            for (int prefixId = 0; prefixId < partial.prefixes.size(); prefixId++) {
+                for (int i = 0; i < prefixSize; i++) {
+                    window[i] = partial.prefixes.wordAt(prefixId, i);
+                }
+                for (int s = 0; s < partial.suffixes.distinctSuffixCount(prefixId); s++) {
+                    merged.add(window, 0, partial.firstPositions[prefixId], partial.suffixes.suffixAt(prefixId, s), partial.suffixes.occurrencesAt(prefixId, s));
+                }
+            }
+        }
+        return merged;
+    }
+
+    // Prefix ids are handed out by first position, like a sequential build interning the windows in order would
+    private static ShardedStateTable assemble(int[] tokens, int prefixSize, int windowCount, PartialTable[] merged, int distinctPrefixes) {
+        // Partition and prefix id within the partition of the prefix first seen at every position, -1 elsewhere
+        int[] firstSeenPartitions = new int[windowCount];
+        int[] firstSeenPrefixes = new int[windowCount];
+        Arrays.fill(firstSeenPartitions, -1);
+        for (int p = 0; p < merged.length; p++) {
+            for (int prefixId = 0; prefixId < merged[p].prefixes.size(); prefixId++) {
+                int position = merged[p].firstPositions[prefixId];
+                firstSeenPartitions[position] = p;
+                firstSeenPrefixes[position] = prefixId;
+            }
+        }
+
+        PrefixTable prefixTable = new PrefixTable(prefixSize, distinctPrefixes);
+        SuffixStore suffixStore = new SuffixStore(distinctPrefixes);
+        int[] window = new int[prefixSize];
+        for (int position = 0; position < windowCount; position++) {
+            int p = firstSeenPartitions[position];
+            if (p < 0) {
+                continue;
+            }
+
+            PartialTable partial = merged[p];
+            int localId = firstSeenPrefixes[position];
+            System.arraycopy(tokens, position, window, 0, prefixSize);
+            int prefixId = prefixTable.intern(window, 0);
+            for (int s = 0; s < partial.suffixes.distinctSuffixCount(localId); s++) {
+                suffixStore.add(prefixId, partial.suffixes.suffixAt(localId, s), partial.suffixes.occurrencesAt(localId, s));
+            }
+        }
+
+        return new ShardedStateTable(prefixTable, suffixStore, windowCount);
+    }
+
+    private static class PartialTable {
+        private final PrefixTable prefixes;
+        private final SuffixStore suffixes;
+        private int[] firstPositions;
+
+        PartialTable(int prefixSize) {
+            prefixes = new PrefixTable(prefixSize);
+            suffixes = new SuffixStore();
+            firstPositions = new int[16];
+        }
+
+        void add(int[] window, int start, int position, int suffix, int occurrences) {
+            int size = prefixes.size();
+            int prefixId = prefixes.intern(window, start);
+            if (prefixId == size) {
+                if (prefixId == firstPositions.length) {
+                    firstPositions = Arrays.copyOf(firstPositions, prefixId * 2);
+                }
+                firstPositions[prefixId] = position;
+            }
+            suffixes.add(prefixId, suffix, occurrences);
+        }
+    }
+}
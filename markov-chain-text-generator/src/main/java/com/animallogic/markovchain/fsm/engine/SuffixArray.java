@@ -0,0 +1,194 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.util.Arrays;
+
+// Suffix array of a word id sequence with its LCP array: suffixAt(r) is the start of the r-th smallest suffix and
+// lcpAt(r) the number of leading words it shares with the suffix of rank r - 1. A suffix that is a prefix of another
+// one sorts first. Built by prefix doubling with counting sorts, O(n log n).
+public final class SuffixArray {
+    private final int[] tokens;
+    private final int[] suffixes;
+    // Inverse of suffixes, the rank of the suffix that starts at every position
+    private final int[] ranks;
+    private final int[] lcp;
+
+    private SuffixArray(int[] tokens, int[] suffixes, int[] ranks, int[] lcp) {
+        this.tokens = tokens;
+        this.suffixes = suffixes;
+        this.ranks = ranks;
+        this.lcp = lcp;
+    }
+
+    // Every token has to be in [0, alphabetSize)
+    public static SuffixArray build(int[] tokens, int alphabetSize) {
+        int n = tokens.length;
+        int[] suffixes = new int[n];
+        int[] ranks = new int[n];
+        int[] sorted = new int[n];
+        int[] counts = new int[Math.max(alphabetSize, n) + 1];
+
+        // Ranks by the first word
+        for (int i = 0; i < n; i++) {
+            suffixes[i] = i;
+        }
+        countingSort(suffixes, sorted, tokens, counts, alphabetSize);
+        int classes = rerank(sorted, ranks, tokens, 0, n);
+        int[] order = sorted;
+        sorted = suffixes;
+
+        for (int h = 1; classes < n; h <<= 1) {
+            // Order by the rank of the word h positions later, suffixes shorter than h go first, then a stable sort
+            // by the own rank leaves them ordered by the first 2h words
+            int p = 0;
+            for (int i = n - h; i < n; i++) {
+                sorted[p++] = i;
+            }
+            for (int r = 0; r < n; r++) {
+                if (order[r] >= h) {
+                    sorted[p++] = order[r] - h;
+                }
+            }
+            countingSort(sorted, order, ranks, counts, classes);
+            classes = rerank(order, sorted, ranks, h, n);
+
+            int[] swap = ranks;
+            ranks = sorted;
+            sorted = swap;
+        }
+
+        int[] lcp = kasai(tokens, order, ranks);
+        return new SuffixArray(tokens, order, ranks, lcp);
+    }
+
+    public int length() {
+        return tokens.length;
+    }
+
+    public int token(int position) {
+        return tokens[position];
+    }
+
+    public int suffixAt(int rank) {
+        return suffixes[rank];
+    }
+
+    public int lcpAt(int rank) {
+        return lcp[rank];
+    }
+
+    public int rankOf(int position) {
+        return ranks[position];
+    }
+
+    // Rank of the suffix that starts at the first word, -1 when there are no words
+    public int firstPositionRank() {
+        return tokens.length > 0 ? ranks[0] : -1;
+    }
+
+    // Rank of the first suffix that starts with the given words, read from a ring buffer like PrefixTable does
+    public int lowerBound(int[] window, int start, int length) {
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(suffixes[middle], window, start, length) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Rank after the last suffix that starts with the given words
+    public int upperBound(int[] window, int start, int length) {
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(suffixes[middle], window, start, length) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Compares the first length words of the suffix with the words, a suffix shorter than that is smaller
+    private int compare(int position, int[] window, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            if (position + i >= tokens.length) {
+                return -1;
+            }
+            int word = window[(start + i) % window.length];
+            if (tokens[position + i] != word) {
+                return tokens[position + i] < word ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static void countingSort(int[] source, int[] target, int[] keys, int[] counts, int keyCount) {
+        Arrays.fill(counts, 0, keyCount + 1, 0);
+        for (int position : source) {
+            counts[keys[position] + 1]++;
+        }
+        for (int key = 0; key < keyCount; key++) {
+            counts[key + 1] += counts[key];
+        }
+        for (int position : source) {
+            target[counts[keys[position]]++] = position;
+        }
+    }
+
+    // Dense ranks of the sorted suffixes by their first word and the rank of the suffix h words later (all of the key
+    // when h is 0), returns the number of distinct ranks
+    private static int rerank(int[] order, int[] newRanks, int[] keys, int h, int n) {
+        if (n == 0) {
+            return 0;
+        }
+
+        int rank = 0;
+        newRanks[order[0]] = 0;
+        for (int r = 1; r < n; r++) {
+            int current = order[r];
+            int previous = order[r - 1];
+            boolean sameFirst = keys[current] == keys[previous];
+            boolean sameSecond = h == 0 || secondKey(keys, current, h, n) == secondKey(keys, previous, h, n);
+            if (!sameFirst || !sameSecond) {
+                rank++;
+            }
+            newRanks[current] = rank;
+        }
+        return rank + 1;
+    }
+
+    private static int secondKey(int[] ranks, int position, int h, int n) {
+        return position + h < n ? ranks[position + h] : -1;
+    }
+
+    // Kasai et al., O(n): the LCP of the suffix after position i is at least the one of position i minus one
+    private static int[] kasai(int[] tokens, int[] suffixes, int[] ranks) {
+        int n = tokens.length;
+        int[] lcp = new int[n];
+        int common = 0;
+        for (int i = 0; i < n; i++) {
+            int rank = ranks[i];
+            if (rank == 0) {
+                common = 0;
+                continue;
+            }
+
+            int previous = suffixes[rank - 1];
+            while (i + common < n && previous + common < n && tokens[i + common] == tokens[previous + common]) {
+                common++;
+            }
+            lcp[rank] = common;
+            if (common > 0) {
+                common--;
+            }
+        }
+        return lcp;
+    }
+}
@@ -0,0 +1,174 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+// The prefixes of one prefix size read from a suffix array. Suffixes that start with the same prefix are next to each
+// other and share at least prefixSize words with the previous one, so every distinct prefix is a run of ranks found by a
+// single pass over the LCP array. Prefix ids follow the suffix array order.
+//
+// The prefix of every rank is kept too, so the prefix a transition leads to, the one starting a word after the
+// transition, is read off the rank of that position instead of searched for.
+public final class SuffixArrayPrefixIndex implements PrefixIndex {
+    private final SuffixArray suffixArray;
+    private final int prefixSize;
+    // Ranks [runStarts[p], runEnds[p]) are the suffixes that start with prefix p
+    private final int[] runStarts;
+    private final int[] runEnds;
+    // Prefix of every rank, -1 for suffixes shorter than the prefix size
+    private final int[] rankPrefixes;
+
+    public SuffixArrayPrefixIndex(SuffixArray suffixArray, int prefixSize) {
+        if (prefixSize <= 0) {
+            throw new IllegalArgumentException(String.format("The prefix size has to be a positive number (got %d)", prefixSize));
+        }
+        this.suffixArray = Objects.requireNonNull(suffixArray);
+        this.prefixSize = prefixSize;
+
+        int n = suffixArray.length();
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int runs = 0;
+        for (int rank = 0; rank < n; rank++) {
+            if (suffixArray.suffixAt(rank) + prefixSize > n) {
+                continue;
+            }
+
+            if (runs > 0 && ends[runs - 1] == rank && suffixArray.lcpAt(rank) >= prefixSize) {
+                ends[runs - 1] = rank + 1;
+            } else {
+                if (runs == starts.length) {
+                    starts = Arrays.copyOf(starts, runs * 2);
+                    ends = Arrays.copyOf(ends, runs * 2);
+                }
+                starts[runs] = rank;
+                ends[runs] = rank + 1;
+                runs++;
+            }
+        }
+
+        runStarts = Arrays.copyOf(starts, runs);
+        runEnds = Arrays.copyOf(ends, runs);
+        rankPrefixes = new int[n];
+        Arrays.fill(rankPrefixes, -1);
+        for (int prefixId = 0; prefixId < runs; prefixId++) {
+            Arrays.fill(rankPrefixes, runStarts[prefixId], runEnds[prefixId], prefixId);
+        }
+    }
+
+    @Override
+    public int find(int[] window, int start) {
+        int rank = suffixArray.lowerBound(window, start, prefixSize);
+        if (rank == suffixArray.length() || suffixArray.upperBound(window, start, prefixSize) == rank) {
+            return -1;
+        }
+        return prefixOfRank(rank);
+    }
+
+    @Override
+    public int wordAt(int prefixId, int index) {
+        return suffixArray.token(suffixArray.suffixAt(runStarts[prefixId]) + index);
+    }
+
+    @Override
+    public int size() {
+        return runStarts.length;
+    }
+
+    @Override
+    public int prefixSize() {
+        return prefixSize;
+    }
+
+    // Interns the prefixes in id order, so the packed table keeps the same ids
+    @Override
+    public PackedPrefixIndex pack() {
+        PrefixTable prefixTable = new PrefixTable(prefixSize);
+        int[] window = new int[prefixSize];
+        for (int prefixId = 0; prefixId < size(); prefixId++) {
+            for (int i = 0; i < prefixSize; i++) {
+                window[i] = wordAt(prefixId, i);
+            }
+            prefixTable.intern(window, 0);
+        }
+        return prefixTable.pack();
+    }
+
+    // Prefix whose run holds the rank, -1 for the ranks of suffixes shorter than the prefix size
+    public int prefixOfRank(int rank) {
+        return rankPrefixes[rank];
+    }
+
+    // Distinct words that follow every prefix and how many times, the word after the end of the corpus being the EOF
+    // suffix. Within a run the suffixes are also sorted by the word after the prefix, so every distinct suffix is a run
+    // of suffixes sharing more than prefixSize words. The prefix every suffix leads to is the one of the position after
+    // the first suffix of its run, so the whole table takes a single pass over the ranks.
+    public RunSuffixTable suffixTable() {
+        int n = suffixArray.length();
+        int[] firstSuffixes = new int[size() + 1];
+        int[] words = new int[16];
+        int[] occurrences = new int[16];
+        int[] targets = new int[16];
+        int distinct = 0;
+
+        for (int prefixId = 0; prefixId < size(); prefixId++) {
+            firstSuffixes[prefixId] = distinct;
+            for (int rank = runStarts[prefixId]; rank < runEnds[prefixId]; rank++) {
+                if (rank > runStarts[prefixId] && suffixArray.lcpAt(rank) > prefixSize) {
+                    occurrences[distinct - 1]++;
+                    continue;
+                }
+
+                if (distinct == words.length) {
+                    words = Arrays.copyOf(words, distinct * 2);
+                    occurrences = Arrays.copyOf(occurrences, distinct * 2);
+                    targets = Arrays.copyOf(targets, distinct * 2);
+                }
+                int position = suffixArray.suffixAt(rank);
+                int next = position + prefixSize;
+                words[distinct] = next < n ? suffixArray.token(next) : WordDictionary.EOF_ID;
+                occurrences[distinct] = 1;
+                // The EOF suffix leads nowhere, the suffix after the position is shorter than the prefix size
+                targets[distinct] = next < n ? prefixOfRank(suffixArray.rankOf(position + 1)) : -1;
+                distinct++;
+            }
+        }
+        firstSuffixes[size()] = distinct;
+
+        return new RunSuffixTable(firstSuffixes, words, occurrences, targets);
+    }
+
+    public static final class RunSuffixTable implements SuffixTable {
+        private final int[] firstSuffixes;
+        private final int[] words;
+        private final int[] occurrences;
+        private final int[] targets;
+
+        RunSuffixTable(int[] firstSuffixes, int[] words, int[] occurrences, int[] targets) {
+            this.firstSuffixes = firstSuffixes;
+            this.words = words;
+            this.occurrences = occurrences;
+            this.targets = targets;
+        }
+
+        @Override
+        public int distinctSuffixCount(int prefixId) {
+            return firstSuffixes[prefixId + 1] - firstSuffixes[prefixId];
+        }
+
+        @Override
+        public int suffixAt(int prefixId, int index) {
+            return words[firstSuffixes[prefixId] + index];
+        }
+
+        @Override
+        public int occurrencesAt(int prefixId, int index) {
+            return occurrences[firstSuffixes[prefixId] + index];
+        }
+
+        // Prefix reached by following the suffix, -1 for the EOF suffix
+        public int targetAt(int prefixId, int index) {
+            return targets[firstSuffixes[prefixId] + index];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.animallogic.markovchain.fsm.engine;
+
+// Fan-outs of the prefixes of a SuffixStore and the bytes its suffixes take, against the bytes they would take with one
+// array of word id and occurrence pairs per prefix. Bytes are estimated for a 64 bit JVM with compressed references:
+// 16 byte array headers, 4 byte references and every object rounded up to 8 bytes. Strings are counted as on Java 8, a
+// 24 byte object and an array of UTF-16 chars.
+public final class SuffixMemoryReport {
+    static final int REFERENCE_BYTES = 4;
+    static final int OBJECT_BYTES = 40;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int STRING_BYTES = 24;
+
+    // Prefixes with a fan-out in [2^i, 2^(i + 1)) at index i
+    private final long[] fanOuts;
+    private final long inlinePrefixes;
+    private final long packedPrefixes;
+    private final long countedPrefixes;
+    private final long bytes;
+    private final long arrayPerPrefixBytes;
+
+    SuffixMemoryReport(long[] fanOuts, long inlinePrefixes, long packedPrefixes, long countedPrefixes, long bytes, long arrayPerPrefixBytes) {
+        this.fanOuts = fanOuts;
+        this.inlinePrefixes = inlinePrefixes;
+        this.packedPrefixes = packedPrefixes;
+        this.countedPrefixes = countedPrefixes;
+        this.bytes = bytes;
+        this.arrayPerPrefixBytes = arrayPerPrefixBytes;
+    }
+
+    // Number of prefixes with at least 2^bucket and less than 2^(bucket + 1) distinct suffixes
+    public long prefixesWithFanOutBucket(int bucket) {
+        return fanOuts[bucket];
+    }
+
+    public long inlinePrefixes() {
+        return inlinePrefixes;
+    }
+
+    public long packedPrefixes() {
+        return packedPrefixes;
+    }
+
+    public long countedPrefixes() {
+        return countedPrefixes;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long arrayPerPrefixBytes() {
+        return arrayPerPrefixBytes;
+    }
+
+    public long savedBytes() {
+        return arrayPerPrefixBytes - bytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder(String.format("%-16s %12s%n", "fan-out", "prefixes"));
+        for (int bucket = 0; bucket < fanOuts.length; bucket++) {
+            if (fanOuts[bucket] == 0) {
+                continue;
+            }
+            long low = 1L << bucket;
+            String range = low == 1 ? "1" : String.format("%d-%d", low, 2 * low - 1);
+            report.append(String.format("%-16s %12d%n", range, fanOuts[bucket]));
+        }
+        report.append(String.format("%d inline, %d packed and %d counted prefixes%n", inlinePrefixes, packedPrefixes, countedPrefixes));
+        report.append(String.format("%d bytes, %d bytes with an array per prefix, %d bytes saved (%.1f%%)",
+                bytes, arrayPerPrefixBytes, savedBytes(), arrayPerPrefixBytes == 0 ? 0.0 : 100.0 * savedBytes() / arrayPerPrefixBytes));
+        return report.toString();
+    }
+
+    static long arrayBytes(long length, int elementBytes) {
+        return (ARRAY_HEADER_BYTES + length * elementBytes + 7) & -8L;
+    }
+
+    static long stringBytes(String value) {
+        return STRING_BYTES + arrayBytes(value.length(), Character.BYTES);
+    }
+}
@@ -0,0 +1,318 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import java.util.Arrays;
+
+// Distinct suffix word ids of every prefix id with how many times each one followed the prefix, in the order they were
+// first seen. Most prefixes have one or two suffixes, so the storage of a prefix depends on its fan-out:
+//   - inline: the first suffix and the second one of a prefix with two are kept in per prefix columns, with no object
+//     per prefix at all (the occurrences of the second one are the total minus the ones of the first)
+//   - packed: from the third suffix on, the suffixes after the first are in an array of word id and occurrence pairs
+//   - counted: past PACKED_MAX suffixes the array becomes a CountedSuffixes table, hash indexed so adding a suffix does
+//     not scan the others, with one byte per occurrence count and the few bigger counts kept aside
+public class SuffixStore implements SuffixTable {
+    static final int PACKED_MAX = 64;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int[] distinctCounts;
+    private int[] occurrenceCounts;
+    private int[] firstWords;
+    private int[] firstOccurrences;
+    private int[] secondWords;
+    // int[] of word id and occurrence pairs for the packed prefixes, CountedSuffixes for the counted ones
+    private Object[] spilledSuffixes;
+    private int prefixCount;
+
+    public SuffixStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public SuffixStore(int expectedPrefixes) {
+        int capacity = Math.max(INITIAL_CAPACITY, expectedPrefixes);
+        distinctCounts = new int[capacity];
+        occurrenceCounts = new int[capacity];
+        firstWords = new int[capacity];
+        firstOccurrences = new int[capacity];
+        secondWords = new int[capacity];
+        spilledSuffixes = new Object[capacity];
+        prefixCount = 0;
+    }
+
+    public void add(int prefixId, int wordId) {
+        add(prefixId, wordId, 1);
+    }
+
+    public void add(int prefixId, int wordId, int occurrences) {
+        ensurePrefix(prefixId);
+
+        int distinct = distinctCounts[prefixId];
+        occurrenceCounts[prefixId] += occurrences;
+
+        if (distinct == 0) {
+            firstWords[prefixId] = wordId;
+            firstOccurrences[prefixId] = occurrences;
+            distinctCounts[prefixId] = 1;
+        } else if (firstWords[prefixId] == wordId) {
+            firstOccurrences[prefixId] += occurrences;
+        } else if (distinct == 1) {
+            secondWords[prefixId] = wordId;
+            distinctCounts[prefixId] = 2;
+        } else if (distinct == 2) {
+            if (secondWords[prefixId] != wordId) {
+                int secondOccurrences = occurrenceCounts[prefixId] - occurrences - firstOccurrences[prefixId];
+                spilledSuffixes[prefixId] = new int[]{secondWords[prefixId], secondOccurrences, wordId, occurrences};
+                distinctCounts[prefixId] = 3;
+            }
+        } else if (distinct - 1 <= PACKED_MAX) {
+            addPacked(prefixId, wordId, occurrences, distinct);
+        } else if (((CountedSuffixes) spilledSuffixes[prefixId]).add(wordId, occurrences)) {
+            distinctCounts[prefixId] = distinct + 1;
+        }
+    }
+
+    @Override
+    public int distinctSuffixCount(int prefixId) {
+        return prefixId < prefixCount ? distinctCounts[prefixId] : 0;
+    }
+
+    // Total number of times any suffix followed the prefix
+    public int occurrenceCount(int prefixId) {
+        return prefixId < prefixCount ? occurrenceCounts[prefixId] : 0;
+    }
+
+    @Override
+    public int suffixAt(int prefixId, int index) {
+        if (index == 0) {
+            return firstWords[prefixId];
+        }
+
+        int distinct = distinctCounts[prefixId];
+        if (distinct == 2) {
+            return secondWords[prefixId];
+        } else if (distinct - 1 <= PACKED_MAX) {
+            return ((int[]) spilledSuffixes[prefixId])[2 * (index - 1)];
+        } else {
+            return ((CountedSuffixes) spilledSuffixes[prefixId]).words[index - 1];
+        }
+    }
+
+    @Override
+    public int occurrencesAt(int prefixId, int index) {
+        if (index == 0) {
+            return firstOccurrences[prefixId];
+        }
+
+        int distinct = distinctCounts[prefixId];
+        if (distinct == 2) {
+            return occurrenceCounts[prefixId] - firstOccurrences[prefixId];
+        } else if (distinct - 1 <= PACKED_MAX) {
+            return ((int[]) spilledSuffixes[prefixId])[2 * (index - 1) + 1];
+        } else {
+            return ((CountedSuffixes) spilledSuffixes[prefixId]).count(index - 1);
+        }
+    }
+
+    // Fan-outs of the prefixes and the bytes taken by their suffixes, against one array per prefix
+    public SuffixMemoryReport memoryReport() {
+        long[] fanOuts = new long[Integer.SIZE];
+        long inline = 0;
+        long packed = 0;
+        long counted = 0;
+        long spilledBytes = 0;
+        long arrayPerPrefixBytes = (long) prefixCount * (SuffixMemoryReport.REFERENCE_BYTES + 2 * Integer.BYTES);
+
+        for (int prefixId = 0; prefixId < prefixCount; prefixId++) {
+            int distinct = distinctCounts[prefixId];
+            if (distinct == 0) {
+                continue;
+            }
+            fanOuts[31 - Integer.numberOfLeadingZeros(distinct)]++;
+            arrayPerPrefixBytes += SuffixMemoryReport.arrayBytes(2L * Integer.highestOneBit(2 * distinct - 1), Integer.BYTES);
+
+            if (distinct <= 2) {
+                inline++;
+            } else if (distinct - 1 <= PACKED_MAX) {
+                packed++;
+                spilledBytes += SuffixMemoryReport.arrayBytes(((int[]) spilledSuffixes[prefixId]).length, Integer.BYTES);
+            } else {
+                counted++;
+                spilledBytes += ((CountedSuffixes) spilledSuffixes[prefixId]).bytes();
+            }
+        }
+
+        long columnBytes = (long) prefixCount * (SuffixMemoryReport.REFERENCE_BYTES + 5 * Integer.BYTES);
+        return new SuffixMemoryReport(fanOuts, inline, packed, counted, columnBytes + spilledBytes, arrayPerPrefixBytes);
+    }
+
+    private void addPacked(int prefixId, int wordId, int occurrences, int distinct) {
+        int[] pairs = (int[]) spilledSuffixes[prefixId];
+        int spilled = distinct - 1;
+        for (int i = 0; i < spilled; i++) {
+            if (pairs[2 * i] == wordId) {
+                pairs[2 * i + 1] += occurrences;
+                return;
+            }
+        }
+
+        if (spilled == PACKED_MAX) {
+            CountedSuffixes counted = new CountedSuffixes(2 * PACKED_MAX);
+            for (int i = 0; i < spilled; i++) {
+                counted.add(pairs[2 * i], pairs[2 * i + 1]);
+            }
+            counted.add(wordId, occurrences);
+            spilledSuffixes[prefixId] = counted;
+        } else {
+            if (2 * spilled == pairs.length) {
+                pairs = Arrays.copyOf(pairs, 4 * spilled);
+                spilledSuffixes[prefixId] = pairs;
+            }
+            pairs[2 * spilled] = wordId;
+            pairs[2 * spilled + 1] = occurrences;
+        }
+        distinctCounts[prefixId] = distinct + 1;
+    }
+
+    private void ensurePrefix(int prefixId) {
+        if (prefixId < prefixCount) {
+            return;
+        }
+
+        if (prefixId >= distinctCounts.length) {
+            int capacity = Math.max(distinctCounts.length * 2, prefixId + 1);
+            distinctCounts = Arrays.copyOf(distinctCounts, capacity);
+            occurrenceCounts = Arrays.copyOf(occurrenceCounts, capacity);
+            firstWords = Arrays.copyOf(firstWords, capacity);
+            firstOccurrences = Arrays.copyOf(firstOccurrences, capacity);
+            secondWords = Arrays.copyOf(secondWords, capacity);
+            spilledSuffixes = Arrays.copyOf(spilledSuffixes, capacity);
+        }
+        prefixCount = prefixId + 1;
+    }
+
+    // Suffixes of a prefix with a big fan-out. Words are in insertion order with an open addressing index over them.
+    // Counts up to 254 take a byte, bigger ones are marked with 255 and kept in a small hash map by index, which only
+    // the few frequent suffixes of the prefix end up in.
+    private static final class CountedSuffixes {
+        private static final int WIDE_COUNT = 0xFF;
+
+        private int[] words;
+        private byte[] counts;
+        private int size;
+        private int[] slots;
+
+        private int[] wideIndexes;
+        private int[] wideCounts;
+        private int wideSize;
+
+        CountedSuffixes(int capacity) {
+            words = new int[capacity];
+            counts = new byte[capacity];
+            size = 0;
+            slots = new int[capacity * 2];
+            wideIndexes = new int[8];
+            wideCounts = new int[8];
+            wideSize = 0;
+        }
+
+        // Returns true when the word was not a suffix yet
+        boolean add(int wordId, int occurrences) {
+            int mask = slots.length - 1;
+            int slot = HashMixer.mix(wordId) & mask;
+            while (slots[slot] != 0) {
+                int index = slots[slot] - 1;
+                if (words[index] == wordId) {
+                    setCount(index, count(index) + occurrences);
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (size == words.length) {
+                words = Arrays.copyOf(words, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            words[size] = wordId;
+            setCount(size, occurrences);
+            slots[slot] = ++size;
+
+            if (4 * size > 3 * slots.length) {
+                rehash();
+            }
+            return true;
+        }
+
+        int count(int index) {
+            int count = counts[index] & 0xFF;
+            if (count != WIDE_COUNT) {
+                return count;
+            }
+
+            int mask = wideIndexes.length - 1;
+            int slot = HashMixer.mix(index) & mask;
+            while (wideIndexes[slot] != index + 1) {
+                slot = (slot + 1) & mask;
+            }
+            return wideCounts[slot];
+        }
+
+        long bytes() {
+            return SuffixMemoryReport.arrayBytes(words.length, Integer.BYTES) + SuffixMemoryReport.arrayBytes(counts.length, Byte.BYTES)
+                    + SuffixMemoryReport.arrayBytes(slots.length, Integer.BYTES) + 2 * SuffixMemoryReport.arrayBytes(wideIndexes.length, Integer.BYTES)
+                    + SuffixMemoryReport.OBJECT_BYTES;
+        }
+
+        private void setCount(int index, int count) {
+            if (count < WIDE_COUNT && (counts[index] & 0xFF) != WIDE_COUNT) {
+                counts[index] = (byte) count;
+                return;
+            }
+
+            counts[index] = (byte) WIDE_COUNT;
+            int mask = wideIndexes.length - 1;
+            int slot = HashMixer.mix(index) & mask;
+            while (wideIndexes[slot] != 0 && wideIndexes[slot] != index + 1) {
+                slot = (slot + 1) & mask;
+            }
+            if (wideIndexes[slot] == 0) {
+                wideIndexes[slot] = index + 1;
+                wideSize++;
+            }
+            wideCounts[slot] = count;
+
+            if (2 * wideSize > wideIndexes.length) {
+                rehashWide();
+            }
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int index = 0; index < size; index++) {
+                int slot = HashMixer.mix(words[index]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = index + 1;
+            }
+        }
+
+        private void rehashWide() {
+            int[] oldIndexes = wideIndexes;
+            int[] oldCounts = wideCounts;
+            wideIndexes = new int[oldIndexes.length * 2];
+            wideCounts = new int[oldIndexes.length * 2];
+            int mask = wideIndexes.length - 1;
+            for (int i = 0; i < oldIndexes.length; i++) {
+                if (oldIndexes[i] == 0) {
+                    continue;
+                }
+                int slot = HashMixer.mix(oldIndexes[i] - 1) & mask;
+                while (wideIndexes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                wideIndexes[slot] = oldIndexes[i];
+                wideCounts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.animallogic.markovchain.fsm.engine;
+
+// Distinct suffix word ids of every prefix id with how many times each one followed the prefix
+public interface SuffixTable {
+    int distinctSuffixCount(int prefixId);
+
+    int suffixAt(int prefixId, int index);
+
+    int occurrencesAt(int prefixId, int index);
+}
@@ -0,0 +1,127 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import com.animallogic.markovchain.fsm.types.Suffix;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+// Interns every distinct word to a dense int id, ids are handed out in insertion order starting with the EOF suffix
+public class WordDictionary implements WordIndex {
+    public static final int EOF_ID = 0;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private String[] words;
+    private int[] slots;
+    private int size;
+
+    public WordDictionary() {
+        words = new String[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY * 2];
+        size = 0;
+
+        intern(Suffix.EOF.value());
+    }
+
+    public int intern(String word) {
+        Objects.requireNonNull(word);
+
+        int mask = slots.length - 1;
+        int slot = HashMixer.mix(word.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (words[id].equals(word)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int id = size;
+        if (id == words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        words[id] = word;
+        slots[slot] = id + 1;
+        size++;
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+
+        return id;
+    }
+
+    // Returns -1 for words that were never interned
+    @Override
+    public int idOf(String word) {
+        if (word == null) {
+            return -1;
+        }
+
+        int mask = slots.length - 1;
+        int slot = HashMixer.mix(word.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (words[id].equals(word)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public String word(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException(String.format("Word id %d is not in the dictionary (size %d)", id, size));
+        }
+        return words[id];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // Bytes of the words and the slots, estimated like in SuffixMemoryReport
+    public long bytes() {
+        long bytes = SuffixMemoryReport.arrayBytes(words.length, SuffixMemoryReport.REFERENCE_BYTES) + SuffixMemoryReport.arrayBytes(slots.length, Integer.BYTES);
+        for (int id = 0; id < size; id++) {
+            bytes += SuffixMemoryReport.stringBytes(words[id]);
+        }
+        return bytes;
+    }
+
+    @Override
+    public PackedWordIndex pack() {
+        byte[][] encoded = new byte[size][];
+        int[] offsets = new int[size + 1];
+        for (int id = 0; id < size; id++) {
+            encoded[id] = words[id].getBytes(StandardCharsets.UTF_8);
+            offsets[id + 1] = Math.addExact(offsets[id], encoded[id].length);
+        }
+
+        ByteBuffer bytes = ByteBuffer.allocate(offsets[size]);
+        for (byte[] word : encoded) {
+            bytes.put(word);
+        }
+        bytes.flip();
+
+        return new PackedWordIndex(IntArray.wrap(offsets), IntArray.wrap(Arrays.copyOf(slots, slots.length)), bytes);
+    }
+
+    private void rehash(int capacity) {
+        int[] newSlots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = HashMixer.mix(words[id].hashCode()) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+    }
+}
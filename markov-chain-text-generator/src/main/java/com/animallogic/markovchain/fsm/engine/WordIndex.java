@@ -0,0 +1,14 @@
+package com.animallogic.markovchain.fsm.engine;
+
+// Read side of a word dictionary: dense word ids starting with the EOF suffix (WordDictionary.EOF_ID)
+public interface WordIndex {
+    // Returns -1 for words that are not in the index
+    int idOf(String word);
+
+    String word(int id);
+
+    int size();
+
+    // The same words and ids laid out as flat arrays, ready to be written to a model file
+    PackedWordIndex pack();
+}
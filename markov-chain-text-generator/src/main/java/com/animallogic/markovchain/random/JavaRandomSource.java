@@ -0,0 +1,37 @@
+package com.animallogic.markovchain.random;
+
+import java.util.Objects;
+import java.util.Random;
+
+final class JavaRandomSource implements RandomSource {
+    private final Random random;
+
+    JavaRandomSource(Random random) {
+        this.random = Objects.requireNonNull(random);
+    }
+
+    @Override
+    public long nextLong() {
+        return random.nextLong();
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+    @Override
+    public double nextDouble() {
+        return random.nextDouble();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public RandomSource split() {
+        return new JavaRandomSource(new Random(random.nextLong()));
+    }
+}
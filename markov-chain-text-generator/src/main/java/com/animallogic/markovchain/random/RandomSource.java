@@ -0,0 +1,75 @@
+package com.animallogic.markovchain.random;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Random numbers for generating text. Implementations other than the ones backed by java.util.Random and
+// ThreadLocalRandom are not thread safe: a source shared by several threads is split into one source per thread.
+public interface RandomSource {
+    long nextLong();
+
+    // Uniform in [0, bound) for a positive bound, without modulo bias. Lemire's multiply and shift: the high 32 bits of a
+    // 32 bit random number times the bound, drawing again only for the few low parts that would make some values more
+    // likely than others.
+    default int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("The bound must be positive, got " + bound);
+        }
+
+        long product = (nextLong() >>> 32) * bound;
+        if (Integer.compareUnsigned((int) product, bound) < 0) {
+            int threshold = Integer.remainderUnsigned(-bound, bound);
+            while (Integer.compareUnsigned((int) product, threshold) < 0) {
+                product = (nextLong() >>> 32) * bound;
+            }
+        }
+        return (int) (product >>> 32);
+    }
+
+    // Uniform in [0, 1) with 53 random bits
+    default double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // Whether threads can draw from the source at once, the others have to be split into a source per thread
+    default boolean isThreadSafe() {
+        return false;
+    }
+
+    // Source for another thread, drawn from this one so a seeded source splits into the same sources every time. Threads
+    // may split a shared source concurrently as long as none of them draws from it.
+    RandomSource split();
+
+    // Draws exactly what the given Random draws, so seeded generators keep generating the same text. Every draw is a
+    // compare and set on the seed of the Random, which threads sharing it contend on.
+    static RandomSource of(Random random) {
+        return new JavaRandomSource(random);
+    }
+
+    static RandomSource splittable(long seed) {
+        return new SplittableRandomSource(seed);
+    }
+
+    static RandomSource splittable() {
+        return new SplittableRandomSource(ThreadLocalRandom.current().nextLong());
+    }
+
+    // The ThreadLocalRandom of the calling thread, it cannot be seeded
+    static RandomSource threadLocal() {
+        return ThreadLocalRandomSource.INSTANCE;
+    }
+
+    static RandomSource xoroshiro(long seed) {
+        return new XoroshiroRandomSource(seed);
+    }
+
+    // Source number stream of a seed, for splitting work by index: the same seed and stream always give the same
+    // source whichever thread creates it and in whatever order
+    static RandomSource xoroshiro(long seed, long stream) {
+        return new XoroshiroRandomSource(seed, stream);
+    }
+
+    static RandomSource xoroshiro() {
+        return new XoroshiroRandomSource(ThreadLocalRandom.current().nextLong());
+    }
+}
@@ -0,0 +1,36 @@
+package com.animallogic.markovchain.random;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Every call goes to the ThreadLocalRandom of the calling thread, so one instance is shared by all the threads
+final class ThreadLocalRandomSource implements RandomSource {
+    static final ThreadLocalRandomSource INSTANCE = new ThreadLocalRandomSource();
+
+    private ThreadLocalRandomSource() {
+    }
+
+    @Override
+    public long nextLong() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+
+    @Override
+    public double nextDouble() {
+        return ThreadLocalRandom.current().nextDouble();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public RandomSource split() {
+        return this;
+    }
+}
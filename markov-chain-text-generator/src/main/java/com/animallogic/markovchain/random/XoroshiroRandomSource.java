@@ -0,0 +1,47 @@
+package com.animallogic.markovchain.random;
+
+// xoroshiro128++ by Blackman and Vigna: two longs of state, a few shifts, rotations and additions per number and a
+// period of 2^128 - 1. The state is seeded with SplitMix64 so close seeds give unrelated sequences. Stream i of a seed
+// is seeded from the longs 2i + 1 and 2i + 2 of SplitMix64, which can be computed directly for any stream.
+final class XoroshiroRandomSource implements RandomSource {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long s0;
+    private long s1;
+
+    XoroshiroRandomSource(long seed) {
+        this(seed, 0);
+    }
+
+    XoroshiroRandomSource(long seed, long stream) {
+        s0 = splitMix64(seed + (2 * stream + 1) * GOLDEN_GAMMA);
+        s1 = splitMix64(seed + (2 * stream + 2) * GOLDEN_GAMMA);
+        if ((s0 | s1) == 0) {
+            s1 = 1;
+        }
+    }
+
+    @Override
+    public long nextLong() {
+        long x0 = s0;
+        long x1 = s1;
+        long result = Long.rotateLeft(x0 + x1, 17) + x0;
+
+        x1 ^= x0;
+        s0 = Long.rotateLeft(x0, 49) ^ x1 ^ (x1 << 21);
+        s1 = Long.rotateLeft(x1, 28);
+        return result;
+    }
+
+    @Override
+    public synchronized RandomSource split() {
+        return new XoroshiroRandomSource(nextLong());
+    }
+
+    private static long splitMix64(long x) {
+        long z = x;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -4,21 +4,46 @@ import com.animallogic.markovchain.corpus.stream.CorpusStream;
 import com.animallogic.markovchain.corpus.stream.InMemoryCorpusStream;
 import com.animallogic.markovchain.fsm.TextFiniteStateMachine;
 import com.animallogic.markovchain.fsm.TextFiniteStateMachineFactory;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFile;
+import com.animallogic.markovchain.fsm.types.Prefix;
 import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.Suffix;
 import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
+import com.animallogic.markovchain.random.RandomSource;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.sun.management.ThreadMXBean;
 import io.atlassian.fugue.Either;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class MarkovChainRandomTextGeneratorTest {
     @Test
@@ -53,7 +78,7 @@ public class MarkovChainRandomTextGeneratorTest {
         TextFiniteStateMachine textFiniteStateMachine = result.right().get();
 
 
-        final int SEED = 0x41878291;
+        final int SEED = 0x41883291;
         Random rng = new Random(SEED);
 
         MarkovChainRandomTextGenerator markovChainRandomTextGenerator =
@@ -99,6 +124,271 @@ public class MarkovChainRandomTextGeneratorTest {
         assertNotEquals(words.toString(), randomText);
     }
 
+    @Test
+    @Tag("integration")
+    @DisplayName("Every generated word should be a suffix of the prefix made of the words generated before it")
+    void generatedWordsFollowTheStateMachine() {
+        Random corpusRng = new Random(0xC0FFEE);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            words.add("w" + corpusRng.nextInt(50) + (corpusRng.nextInt(10) == 0 ? "\n" : ""));
+        }
+
+        Either<TextFiniteStateMachineError, TextFiniteStateMachine> result =
+                new TextFiniteStateMachineFactory().createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2));
+        assertThat(result.isRight(), is(true));
+        TextFiniteStateMachine textFiniteStateMachine = result.right().get();
+
+        final int SEED = 0x5EED;
+        List<String> generated = new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(SEED))
+                .stream()
+                .limit(2_000)
+                .collect(Collectors.toList());
+
+        assertEquals(2_000, generated.size());
+        assertEquals(generated, new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(SEED))
+                .stream()
+                .limit(2_000)
+                .collect(Collectors.toList()));
+
+        // The first element is the start prefix, which skips the word that follows it, so the walk is checked from the
+        // first two words generated after it
+        Prefix prefix = Prefix.of(ImmutableList.of(generated.get(1), generated.get(2)));
+        for (String word : generated.subList(3, generated.size())) {
+            Suffix suffix = word.isEmpty() ? Suffix.EOF : Suffix.of(word);
+            assertThat(textFiniteStateMachine.sufficesFor(prefix).contains(suffix), is(true));
+            prefix = Prefix.of(ImmutableList.of(prefix.words().get(1), suffix.value()));
+        }
+    }
+
+    @Test
+    @DisplayName("Writing text to a channel should allocate next to nothing per word once warmed up, with heap and off-heap models")
+    void generationDoesNotAllocatePerWord() throws IOException {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        // A vocabulary of 60,000 distinct words, far more than any cache of decoded words would hold
+        Random corpusRng = new Random(0xA110C);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 60_000; i++) {
+            words.add("w" + i);
+        }
+        for (int i = 0; i < 140_000; i++) {
+            words.add("w" + corpusRng.nextInt(60_000));
+        }
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2))
+                .right()
+                .get();
+        assertEquals(60_000, ImmutableSet.copyOf(words).size());
+
+        final int WORDS = 200_000;
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        for (TextFiniteStateMachine model : ImmutableList.of(textFiniteStateMachine, textFiniteStateMachine.offHeap())) {
+            MarkovChainRandomTextGenerator generator = new MarkovChainRandomTextGenerator(model, new Random(0));
+            writeWords(generator, buffer, WORDS);
+
+            long threadId = Thread.currentThread().getId();
+            long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            long bytesWritten = writeWords(generator, buffer, WORDS);
+            long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            assertThat(bytesWritten > WORDS, is(true));
+
+            // The words are copied from the model as bytes, decoding them into Strings would be 50 bytes or more per word
+            double bytesPerWord = (double) allocatedBytes / WORDS;
+            assertThat(String.format("%.2f bytes allocated per word", bytesPerWord), bytesPerWord < 1, is(true));
+        }
+    }
+
+    @Test
+    @DisplayName("Texts generated in parallel should be the same for a seed whatever the pool and the splits")
+    void parallelTextsAreReproducible() throws Exception {
+        Random corpusRng = new Random(0x7E57);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            words.add("w" + (int) (Math.pow(corpusRng.nextDouble(), 3) * 300) + (corpusRng.nextInt(20) == 0 ? "\n" : ""));
+        }
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2))
+                .right()
+                .get();
+
+        final long SEED = 0x5EED;
+        List<List<String>> sequential = new MarkovChainRandomTextGenerator(textFiniteStateMachine, RandomSource.splittable(SEED))
+                .texts(100, 50)
+                .collect(Collectors.toList());
+        assertEquals(100, sequential.size());
+        assertEquals(100, new HashSet<>(sequential).size());
+        for (List<String> text : sequential) {
+            assertThat(text.size() <= 50, is(true));
+        }
+
+        for (int parallelism : new int[]{1, 3, 8}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<List<String>> parallel = pool.submit(() -> new MarkovChainRandomTextGenerator(textFiniteStateMachine, RandomSource.splittable(SEED))
+                        .texts(100, 50)
+                        .parallel()
+                        .collect(Collectors.toList())).get();
+                assertEquals(sequential, parallel);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Iterators of one generator walked by several threads at once should each draw from their own source")
+    void iteratorsOfASharedGeneratorDoNotRace() throws Exception {
+        Random corpusRng = new Random(0x5A4E);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            words.add("w" + corpusRng.nextInt(50) + (corpusRng.nextInt(40) == 0 ? "\n" : ""));
+        }
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2))
+                .right()
+                .get();
+
+        final long SEED = 0x5EED;
+        final int THREADS = 8;
+        // xoroshiro is not thread safe, iterators drawing from it directly would make the texts depend on the timing
+        MarkovChainRandomTextGenerator expectedGenerator = new MarkovChainRandomTextGenerator(textFiniteStateMachine, RandomSource.xoroshiro(SEED));
+        List<List<String>> expected = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            expected.add(expectedGenerator.stream().limit(20_000).collect(Collectors.toList()));
+        }
+
+        MarkovChainRandomTextGenerator generator = new MarkovChainRandomTextGenerator(textFiniteStateMachine, RandomSource.xoroshiro(SEED));
+        List<Iterator<String>> iterators = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            iterators.add(generator.iterator());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<String>>> texts = new ArrayList<>();
+            for (Iterator<String> iterator : iterators) {
+                texts.add(executor.submit(() -> {
+                    List<String> text = new ArrayList<>();
+                    for (int i = 0; i < 20_000 && iterator.hasNext(); i++) {
+                        text.add(iterator.next());
+                    }
+                    return text;
+                }));
+            }
+            for (int thread = 0; thread < THREADS; thread++) {
+                assertEquals(expected.get(thread), texts.get(thread).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Text written to an Appendable or a channel should be the joined words of the same generation")
+    void writeToSinks() throws IOException {
+        Random corpusRng = new Random(0x51C);
+        String[] vocabulary = {"café", "naïve", "日本語", "emoji\uD83D\uDE00", "plain", "end.\n"};
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            words.add(vocabulary[corpusRng.nextInt(vocabulary.length)] + corpusRng.nextInt(30));
+            if (corpusRng.nextInt(15) == 0) {
+                words.add("end.\n");
+            }
+        }
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2))
+                .right()
+                .get();
+
+        for (int seed = 0; seed < 10; seed++) {
+            String expected = new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(seed))
+                    .stream()
+                    .map(s -> s.endsWith("\n") ? s : s + " ")
+                    .collect(Collectors.joining());
+
+            StringBuilder text = new StringBuilder();
+            long written = new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(seed)).writeTo(text);
+            assertEquals(expected, text.toString());
+
+            // A buffer a few bytes long is drained in the middle of multi-byte characters. Heap models copy the words
+            // from an array and off-heap ones from a direct buffer.
+            for (TextFiniteStateMachine model : ImmutableList.of(textFiniteStateMachine, textFiniteStateMachine.offHeap())) {
+                for (ByteBuffer buffer : ImmutableList.of(ByteBuffer.allocate(5), ByteBuffer.allocateDirect(1), ByteBuffer.allocate(8192))) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    assertEquals(written, new MarkovChainRandomTextGenerator(model, new Random(seed))
+                            .writeTo(Channels.newChannel(bytes), buffer));
+                    assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        String firstWords = new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(1))
+                .stream()
+                .limit(10)
+                .map(s -> s.endsWith("\n") ? s : s + " ")
+                .collect(Collectors.joining());
+        StringBuilder text = new StringBuilder();
+        assertEquals(10, new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(1)).writeTo(text, 10));
+        assertEquals(firstWords, text.toString());
+    }
+
+    @Test
+    @DisplayName("Collapsed runs of single transition states should generate the same text as walking every transition")
+    void runsGenerateTheSameText() throws IOException {
+        Random corpusRng = new Random(0x2C4);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            words.add("w" + (int) (Math.pow(corpusRng.nextDouble(), 3) * 500) + (corpusRng.nextInt(10) == 0 ? "\n" : ""));
+        }
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2))
+                .right()
+                .get();
+        assertThat(textFiniteStateMachine.statistics().runs() > 0, is(true));
+
+        // Graphs opened from a model file have no runs
+        Path modelFile = Files.createTempFile("model", ".mcm");
+        modelFile.toFile().deleteOnExit();
+        TextFiniteStateMachineFile textFiniteStateMachineFile = new TextFiniteStateMachineFile();
+        textFiniteStateMachineFile.save(textFiniteStateMachine, modelFile);
+        TextFiniteStateMachine withoutRuns = textFiniteStateMachineFile.open(modelFile).right().get();
+        assertEquals(0, withoutRuns.statistics().runs());
+
+        for (int seed = 0; seed < 20; seed++) {
+            assertEquals(
+                    new MarkovChainRandomTextGenerator(withoutRuns, new Random(seed)).stream().limit(1_000).collect(Collectors.toList()),
+                    new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(seed)).stream().limit(1_000).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @Tag("integration")
+    @DisplayName("Should only start from prefixes that begin a line with the line start policy")
+    void lineStartPolicy() {
+        CorpusStream corpusStream = new InMemoryCorpusStream(
+                ImmutableList.of(
+                        "This", "is", "a", "simple", "test.\n",
+                        "With", "no", "duplicated", "words.\n",
+                        "And", "a", "third", "line."
+                )
+        );
+
+        Either<TextFiniteStateMachineError, TextFiniteStateMachine> result =
+                new TextFiniteStateMachineFactory().createTextFiniteStateMachine(corpusStream, PrefixSize.of(2));
+        assertThat(result.isRight(), is(true));
+        TextFiniteStateMachine textFiniteStateMachine = result.right().get();
+
+        Set<String> starts = new HashSet<>();
+        for (int seed = 0; seed < 100; seed++) {
+            MarkovChainRandomTextGenerator markovChainRandomTextGenerator = new MarkovChainRandomTextGenerator(
+                    textFiniteStateMachine, new Random(seed), MarkovChainRandomTextGenerator.StartPolicy.LINE_START);
+            starts.add(markovChainRandomTextGenerator.iterator().next());
+        }
+
+        assertEquals(ImmutableSet.of("This is", "With no", "And a"), starts);
+    }
+
     @Test
     @Tag("integration")
     @DisplayName("Should generate empty text when prefix size is great than total number of words in text")
@@ -124,4 +414,35 @@ public class MarkovChainRandomTextGeneratorTest {
 
         assertThat(randomText, is(""));
     }
-}
\ No newline at end of file
+
+    // Writes texts until count words are written to a channel that drops them, returns how many bytes were written
+    private long writeWords(MarkovChainRandomTextGenerator generator, ByteBuffer buffer, int count) throws IOException {
+        CountingChannel channel = new CountingChannel();
+        long written = 0;
+        while (written < count) {
+            written += generator.writeTo(channel, buffer, count - written);
+        }
+        return channel.bytes;
+    }
+
+    private static final class CountingChannel implements WritableByteChannel {
+        private long bytes;
+
+        @Override
+        public int write(ByteBuffer source) {
+            int count = source.remaining();
+            source.position(source.limit());
+            bytes += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.animallogic.markovchain.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Synthetic corpus for the benchmarks: lines of words drawn from a fixed vocabulary with a skewed distribution, so
+// some prefixes are very common and most of them are rare, like in real text
+final class BenchmarkCorpus {
+    private static final int VOCABULARY_SIZE = 20_000;
+    private static final long SEED = 0x5EED;
+
+    private BenchmarkCorpus() {
+    }
+
+    static Path create(long sizeInBytes) throws IOException {
+        Path corpus = Files.createTempFile("benchmark-corpus", ".txt");
+        corpus.toFile().deleteOnExit();
+
+        String[] vocabulary = vocabulary();
+        Random rng = new Random(SEED);
+
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(corpus, StandardCharsets.UTF_8)) {
+            while (written < sizeInBytes) {
+                int wordsInLine = 5 + rng.nextInt(15);
+                for (int i = 0; i < wordsInLine; i++) {
+                    String word = vocabulary[skewedIndex(rng)];
+                    writer.write(word);
+                    writer.write(i < wordsInLine - 1 ? ' ' : '\n');
+                    written += word.length() + 1;
+                }
+            }
+        }
+
+        return corpus;
+    }
+
+    private static String[] vocabulary() {
+        Random rng = new Random(SEED);
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + rng.nextInt(9);
+            for (int j = 0; j < length; j++) {
+                word.append((char) ('a' + rng.nextInt(26)));
+            }
+            vocabulary[i] = word.toString();
+        }
+        return vocabulary;
+    }
+
+    private static int skewedIndex(Random rng) {
+        double r = rng.nextDouble();
+        return (int) (r * r * r * VOCABULARY_SIZE);
+    }
+}
@@ -0,0 +1,143 @@
+package com.animallogic.markovchain.benchmark;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+import com.animallogic.markovchain.corpus.stream.MappedFileCorpusStream;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachine;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFactory;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.random.RandomSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Words/sec of all the threads generating from one shared generator, from 1 to 32 threads. With "random" every iterator
+// draws from one shared java.util.Random and contends on its seed, "threadLocal" draws from the ThreadLocalRandom of each
+// thread, and the generator splits the splittable and xoroshiro sources into one source per iterator.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class ConcurrentGenerationBenchmark {
+    private static final int WORDS_PER_INVOCATION = 10_000;
+
+    @Param({"10"})
+    public int corpusSizeInMegabytes;
+
+    @Param({"2"})
+    public int prefixSize;
+
+    @Param({"random", "threadLocal", "splittable", "xoroshiro"})
+    public String source;
+
+    private MarkovChainRandomTextGenerator generator;
+
+    @Setup(Level.Trial)
+    public void buildModel() throws IOException {
+        MappedFileCorpusStream corpusStream = new MappedFileCorpusStream(BenchmarkCorpus.create(corpusSizeInMegabytes * 1024L * 1024L));
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(corpusStream, PrefixSize.of(prefixSize))
+                .right()
+                .get();
+
+        RandomSource sharedSource;
+        switch (source) {
+            case "random":
+                sharedSource = RandomSource.of(new Random(0x5EED));
+                break;
+            case "threadLocal":
+                sharedSource = RandomSource.threadLocal();
+                break;
+            case "splittable":
+                sharedSource = RandomSource.splittable(0x5EED);
+                break;
+            case "xoroshiro":
+                sharedSource = RandomSource.xoroshiro(0x5EED);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown random source " + source);
+        }
+        generator = new MarkovChainRandomTextGenerator(textFiniteStateMachine, sharedSource);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(WORDS_PER_INVOCATION)
+    public void threads01(ThreadGenerator threadGenerator, Blackhole blackhole) {
+        threadGenerator.generate(blackhole);
+    }
+
+    @Benchmark
+    @Threads(2)
+    @OperationsPerInvocation(WORDS_PER_INVOCATION)
+    public void threads02(ThreadGenerator threadGenerator, Blackhole blackhole) {
+        threadGenerator.generate(blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(WORDS_PER_INVOCATION)
+    public void threads04(ThreadGenerator threadGenerator, Blackhole blackhole) {
+        threadGenerator.generate(blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    @OperationsPerInvocation(WORDS_PER_INVOCATION)
+    public void threads08(ThreadGenerator threadGenerator, Blackhole blackhole) {
+        threadGenerator.generate(blackhole);
+    }
+
+    @Benchmark
+    @Threads(16)
+    @OperationsPerInvocation(WORDS_PER_INVOCATION)
+    public void threads16(ThreadGenerator threadGenerator, Blackhole blackhole) {
+        threadGenerator.generate(blackhole);
+    }
+
+    @Benchmark
+    @Threads(32)
+    @OperationsPerInvocation(WORDS_PER_INVOCATION)
+    public void threads32(ThreadGenerator threadGenerator, Blackhole blackhole) {
+        threadGenerator.generate(blackhole);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadGenerator {
+        private MarkovChainRandomTextGenerator generator;
+        private Iterator<String> iterator;
+
+        @Setup(Level.Trial)
+        public void createGenerator(ConcurrentGenerationBenchmark benchmark) {
+            generator = benchmark.generator;
+            iterator = generator.iterator();
+        }
+
+        void generate(Blackhole blackhole) {
+            for (int i = 0; i < WORDS_PER_INVOCATION; i++) {
+                if (!iterator.hasNext()) {
+                    iterator = generator.iterator();
+                }
+                blackhole.consume(iterator.next());
+            }
+        }
+    }
+}
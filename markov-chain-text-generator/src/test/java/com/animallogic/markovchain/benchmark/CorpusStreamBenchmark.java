@@ -0,0 +1,103 @@
+package com.animallogic.markovchain.benchmark;
+
+import com.animallogic.markovchain.corpus.stream.CorpusStream;
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream;
+import com.animallogic.markovchain.corpus.stream.MappedFileCorpusStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Tokens/sec reading the whole corpus word by word through nextWord() (before) and in batches through nextWords()
+// (after), reported as the "tokens" secondary result
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class CorpusStreamBenchmark {
+    private static final int BATCH_SIZE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        @Param({"100"})
+        public int corpusSizeInMegabytes;
+
+        Path path;
+
+        @Setup(Level.Trial)
+        public void createCorpus() throws IOException {
+            path = BenchmarkCorpus.create(corpusSizeInMegabytes * 1024L * 1024L);
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class TokenCounter {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Benchmark
+    public void fileStreamWordByWord(Corpus corpus, TokenCounter counter) throws IOException {
+        counter.tokens += readWordByWord(new FileCorpusStream(corpus.path));
+    }
+
+    @Benchmark
+    public void fileStreamBatched(Corpus corpus, TokenCounter counter) throws IOException {
+        counter.tokens += readBatched(new FileCorpusStream(corpus.path));
+    }
+
+    @Benchmark
+    public void mappedStreamWordByWord(Corpus corpus, TokenCounter counter) throws IOException {
+        counter.tokens += readWordByWord(new MappedFileCorpusStream(corpus.path));
+    }
+
+    @Benchmark
+    public void mappedStreamBatched(Corpus corpus, TokenCounter counter) throws IOException {
+        counter.tokens += readBatched(new MappedFileCorpusStream(corpus.path));
+    }
+
+    private long readWordByWord(CorpusStream corpusStream) throws IOException {
+        long tokens = 0;
+        try (CorpusStream stream = corpusStream) {
+            Optional<String> maybeNextWord = stream.nextWord();
+            while (maybeNextWord.isPresent()) {
+                tokens++;
+                maybeNextWord = stream.nextWord();
+            }
+        }
+        return tokens;
+    }
+
+    private long readBatched(CorpusStream corpusStream) throws IOException {
+        long tokens = 0;
+        String[] batch = new String[BATCH_SIZE];
+        try (CorpusStream stream = corpusStream) {
+            int wordsInBatch = stream.nextWords(batch);
+            while (wordsInBatch > 0) {
+                tokens += wordsInBatch;
+                wordsInBatch = stream.nextWords(batch);
+            }
+        }
+        return tokens;
+    }
+}
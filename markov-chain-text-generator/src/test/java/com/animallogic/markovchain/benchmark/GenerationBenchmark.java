@@ -0,0 +1,101 @@
+package com.animallogic.markovchain.benchmark;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+import com.animallogic.markovchain.corpus.stream.MappedFileCorpusStream;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachine;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFactory;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.Suffix;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Words/sec per core generating from the same model by rotating and looking the prefix up on every word (before) and by
+// jumping through the compiled transition graph (after)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class GenerationBenchmark {
+    private static final int WORDS_PER_INVOCATION = 10_000;
+
+    @Param({"10"})
+    public int corpusSizeInMegabytes;
+
+    @Param({"2", "3"})
+    public int prefixSize;
+
+    private TextFiniteStateMachine textFiniteStateMachine;
+    private MarkovChainRandomTextGenerator generator;
+    private Random rng;
+
+    @Setup(Level.Trial)
+    public void buildModel() throws IOException {
+        MappedFileCorpusStream corpusStream = new MappedFileCorpusStream(BenchmarkCorpus.create(corpusSizeInMegabytes * 1024L * 1024L));
+        textFiniteStateMachine = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(corpusStream, PrefixSize.of(prefixSize))
+                .right()
+                .get();
+
+        rng = new Random(0x5EED);
+        generator = new MarkovChainRandomTextGenerator(textFiniteStateMachine, rng);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS_PER_INVOCATION)
+    public void prefixLookupPerWord(Blackhole blackhole) {
+        List<Prefix> prefixes = textFiniteStateMachine.prefixes();
+        Prefix prefix = prefixes.get(rng.nextInt(prefixes.size()));
+
+        for (int i = 0; i < WORDS_PER_INVOCATION; i++) {
+            List<Suffix> suffixes = textFiniteStateMachine.sufficesFor(prefix);
+            if (suffixes.isEmpty()) {
+                prefix = prefixes.get(rng.nextInt(prefixes.size()));
+                continue;
+            }
+
+            Suffix suffix = suffixes.get(rng.nextInt(suffixes.size()));
+            blackhole.consume(suffix.value());
+
+            List<String> words = prefix.words();
+            ImmutableList.Builder<String> builder = ImmutableList.builder();
+            builder.addAll(words.subList(1, words.size()));
+            builder.add(suffix.value());
+            prefix = Prefix.of(builder.build());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WORDS_PER_INVOCATION)
+    public void transitionGraph(Blackhole blackhole) {
+        Iterator<String> iterator = generator.iterator();
+
+        for (int i = 0; i < WORDS_PER_INVOCATION; i++) {
+            if (!iterator.hasNext()) {
+                iterator = generator.iterator();
+            }
+            blackhole.consume(iterator.next());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.animallogic.markovchain.benchmark;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+import com.animallogic.markovchain.corpus.stream.MappedFileCorpusStream;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachine;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFactory;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFile;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Milliseconds until the first 100 words are generated, either building the model from the corpus (before) or opening
+// a previously saved model file (after)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ModelFileBenchmark {
+    private static final int WORDS = 100;
+
+    @Param({"10", "100"})
+    public int corpusSizeInMegabytes;
+
+    @Param({"2"})
+    public int prefixSize;
+
+    private Path corpus;
+    private Path modelFile;
+
+    @Setup(Level.Trial)
+    public void saveModel() throws IOException {
+        corpus = BenchmarkCorpus.create(corpusSizeInMegabytes * 1024L * 1024L);
+
+        modelFile = Files.createTempFile("model", ".mcm");
+        modelFile.toFile().deleteOnExit();
+        new TextFiniteStateMachineFile().save(build(), modelFile);
+    }
+
+    @Benchmark
+    public void buildFromCorpus(Blackhole blackhole) throws IOException {
+        generate(build(), blackhole);
+    }
+
+    @Benchmark
+    public void openModelFile(Blackhole blackhole) {
+        generate(new TextFiniteStateMachineFile().open(modelFile).right().get(), blackhole);
+    }
+
+    private TextFiniteStateMachine build() throws IOException {
+        return new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new MappedFileCorpusStream(corpus), PrefixSize.of(prefixSize))
+                .right()
+                .get();
+    }
+
+    private void generate(TextFiniteStateMachine textFiniteStateMachine, Blackhole blackhole) {
+        Iterator<String> iterator = new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(0x5EED)).iterator();
+        for (int i = 0; i < WORDS && iterator.hasNext(); i++) {
+            blackhole.consume(iterator.next());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.animallogic.markovchain.benchmark;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+import com.animallogic.markovchain.corpus.stream.MappedFileCorpusStream;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachine;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFactory;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// GC pauses while generating from the same model kept in the heap (before) or in direct buffers (after). Every
+// invocation generates text, leaving garbage behind like a server does, and then runs a full collection, which has to go
+// through whatever part of the model is in the heap. gcMillis and collections add up the collections of each iteration.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class OffHeapModelBenchmark {
+    private static final int WORDS = 1_000_000;
+
+    @Param({"100"})
+    public int corpusSizeInMegabytes;
+
+    @Param({"2"})
+    public int prefixSize;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public String storage;
+
+    private TextFiniteStateMachine textFiniteStateMachine;
+
+    @Setup(Level.Trial)
+    public void buildModel() throws IOException {
+        Path corpus = BenchmarkCorpus.create(corpusSizeInMegabytes * 1024L * 1024L);
+        TextFiniteStateMachine built = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new MappedFileCorpusStream(corpus), PrefixSize.of(prefixSize))
+                .right()
+                .get();
+        textFiniteStateMachine = storage.equals("OFF_HEAP") ? built.offHeap() : built;
+        System.gc();
+    }
+
+    @Benchmark
+    public void generateAndCollect(GcPauses gcPauses, Blackhole blackhole) {
+        long gcMillisBefore = GcPauses.totalMillis();
+        long collectionsBefore = GcPauses.totalCollections();
+
+        StringBuilder text = new StringBuilder();
+        Iterator<String> iterator = new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(0x5EED)).iterator();
+        for (int i = 0; i < WORDS && iterator.hasNext(); i++) {
+            text.append(iterator.next()).append(' ');
+        }
+        blackhole.consume(text.toString());
+        System.gc();
+
+        gcPauses.gcMillis += GcPauses.totalMillis() - gcMillisBefore;
+        gcPauses.collections += GcPauses.totalCollections() - collectionsBefore;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class GcPauses {
+        public long gcMillis;
+        public long collections;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            gcMillis = 0;
+            collections = 0;
+        }
+
+        static long totalMillis() {
+            long millis = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                millis += Math.max(0, collector.getCollectionTime());
+            }
+            return millis;
+        }
+
+        static long totalCollections() {
+            long collections = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                collections += Math.max(0, collector.getCollectionCount());
+            }
+            return collections;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.animallogic.markovchain.benchmark;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+import com.animallogic.markovchain.corpus.stream.MappedFileCorpusStream;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachine;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFactory;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFile;
+import com.animallogic.markovchain.fsm.engine.PageCache;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Lookups and generation on a model read through a page cache holding a percentage of the model file, against the same
+// model memory mapped as a whole (cachePercent 0). Lookups pick prefixes uniformly, so most of them are cold with a small
+// cache, while generation follows the common prefixes and mostly hits. hits and misses count the page reads of every
+// iteration.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class PagedModelBenchmark {
+    private static final int LOOKUPS = 1_000;
+    private static final int WORDS = 1_000;
+
+    @Param({"100"})
+    public int corpusSizeInMegabytes;
+
+    @Param({"2"})
+    public int prefixSize;
+
+    @Param({"0", "5", "25"})
+    public int cachePercent;
+
+    @Param({"4096"})
+    public int pageSize;
+
+    private TextFiniteStateMachine textFiniteStateMachine;
+    private PageCache pageCache;
+    private List<Prefix> prefixes;
+    private long seed;
+
+    @Setup(Level.Trial)
+    public void openModel() throws IOException {
+        Path corpus = BenchmarkCorpus.create(corpusSizeInMegabytes * 1024L * 1024L);
+        TextFiniteStateMachine built = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new MappedFileCorpusStream(corpus), PrefixSize.of(prefixSize))
+                .right()
+                .get();
+        prefixes = built.prefixes();
+
+        Path modelFile = Files.createTempFile("model", ".mcm");
+        modelFile.toFile().deleteOnExit();
+        TextFiniteStateMachineFile textFiniteStateMachineFile = new TextFiniteStateMachineFile();
+        textFiniteStateMachineFile.save(built, modelFile);
+
+        if (cachePercent == 0) {
+            pageCache = new PageCache(pageSize, 1);
+            textFiniteStateMachine = textFiniteStateMachineFile.open(modelFile).right().get();
+        } else {
+            int cachePages = (int) Math.max(1, Files.size(modelFile) * cachePercent / 100 / pageSize);
+            pageCache = new PageCache(pageSize, cachePages);
+            textFiniteStateMachine = textFiniteStateMachineFile.open(modelFile, pageCache).right().get();
+        }
+        seed = 0x5EED;
+    }
+
+    @Benchmark
+    public void lookUpPrefixes(PageReads pageReads, Blackhole blackhole) {
+        long hitsBefore = pageCache.hits();
+        long missesBefore = pageCache.misses();
+
+        Random rng = new Random(seed++);
+        for (int i = 0; i < LOOKUPS; i++) {
+            blackhole.consume(textFiniteStateMachine.sufficesFor(prefixes.get(rng.nextInt(prefixes.size()))));
+        }
+
+        pageReads.hits += pageCache.hits() - hitsBefore;
+        pageReads.misses += pageCache.misses() - missesBefore;
+    }
+
+    @Benchmark
+    public void generate(PageReads pageReads, Blackhole blackhole) {
+        long hitsBefore = pageCache.hits();
+        long missesBefore = pageCache.misses();
+
+        Iterator<String> iterator = new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(seed++)).iterator();
+        for (int i = 0; i < WORDS && iterator.hasNext(); i++) {
+            blackhole.consume(iterator.next());
+        }
+
+        pageReads.hits += pageCache.hits() - hitsBefore;
+        pageReads.misses += pageCache.misses() - missesBefore;
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PageReads {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.animallogic.markovchain.benchmark;
+
+import com.animallogic.markovchain.corpus.stream.InMemoryCorpusStream;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachine;
+import com.animallogic.markovchain.fsm.TextFiniteStateMachineFactory;
+import com.animallogic.markovchain.fsm.TransitionGraph;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.Suffix;
+import com.animallogic.markovchain.random.RandomSource;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Nanoseconds to pick the suffix of a single prefix with the given number of distinct suffixes by copying its suffixes
+// into a list and indexing it (before) and through the alias table of the compiled transition graph (after)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class SuffixSamplingBenchmark {
+    @Param({"2", "100", "10000", "50000"})
+    public int fanOut;
+
+    private TextFiniteStateMachine textFiniteStateMachine;
+    private TransitionGraph transitionGraph;
+    private Prefix prefix;
+    private int state;
+    private Random rng;
+    private RandomSource randomSource;
+
+    @Setup(Level.Trial)
+    public void buildModel() {
+        // "of the" followed by fanOut different words, the i-th one seen fanOut / (i + 1) times so a few suffixes are
+        // far more frequent than the rest
+        Random corpusRng = new Random(0x5EED);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < fanOut; i++) {
+            for (int j = 0; j <= fanOut / (i + 1) / 100; j++) {
+                words.add("of");
+                words.add("the");
+                words.add("word" + i);
+            }
+        }
+        for (int i = 0; i < words.size() / 3; i++) {
+            int swapped = corpusRng.nextInt(words.size() / 3);
+            for (int j = 0; j < 3; j++) {
+                String word = words.get(3 * i + j);
+                words.set(3 * i + j, words.get(3 * swapped + j));
+                words.set(3 * swapped + j, word);
+            }
+        }
+
+        textFiniteStateMachine = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2))
+                .right()
+                .get();
+        transitionGraph = textFiniteStateMachine.transitionGraph();
+
+        prefix = Prefix.of(ImmutableList.of("of", "the"));
+        state = textFiniteStateMachine.prefixes().indexOf(prefix);
+        rng = new Random(0x5EED);
+        randomSource = RandomSource.of(rng);
+    }
+
+    @Benchmark
+    public Suffix copyThenIndex() {
+        List<Suffix> suffixes = new ArrayList<>(textFiniteStateMachine.sufficesFor(prefix));
+        return suffixes.get(rng.nextInt(suffixes.size()));
+    }
+
+    @Benchmark
+    public int aliasTable() {
+        return transitionGraph.wordId(transitionGraph.randomTransition(state, randomSource));
+    }
+}
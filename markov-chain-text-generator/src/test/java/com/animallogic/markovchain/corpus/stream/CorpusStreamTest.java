@@ -0,0 +1,52 @@
+package com.animallogic.markovchain.corpus.stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CorpusStreamTest {
+    @Test
+    @DisplayName("The default nextWords() should adapt nextWord() for streams without a batched version")
+    public void defaultNextWordsAdaptsNextWord() {
+        CorpusStream corpusStream = wordByWordStream("one", "two", "three");
+
+        String[] batch = new String[]{"-", "-", "-", "-"};
+
+        assertEquals(2, corpusStream.nextWords(batch, 1, 2));
+        assertArrayEquals(new String[]{"-", "one", "two", "-"}, batch);
+
+        assertEquals(1, corpusStream.nextWords(batch));
+        assertEquals("three", batch[0]);
+        assertThat(corpusStream.consumed(), is(true));
+
+        assertEquals(0, corpusStream.nextWords(batch));
+    }
+
+    private CorpusStream wordByWordStream(String... words) {
+        Iterator<String> iterator = Stream.of(words).iterator();
+
+        return new CorpusStream() {
+            @Override
+            public Optional<String> nextWord() {
+                return iterator.hasNext() ? Optional.of(iterator.next()) : Optional.empty();
+            }
+
+            @Override
+            public boolean consumed() {
+                return !iterator.hasNext();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
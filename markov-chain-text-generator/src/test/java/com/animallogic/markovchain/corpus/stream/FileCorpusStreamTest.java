@@ -19,6 +19,7 @@ import java.util.stream.Stream;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -103,6 +104,30 @@ public class FileCorpusStreamTest {
         assertThat(fileCorpusStream.consumed(), is(true));
     }
 
+    @Test
+    @DisplayName("nextWords() should return the same words as nextWord() in batches that span several lines")
+    public void nextWordsShouldReturnAllCorpusWordsInBatches() throws IOException {
+        String line1 = "This is a test line";
+        String line2 = "and this is another line.";
+
+        FileCorpusStream fileCorpusStream = createStreamWithLines(line1, line2);
+
+        String[] batch = new String[4];
+
+        assertEquals(4, fileCorpusStream.nextWords(batch));
+        assertArrayEquals(new String[]{"This", "is", "a", "test"}, batch);
+
+        assertEquals(4, fileCorpusStream.nextWords(batch));
+        assertArrayEquals(new String[]{"line\n", "and", "this", "is"}, batch);
+
+        assertEquals(2, fileCorpusStream.nextWords(batch));
+        assertEquals("another", batch[0]);
+        assertEquals("line.\n", batch[1]);
+        assertThat(fileCorpusStream.consumed(), is(true));
+
+        assertEquals(0, fileCorpusStream.nextWords(batch));
+    }
+
     private FileCorpusStream createStreamWithLines(String line1, String... line2) throws IOException {
         return createStreamWithSpaceHandlingAndLines(ExtraSpacesHandling.IGNORE_EXTRA_SPACES, line1, line2);
     }
@@ -4,12 +4,14 @@ import com.google.common.collect.ImmutableList;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Optional;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class InMemoryCorpusStreamTest {
@@ -38,6 +40,25 @@ public class InMemoryCorpusStreamTest {
         assertThat(inMemoryCorpusStream.consumed(), is(true));
     }
 
+    @Test
+    @DisplayName("nextWords() should fill the given array in batches until the corpus is consumed")
+    public void nextWordsShouldReturnAllCorpusWordsInBatches() {
+        ImmutableList<String> words = ImmutableList.of("Hello", "World!", "Animal", "Logic", "Rocks");
+        InMemoryCorpusStream inMemoryCorpusStream = new InMemoryCorpusStream(words);
+
+        String[] batch = new String[3];
+
+        assertEquals(3, inMemoryCorpusStream.nextWords(batch));
+        assertArrayEquals(new String[]{"Hello", "World!", "Animal"}, batch);
+        assertThat(inMemoryCorpusStream.consumed(), is(false));
+
+        assertEquals(2, inMemoryCorpusStream.nextWords(batch, 1, 2));
+        assertArrayEquals(new String[]{"Hello", "Logic", "Rocks"}, batch);
+        assertThat(inMemoryCorpusStream.consumed(), is(true));
+
+        assertEquals(0, inMemoryCorpusStream.nextWords(batch));
+    }
+
     @Test
     @DisplayName("After reading the whole corpus, consumed() should return true and nextWord() should return empty()")
     public void readAllCorpus() {
@@ -51,4 +72,19 @@ public class InMemoryCorpusStreamTest {
             assertThat(inMemoryCorpusStream.nextWord().isPresent(), is(false));
         });
     }
+
+    @Test
+    @DisplayName("nextWords() should return no words after closing a partly read stream, like nextWord()")
+    public void nextWordsAfterClose() throws IOException {
+        InMemoryCorpusStream inMemoryCorpusStream = InMemoryCorpusStream.of("Hello", "World!", "Animal", "Logic");
+        String[] batch = new String[2];
+        assertEquals(2, inMemoryCorpusStream.nextWords(batch));
+
+        inMemoryCorpusStream.close();
+
+        assertEquals(0, inMemoryCorpusStream.nextWords(batch));
+        assertEquals(0, inMemoryCorpusStream.nextWords(batch));
+        assertThat(inMemoryCorpusStream.nextWord().isPresent(), is(false));
+        assertThat(inMemoryCorpusStream.consumed(), is(true));
+    }
 }
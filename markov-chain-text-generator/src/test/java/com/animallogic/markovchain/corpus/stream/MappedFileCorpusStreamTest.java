@@ -0,0 +1,159 @@
+package com.animallogic.markovchain.corpus.stream;
+
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream.ExtraSpacesHandling;
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MappedFileCorpusStreamTest {
+    private static final String MIXED_CORPUS =
+            " 1     3    5\n" +
+            "6  7\r\n" +
+            "\n" +
+            "trailing spaces   \n" +
+            "\ttabs\tand\u000Bvertical\u000Ctabs\r" +
+            "non\u2003breaking\u00A0space, em\u2003\u2003\u2003spaces and \u00F1and\u00FA\n" +
+            "no line feed at the end";
+
+    @Test
+    @DisplayName("nextWord() should return empty() and consumed=true on an empty corpus")
+    public void nextWordOnEmptyCorpus() throws IOException {
+        MappedFileCorpusStream mappedFileCorpusStream = new MappedFileCorpusStream(createCorpusFile(""));
+
+        assertAll("consumed empty corpus", () -> {
+            assertThat(mappedFileCorpusStream.nextWord().isPresent(), is(false));
+            assertThat(mappedFileCorpusStream.consumed(), is(true));
+        });
+    }
+
+    @Test
+    @DisplayName("nextWord() should return each word from the corpus on each invocation")
+    public void nextWordShouldReturnAllCorpusWords() throws IOException {
+        Path corpus = createCorpusFile("This is a test line\nand this is another line.\n");
+
+        List<String> words = ImmutableList.of("This", "is", "a", "test", "line\n", "and", "this", "is", "another", "line.\n");
+
+        try (MappedFileCorpusStream mappedFileCorpusStream = new MappedFileCorpusStream(corpus)) {
+            assertEquals(words, readAllWords(mappedFileCorpusStream));
+            assertThat(mappedFileCorpusStream.consumed(), is(true));
+        }
+    }
+
+    @Test
+    @DisplayName("nextWord() should return the same words as FileCorpusStream ignoring extra spaces")
+    public void sameWordsAsFileCorpusStreamIgnoringExtraSpaces() throws IOException {
+        assertSameWordsAsFileCorpusStream(MIXED_CORPUS, ExtraSpacesHandling.IGNORE_EXTRA_SPACES);
+    }
+
+    @Test
+    @DisplayName("nextWord() should return the same words as FileCorpusStream including only spaces")
+    public void sameWordsAsFileCorpusStreamWithSeveralSpaces() throws IOException {
+        assertSameWordsAsFileCorpusStream(MIXED_CORPUS, ExtraSpacesHandling.MORE_THAN_TWO_SPACES_IS_A_WORD);
+    }
+
+    @Test
+    @DisplayName("Files mapped in several segments should return the same words as a single segment")
+    public void severalSegments() throws IOException {
+        Path corpus = createCorpusFile(MIXED_CORPUS);
+
+        for (ExtraSpacesHandling extraSpacesHandling : ExtraSpacesHandling.values()) {
+            try (MappedFileCorpusStream singleSegment = new MappedFileCorpusStream(corpus, extraSpacesHandling);
+                 MappedFileCorpusStream severalSegments = new MappedFileCorpusStream(corpus, extraSpacesHandling, 96)) {
+                assertEquals(readAllWords(singleSegment), readAllWords(severalSegments));
+                assertThat(severalSegments.consumed(), is(true));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("nextWords() should return the same words as nextWord() across segments")
+    public void nextWordsShouldReturnSameWordsAsNextWord() throws IOException {
+        Path corpus = createCorpusFile(MIXED_CORPUS);
+
+        for (ExtraSpacesHandling extraSpacesHandling : ExtraSpacesHandling.values()) {
+            try (MappedFileCorpusStream wordByWord = new MappedFileCorpusStream(corpus, extraSpacesHandling);
+                 MappedFileCorpusStream batched = new MappedFileCorpusStream(corpus, extraSpacesHandling, 96)) {
+                List<String> words = new ArrayList<>();
+                String[] batch = new String[5];
+                int count;
+                while ((count = batched.nextWords(batch)) > 0) {
+                    words.addAll(Arrays.asList(batch).subList(0, count));
+                }
+
+                assertEquals(readAllWords(wordByWord), words);
+                assertThat(batched.consumed(), is(true));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A line longer than the segment size should stop the stream without consuming it")
+    public void lineLongerThanSegment() throws IOException {
+        Path corpus = createCorpusFile("a line that does not fit\nin one segment\n");
+
+        try (MappedFileCorpusStream mappedFileCorpusStream =
+                     new MappedFileCorpusStream(corpus, ExtraSpacesHandling.IGNORE_EXTRA_SPACES, 8)) {
+            assertThat(mappedFileCorpusStream.nextWord().isPresent(), is(false));
+            assertThat(mappedFileCorpusStream.consumed(), is(false));
+        }
+    }
+
+    @Test
+    @DisplayName("Malformed UTF-8 should stop the stream without consuming it, the same as FileCorpusStream")
+    public void malformedUtf8() throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        corpus.toFile().deleteOnExit();
+        Files.write(corpus, new byte[]{'b', 'a', 'd', (byte) 0xC3, '(', ' ', 'w', 'o', 'r', 'd', '\n', 'n', 'e', 'x', 't', '\n'});
+
+        for (ExtraSpacesHandling extraSpacesHandling : ExtraSpacesHandling.values()) {
+            try (FileCorpusStream fileCorpusStream = new FileCorpusStream(corpus, extraSpacesHandling);
+                 MappedFileCorpusStream mappedFileCorpusStream = new MappedFileCorpusStream(corpus, extraSpacesHandling)) {
+                assertEquals(readAllWords(fileCorpusStream), readAllWords(mappedFileCorpusStream));
+                assertThat(mappedFileCorpusStream.nextWord().isPresent(), is(false));
+                assertThat(fileCorpusStream.consumed(), is(false));
+                assertThat(mappedFileCorpusStream.consumed(), is(false));
+            }
+        }
+    }
+
+    private void assertSameWordsAsFileCorpusStream(String text, ExtraSpacesHandling extraSpacesHandling) throws IOException {
+        Path corpus = createCorpusFile(text);
+
+        try (FileCorpusStream fileCorpusStream = new FileCorpusStream(corpus, extraSpacesHandling);
+             MappedFileCorpusStream mappedFileCorpusStream = new MappedFileCorpusStream(corpus, extraSpacesHandling)) {
+            assertEquals(readAllWords(fileCorpusStream), readAllWords(mappedFileCorpusStream));
+            assertThat(mappedFileCorpusStream.consumed(), is(true));
+        }
+    }
+
+    private List<String> readAllWords(CorpusStream corpusStream) {
+        List<String> words = new ArrayList<>();
+        Optional<String> maybeNextWord = corpusStream.nextWord();
+        while (maybeNextWord.isPresent()) {
+            words.add(maybeNextWord.get());
+            maybeNextWord = corpusStream.nextWord();
+        }
+        return words;
+    }
+
+    private Path createCorpusFile(String text) throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        corpus.toFile().deleteOnExit();
+        Files.write(corpus, text.getBytes(StandardCharsets.UTF_8));
+        return corpus;
+    }
+}
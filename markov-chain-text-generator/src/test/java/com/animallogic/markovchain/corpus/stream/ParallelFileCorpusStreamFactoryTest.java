@@ -0,0 +1,112 @@
+package com.animallogic.markovchain.corpus.stream;
+
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream.ExtraSpacesHandling;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.expectThrows;
+
+public class ParallelFileCorpusStreamFactoryTest {
+    private static final String MIXED_CORPUS =
+            " 1     3    5\n" +
+            "6  7\r\n" +
+            "\n" +
+            "\n" +
+            "trailing spaces   \n" +
+            "\ttabs\tand\u000Bvertical\u000Ctabs\r" +
+            "a much longer line that does not fit in a single chunk at all\n" +
+            "non breaking space, em   spaces and ñandú\n" +
+            "no line feed at the end";
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void shutDownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    @DisplayName("nextWord() should return empty() and consumed=true on an empty corpus")
+    public void nextWordOnEmptyCorpus() throws IOException {
+        CorpusStream corpusStream = new ParallelFileCorpusStreamFactory(pool).createCorpusStream(createCorpusFile(""));
+
+        assertAll("consumed empty corpus", () -> {
+            assertThat(corpusStream.nextWord().isPresent(), is(false));
+            assertThat(corpusStream.consumed(), is(true));
+        });
+    }
+
+    @Test
+    @DisplayName("Words from every chunk should come back in file order, the same as FileCorpusStream")
+    public void sameWordsAsFileCorpusStream() throws IOException {
+        Path corpus = createCorpusFile(MIXED_CORPUS);
+
+        for (ExtraSpacesHandling extraSpacesHandling : ExtraSpacesHandling.values()) {
+            for (long chunkSize : new long[]{1, 7, 16, 1024}) {
+                ParallelFileCorpusStreamFactory factory = new ParallelFileCorpusStreamFactory(pool, chunkSize);
+
+                try (FileCorpusStream fileCorpusStream = new FileCorpusStream(corpus, extraSpacesHandling);
+                     CorpusStream wordByWord = factory.createCorpusStream(corpus, extraSpacesHandling);
+                     CorpusStream batched = factory.createCorpusStream(corpus, extraSpacesHandling)) {
+                    List<String> expectedWords = readAllWords(fileCorpusStream);
+
+                    assertEquals(expectedWords, readAllWords(wordByWord));
+                    assertEquals(expectedWords, readAllWordsInBatches(batched));
+                    assertThat(wordByWord.consumed(), is(true));
+                    assertThat(batched.consumed(), is(true));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should not accept chunks that cannot be mapped at once")
+    public void invalidChunkSize() {
+        //noinspection ThrowableResultOfMethodCallIgnored
+        expectThrows(IllegalArgumentException.class, () -> new ParallelFileCorpusStreamFactory(pool, 0));
+        //noinspection ThrowableResultOfMethodCallIgnored
+        expectThrows(IllegalArgumentException.class, () -> new ParallelFileCorpusStreamFactory(pool, Integer.MAX_VALUE + 1L));
+    }
+
+    private List<String> readAllWords(CorpusStream corpusStream) {
+        List<String> words = new ArrayList<>();
+        Optional<String> maybeNextWord = corpusStream.nextWord();
+        while (maybeNextWord.isPresent()) {
+            words.add(maybeNextWord.get());
+            maybeNextWord = corpusStream.nextWord();
+        }
+        return words;
+    }
+
+    private List<String> readAllWordsInBatches(CorpusStream corpusStream) {
+        List<String> words = new ArrayList<>();
+        String[] batch = new String[3];
+        int count;
+        while ((count = corpusStream.nextWords(batch)) > 0) {
+            words.addAll(Arrays.asList(batch).subList(0, count));
+        }
+        return words;
+    }
+
+    private Path createCorpusFile(String text) throws IOException {
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        corpus.toFile().deleteOnExit();
+        Files.write(corpus, text.getBytes(StandardCharsets.UTF_8));
+        return corpus;
+    }
+}
@@ -0,0 +1,131 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+import com.animallogic.markovchain.corpus.stream.InMemoryCorpusStream;
+import com.animallogic.markovchain.fsm.engine.IntArray;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import io.atlassian.fugue.Either;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ExternalModelBuilderTest {
+    private final TextFiniteStateMachineFactory textFiniteStateMachineFactory = new TextFiniteStateMachineFactory();
+    private final TextFiniteStateMachineFile textFiniteStateMachineFile = new TextFiniteStateMachineFile();
+
+    @Test
+    @DisplayName("A model file built through sorted runs should have the states of the in memory build")
+    void sameStatesAsInMemoryBuild() throws IOException {
+        List<String> words = corpus(30_000);
+        for (int prefixSize = 2; prefixSize <= 4; prefixSize++) {
+            TextFiniteStateMachine built = textFiniteStateMachineFactory
+                    .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(prefixSize))
+                    .right()
+                    .get();
+
+            // A budget this small spills a run every 1024 states and merges them two at a time
+            TextFiniteStateMachine external = buildExternal(words, PrefixSize.of(prefixSize), 1);
+
+            assertEquals(built.statesCount(), external.statesCount());
+            assertEquals(new HashSet<>(built.prefixes()), new HashSet<>(external.prefixes()));
+            for (Prefix prefix : built.prefixes()) {
+                assertEquals(HashMultiset.create(built.sufficesFor(prefix)), HashMultiset.create(external.sufficesFor(prefix)));
+            }
+            assertEquals(lineStartPrefixes(built), lineStartPrefixes(external));
+        }
+    }
+
+    @Test
+    @DisplayName("A model file built with a budget that fits the whole corpus should be the same as with a tiny one")
+    void budgetDoesNotChangeTheModel() throws IOException {
+        List<String> words = corpus(10_000);
+        TextFiniteStateMachine small = buildExternal(words, PrefixSize.of(2), 1);
+        TextFiniteStateMachine large = buildExternal(words, PrefixSize.of(2), 64L * 1024 * 1024);
+
+        assertEquals(small.prefixes(), large.prefixes());
+        for (Prefix prefix : small.prefixes()) {
+            assertEquals(small.sufficesFor(prefix), large.sufficesFor(prefix));
+        }
+        for (int seed = 0; seed < 5; seed++) {
+            assertEquals(GeneratedText.words(small, seed, 1_000), GeneratedText.words(large, seed, 1_000));
+        }
+    }
+
+    @Test
+    @DisplayName("A corpus shorter than the prefix should give an empty model file")
+    void emptyModel() throws IOException {
+        TextFiniteStateMachine external = buildExternal(ImmutableList.of("too", "short"), PrefixSize.of(3), 1);
+
+        assertEquals(0, external.statesCount());
+        assertEquals(0, external.prefixes().size());
+        assertThat(new MarkovChainRandomTextGenerator(external).iterator().hasNext(), is(false));
+    }
+
+    @Test
+    @DisplayName("The run files should be deleted once the model file is written")
+    void runFilesAreDeleted() throws IOException {
+        Path workDirectory = Files.createTempDirectory("runs");
+        Path modelFile = Files.createTempFile("model", ".mcm");
+        modelFile.toFile().deleteOnExit();
+
+        Either<TextFiniteStateMachineError, Path> result = textFiniteStateMachineFactory
+                .createModelFile(new InMemoryCorpusStream(corpus(10_000)), PrefixSize.of(2), modelFile, workDirectory, 1);
+
+        assertThat(result.isRight(), is(true));
+        assertThat(Files.list(workDirectory).count(), is(0L));
+        Files.delete(workDirectory);
+    }
+
+    private TextFiniteStateMachine buildExternal(List<String> words, PrefixSize prefixSize, long heapBudgetBytes) throws IOException {
+        Path workDirectory = Files.createTempDirectory("runs");
+        workDirectory.toFile().deleteOnExit();
+        Path modelFile = Files.createTempFile("model", ".mcm");
+        modelFile.toFile().deleteOnExit();
+
+        Either<TextFiniteStateMachineError, Path> result = textFiniteStateMachineFactory
+                .createModelFile(new InMemoryCorpusStream(words), prefixSize, modelFile, workDirectory, heapBudgetBytes);
+        assertThat(result.isRight(), is(true));
+
+        return textFiniteStateMachineFile.open(modelFile).right().get();
+    }
+
+    private Set<List<String>> lineStartPrefixes(TextFiniteStateMachine textFiniteStateMachine) {
+        TransitionGraph graph = textFiniteStateMachine.transitionGraph();
+        IntArray lineStartStates = graph.lineStartStates();
+        Set<List<String>> prefixes = new HashSet<>();
+        for (int i = 0; i < lineStartStates.length(); i++) {
+            List<String> prefix = new ArrayList<>();
+            for (int w = 0; w < graph.prefixSize(); w++) {
+                prefix.add(graph.words().word(graph.prefixes().wordAt(lineStartStates.get(i), w)));
+            }
+            prefixes.add(prefix);
+        }
+        return prefixes;
+    }
+
+    private List<String> corpus(int wordCount) {
+        Random corpusRng = new Random(0xE87);
+        String[] vocabulary = {"the", "cat", "sat", "on", "mat.\n", "\u00F1and\u00FA", "caf\u00E9", "\u4E16\u754C", "a", "of"};
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < wordCount; i++) {
+            words.add(vocabulary[corpusRng.nextInt(vocabulary.length)] + (i % 7 == 0 ? corpusRng.nextInt(100) : ""));
+        }
+        return words;
+    }
+}
@@ -0,0 +1,139 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.State;
+import com.animallogic.markovchain.fsm.types.Suffix;
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.expectThrows;
+
+public class FrozenTextFiniteStateMachineTest {
+    @Test
+    @DisplayName("A frozen state machine should have the same states as the state machine it was frozen from")
+    void sameStatesAsTheStateMachineUnderConstruction() {
+        TextFiniteStateMachine textFiniteStateMachine = createStateMachine(new Random(0xF00D), 10_000);
+
+        TextFiniteStateMachine frozen = textFiniteStateMachine.freeze();
+
+        assertThat(frozen.isFrozen(), is(true));
+        assertThat(textFiniteStateMachine.isFrozen(), is(false));
+        assertEquals(textFiniteStateMachine.statesCount(), frozen.statesCount());
+        assertEquals(textFiniteStateMachine.prefixes(), frozen.prefixes());
+        for (Prefix prefix : textFiniteStateMachine.prefixes()) {
+            assertEquals(textFiniteStateMachine.sufficesFor(prefix), frozen.sufficesFor(prefix));
+        }
+        assertEquals(0, frozen.sufficesFor(Prefix.of(ImmutableList.of("not", "there"))).size());
+    }
+
+    @Test
+    @DisplayName("No states should be added once a state machine is frozen")
+    void noStatesAfterFreezing() {
+        TextFiniteStateMachine textFiniteStateMachine = createStateMachine(new Random(0xF00D), 100);
+        TextFiniteStateMachine frozen = textFiniteStateMachine.freeze();
+
+        State state = State.of(Prefix.of(ImmutableList.of("w1", "w2")), Suffix.of("w3"));
+        expectThrows(IllegalStateException.class, () -> frozen.addState(state));
+        expectThrows(IllegalStateException.class, () -> textFiniteStateMachine.addState(state));
+        // The builder path through word ids as well, snapshots have no tables to add them to
+        expectThrows(IllegalStateException.class, () -> frozen.addState(new int[]{1, 2}, 0, 3));
+        expectThrows(IllegalStateException.class, () -> frozen.internWord("w1"));
+        expectThrows(IllegalStateException.class, () -> textFiniteStateMachine.addState(new int[]{1, 2}, 0, 3));
+        assertEquals(100, frozen.statesCount());
+    }
+
+    @Test
+    @DisplayName("A frozen state machine should share its prefixes, its transition graph and itself instead of copying them")
+    void sharedViews() {
+        TextFiniteStateMachine textFiniteStateMachine = createStateMachine(new Random(0xF00D), 100);
+        TextFiniteStateMachine frozen = textFiniteStateMachine.freeze();
+
+        assertThat(textFiniteStateMachine.freeze(), is(sameInstance(frozen)));
+        assertThat(frozen.freeze(), is(sameInstance(frozen)));
+        assertThat(frozen.prefixes(), is(sameInstance(frozen.prefixes())));
+        assertThat(frozen.transitionGraph(), is(sameInstance(frozen.transitionGraph())));
+        // The words are packed once when frozen, the arena is the only copy the snapshot keeps
+        assertThat(frozen.transitionGraph().words(), is(sameInstance(frozen.transitionGraph().words())));
+        expectThrows(UnsupportedOperationException.class, () -> frozen.prefixes().clear());
+        expectThrows(UnsupportedOperationException.class, () -> frozen.sufficesFor(frozen.prefixes().get(0)).clear());
+    }
+
+    @Test
+    @DisplayName("Any number of threads should generate from the same frozen state machine as if they were alone")
+    void concurrentGeneration() throws Exception {
+        TextFiniteStateMachine frozen = createStateMachine(new Random(0xF00D), 50_000).freeze();
+
+        int threads = 16;
+        List<List<String>> expected = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            expected.add(GeneratedText.words(frozen, i, 5_000));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int seed = i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return GeneratedText.words(frozen, seed, 5_000);
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < threads; i++) {
+                assertEquals(expected.get(i), results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("An off heap copy should have the same states and generate the same text")
+    void offHeapCopy() {
+        TextFiniteStateMachine textFiniteStateMachine = createStateMachine(new Random(0xF00D), 10_000);
+
+        TextFiniteStateMachine offHeap = textFiniteStateMachine.offHeap();
+
+        assertThat(offHeap.isFrozen(), is(true));
+        assertEquals(textFiniteStateMachine.statesCount(), offHeap.statesCount());
+        assertEquals(textFiniteStateMachine.prefixes(), offHeap.prefixes());
+        for (Prefix prefix : textFiniteStateMachine.prefixes()) {
+            assertEquals(textFiniteStateMachine.sufficesFor(prefix), offHeap.sufficesFor(prefix));
+        }
+        assertEquals(0, offHeap.sufficesFor(Prefix.of(ImmutableList.of("not", "there"))).size());
+        for (int seed = 0; seed < 5; seed++) {
+            assertEquals(GeneratedText.words(textFiniteStateMachine.freeze(), seed, 5_000), GeneratedText.words(offHeap, seed, 5_000));
+        }
+        assertEquals(0, new TextFiniteStateMachine(PrefixSize.of(2)).offHeap().statesCount());
+    }
+
+    private TextFiniteStateMachine createStateMachine(Random rng, int states) {
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachine(PrefixSize.of(2));
+        String first = "w" + rng.nextInt(100);
+        String second = "w" + rng.nextInt(100);
+        for (int i = 0; i < states; i++) {
+            String suffix = "w" + rng.nextInt(100);
+            textFiniteStateMachine.addState(State.of(Prefix.of(ImmutableList.of(first, second)), Suffix.of(suffix)));
+            first = second;
+            second = suffix;
+        }
+        return textFiniteStateMachine;
+    }
+}
@@ -0,0 +1,22 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+// Text generated from a state machine with a seeded java.util.Random, for tests to compare the walks of models that
+// should be the same
+final class GeneratedText {
+    private GeneratedText() {
+    }
+
+    // The first words the iterator returns, the start prefix being the first one
+    static List<String> words(TextFiniteStateMachine textFiniteStateMachine, long seed, int maxWords) {
+        return new MarkovChainRandomTextGenerator(textFiniteStateMachine, new Random(seed))
+                .stream()
+                .limit(maxWords)
+                .collect(Collectors.toList());
+    }
+}
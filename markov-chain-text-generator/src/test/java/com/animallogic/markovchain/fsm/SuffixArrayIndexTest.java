@@ -0,0 +1,136 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+import com.animallogic.markovchain.corpus.stream.InMemoryCorpusStream;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.Suffix;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SuffixArrayIndexTest {
+    @Test
+    @DisplayName("The state machine of every prefix size should have the same states as building it from the corpus")
+    void sameStatesAsTheFactory() {
+        List<String> words = createCorpus(3_000);
+        SuffixArrayIndex suffixArrayIndex = new TextFiniteStateMachineFactory().createSuffixArrayIndex(new InMemoryCorpusStream(words)).right().get();
+
+        assertEquals(words.size(), suffixArrayIndex.wordCount());
+        for (int size = 2; size <= 6; size++) {
+            TextFiniteStateMachine built = new TextFiniteStateMachineFactory()
+                    .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(size))
+                    .right()
+                    .get();
+            TextFiniteStateMachine fromIndex = suffixArrayIndex.stateMachine(PrefixSize.of(size));
+
+            assertEquals(built.statesCount(), fromIndex.statesCount());
+            assertEquals(new HashSet<>(built.prefixes()), new HashSet<>(fromIndex.prefixes()));
+            for (Prefix prefix : built.prefixes()) {
+                assertEquals(HashMultiset.create(built.sufficesFor(prefix)), HashMultiset.create(fromIndex.sufficesFor(prefix)));
+                assertEquals(HashMultiset.create(built.sufficesFor(prefix)), HashMultiset.create(suffixArrayIndex.sufficesFor(prefix)));
+            }
+
+            // The first prefix of the corpus is a line start for both
+            TransitionGraph graph = fromIndex.transitionGraph();
+            Prefix corpusStart = Prefix.of(words.subList(0, size));
+            boolean corpusStartIsLineStart = false;
+            for (int i = 0; i < graph.lineStartCount(); i++) {
+                corpusStartIsLineStart |= fromIndex.prefixes().get(graph.lineStartState(i)).equals(corpusStart);
+            }
+            assertThat(corpusStartIsLineStart, is(true));
+            assertEquals(built.transitionGraph().lineStartCount(), graph.lineStartCount());
+
+            // Targets read off the ranks should be the prefixes rotated with the suffix, the EOF suffix leading nowhere
+            int[] rotated = new int[size];
+            for (int state = 0; state < graph.stateCount(); state++) {
+                for (int i = 1; i < size; i++) {
+                    rotated[i - 1] = graph.stateWordId(state, i);
+                }
+                for (int i = 0; i < graph.transitionCount(state); i++) {
+                    int transition = graph.firstTransition(state) + i;
+                    rotated[size - 1] = graph.wordId(transition);
+                    int expected = graph.isEof(rotated[size - 1]) ? TransitionGraph.NO_STATE : graph.stateOf(rotated);
+                    assertEquals(expected, graph.target(state, transition));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Suffixes of prefixes of any number of words should be found in the index")
+    void prefixesOfAnySize() {
+        // a b a b c a b
+        SuffixArrayIndex suffixArrayIndex = new TextFiniteStateMachineFactory()
+                .createSuffixArrayIndex(new InMemoryCorpusStream(ImmutableList.of("a", "b", "a", "b", "c", "a", "b")))
+                .right()
+                .get();
+
+        assertEquals(HashMultiset.create(ImmutableList.of(Suffix.of("b"), Suffix.of("b"), Suffix.of("b"))),
+                HashMultiset.create(suffixArrayIndex.sufficesFor(Prefix.of(ImmutableList.of("a")))));
+        assertEquals(HashMultiset.create(ImmutableList.of(Suffix.of("a"), Suffix.of("c"), Suffix.EOF)),
+                HashMultiset.create(suffixArrayIndex.sufficesFor(Prefix.of(ImmutableList.of("a", "b")))));
+        assertEquals(ImmutableList.of(Suffix.of("a")), suffixArrayIndex.sufficesFor(Prefix.of(ImmutableList.of("a", "b", "c"))));
+        assertEquals(ImmutableList.of(Suffix.EOF), suffixArrayIndex.sufficesFor(Prefix.of(ImmutableList.of("b", "c", "a", "b"))));
+        assertEquals(0, suffixArrayIndex.sufficesFor(Prefix.of(ImmutableList.of("b", "b"))).size());
+        assertEquals(0, suffixArrayIndex.sufficesFor(Prefix.of(ImmutableList.of("a", "z"))).size());
+    }
+
+    @Test
+    @DisplayName("State machines from the index should generate text and save to model files")
+    void generateAndSave() throws IOException {
+        List<String> words = createCorpus(3_000);
+        TextFiniteStateMachine fromIndex = new TextFiniteStateMachineFactory()
+                .createSuffixArrayIndex(new InMemoryCorpusStream(words))
+                .right()
+                .get()
+                .stateMachine(PrefixSize.of(3));
+
+        Path modelFile = Files.createTempFile("model", ".mcm");
+        modelFile.toFile().deleteOnExit();
+        TextFiniteStateMachineFile textFiniteStateMachineFile = new TextFiniteStateMachineFile();
+        textFiniteStateMachineFile.save(fromIndex, modelFile);
+        TextFiniteStateMachine opened = textFiniteStateMachineFile.open(modelFile).right().get();
+
+        List<String> generated = GeneratedText.words(fromIndex, 0x5EED, 500);
+        assertThat(generated.size() > 1, is(true));
+        assertEquals(generated, GeneratedText.words(opened, 0x5EED, 500));
+    }
+
+    @Test
+    @DisplayName("A corpus shorter than the prefix size should give an empty state machine")
+    void corpusShorterThanPrefix() {
+        SuffixArrayIndex suffixArrayIndex = new TextFiniteStateMachineFactory()
+                .createSuffixArrayIndex(new InMemoryCorpusStream(ImmutableList.of("too", "short")))
+                .right()
+                .get();
+
+        TextFiniteStateMachine textFiniteStateMachine = suffixArrayIndex.stateMachine(PrefixSize.of(3));
+
+        assertEquals(0, textFiniteStateMachine.statesCount());
+        assertThat(new MarkovChainRandomTextGenerator(textFiniteStateMachine).iterator().hasNext(), is(false));
+        assertEquals(1, suffixArrayIndex.stateMachine(PrefixSize.of(2)).statesCount());
+    }
+
+    private List<String> createCorpus(int length) {
+        Random rng = new Random(0xC0FFEE);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            words.add("w" + rng.nextInt(8) + (rng.nextInt(10) == 0 ? "\n" : ""));
+        }
+        return words;
+    }
+}
@@ -1,23 +1,40 @@
 package com.animallogic.markovchain.fsm;
 
 import com.animallogic.markovchain.corpus.stream.CorpusStream;
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream;
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream.ExtraSpacesHandling;
 import com.animallogic.markovchain.corpus.stream.InMemoryCorpusStream;
+import com.animallogic.markovchain.fsm.engine.SuffixMemoryReport;
+import com.animallogic.markovchain.fsm.types.Prefix;
 import com.animallogic.markovchain.fsm.types.PrefixSize;
 import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
 import com.animallogic.markovchain.junit5.extensions.mockito.MockitoExtension;
+import com.sun.management.ThreadMXBean;
 import io.atlassian.fugue.Either;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -99,6 +116,134 @@ public class TextFiniteStateMachineFactoryTest {
         assertEquals(expectedStates, result.right().get().statesCount());
     }
 
+    @Test
+    @DisplayName("Should create the same state machine from a corpus file tokenized in parallel")
+    public void parallelFsmEqualsSequentialFsm() throws IOException {
+        String text = "A is father of B.\nB is brother of C.\n\nC is father of K.\nK is father of B.\n";
+        Path corpus = Files.createTempFile("corpus", ".txt");
+        corpus.toFile().deleteOnExit();
+        Files.write(corpus, text.getBytes(StandardCharsets.UTF_8));
+
+        Either<TextFiniteStateMachineError, TextFiniteStateMachine> sequential =
+                textFiniteStateMachineFactory.createTextFiniteStateMachine(new FileCorpusStream(corpus), PrefixSize.of(3));
+        Either<TextFiniteStateMachineError, TextFiniteStateMachine> parallel;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallel = textFiniteStateMachineFactory.createTextFiniteStateMachine(corpus, ExtraSpacesHandling.IGNORE_EXTRA_SPACES, PrefixSize.of(3), pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(sequential.isRight(), is(true));
+        assertThat(parallel.isRight(), is(true));
+
+        TextFiniteStateMachine expected = sequential.right().get();
+        TextFiniteStateMachine actual = parallel.right().get();
+
+        assertEquals(expected.statesCount(), actual.statesCount());
+        assertEquals(new HashSet<>(expected.prefixes()), new HashSet<>(actual.prefixes()));
+        for (Prefix prefix : expected.prefixes()) {
+            assertEquals(expected.sufficesFor(prefix), actual.sufficesFor(prefix));
+        }
+    }
+
+    @Test
+    @DisplayName("Should create the same state machine counting the states on several threads")
+    public void shardedFsmEqualsSequentialFsm() {
+        Random rng = new Random(0x5AAD);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            words.add("w" + rng.nextInt(12) + (rng.nextInt(15) == 0 ? "\n" : ""));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int size = 2; size <= 4; size++) {
+                TextFiniteStateMachine expected = textFiniteStateMachineFactory
+                        .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(size))
+                        .right()
+                        .get();
+                TextFiniteStateMachine actual = textFiniteStateMachineFactory
+                        .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(size), pool)
+                        .right()
+                        .get();
+
+                assertEquals(expected.statesCount(), actual.statesCount());
+                assertEquals(expected.prefixes(), actual.prefixes());
+                for (Prefix prefix : expected.prefixes()) {
+                    assertEquals(expected.sufficesFor(prefix), actual.sufficesFor(prefix));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("State machines built by the factory should report the fan-outs and the memory of their suffixes")
+    public void memoryReportOfABuiltModel() {
+        // (x, y) is followed by 8 different words, the other prefixes by a single one except (y, z7), which also ends
+        // the corpus
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            words.add("x");
+            words.add("y");
+            words.add("z" + i % 8);
+        }
+
+        TextFiniteStateMachine textFiniteStateMachine = textFiniteStateMachineFactory
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2))
+                .right()
+                .get();
+        assertThat(textFiniteStateMachine.isFrozen(), is(true));
+
+        SuffixMemoryReport report = textFiniteStateMachine.memoryReport();
+        assertEquals(15, report.prefixesWithFanOutBucket(0));
+        assertEquals(1, report.prefixesWithFanOutBucket(1));
+        assertEquals(1, report.prefixesWithFanOutBucket(3));
+        assertEquals(17, report.inlinePrefixes() + report.packedPrefixes() + report.countedPrefixes());
+        assertThat(report.savedBytes() > 0, is(true));
+        assertThat(textFiniteStateMachine.offHeap().memoryReport().bytes(), is(report.bytes()));
+    }
+
+    @Test
+    @DisplayName("Should not allocate objects per word while building the state machine")
+    public void noAllocationsPerWord() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        // A small vocabulary keeps the tables, which are allocated once, small next to the corpus
+        Random rng = new Random(0xA110C);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            words.add("w" + rng.nextInt(20));
+        }
+        textFiniteStateMachineFactory.createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2));
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        textFiniteStateMachineFactory.createTextFiniteStateMachine(new InMemoryCorpusStream(words), PrefixSize.of(2));
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // Creating a Prefix, a State and their lists for every word took more than 150 bytes per word
+        double bytesPerWord = (double) allocatedBytes / words.size();
+        assertThat(String.format("%.2f bytes allocated per word", bytesPerWord), bytesPerWord < 4, is(true));
+    }
+
+    @Test
+    @DisplayName("Should fail when the corpus file cannot be opened")
+    public void parallelFsmFromMissingFile() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            Either<TextFiniteStateMachineError, TextFiniteStateMachine> result =
+                    textFiniteStateMachineFactory.createTextFiniteStateMachine(Paths.get("does-not-exist.txt"), ExtraSpacesHandling.IGNORE_EXTRA_SPACES, PrefixSize.of(2), pool);
+
+            assertThat(result.isLeft(), is(true));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     private CorpusStream createCorpusStreamWithWords(String firstWord, String... otherWords) {
         return new InMemoryCorpusStream(Stream.concat(Stream.of(firstWord), Stream.of(otherWords)).collect(Collectors.toList()));
     }
@@ -0,0 +1,174 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.MarkovChainRandomTextGenerator;
+import com.animallogic.markovchain.corpus.stream.InMemoryCorpusStream;
+import com.animallogic.markovchain.fsm.engine.PageCache;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
+import com.google.common.collect.ImmutableList;
+import io.atlassian.fugue.Either;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.expectThrows;
+
+public class TextFiniteStateMachineFileTest {
+    private final TextFiniteStateMachineFile textFiniteStateMachineFile = new TextFiniteStateMachineFile();
+
+    @Test
+    @DisplayName("A saved model should open with the same states and generate the same text")
+    void roundTrip() throws IOException {
+        TextFiniteStateMachine built = createStateMachine(PrefixSize.of(3));
+        Path modelFile = createModelFile();
+
+        assertThat(textFiniteStateMachineFile.save(built, modelFile).isRight(), is(true));
+        Either<TextFiniteStateMachineError, TextFiniteStateMachine> result = textFiniteStateMachineFile.open(modelFile);
+        assertThat(result.isRight(), is(true));
+        TextFiniteStateMachine opened = result.right().get();
+
+        assertThat(opened.isFrozen(), is(true));
+        assertEquals(built.getFixedPrefixSize().value(), opened.getFixedPrefixSize().value());
+        assertEquals(built.statesCount(), opened.statesCount());
+        assertEquals(built.prefixes(), opened.prefixes());
+        for (Prefix prefix : built.prefixes()) {
+            assertEquals(built.sufficesFor(prefix), opened.sufficesFor(prefix));
+        }
+        assertEquals(0, opened.sufficesFor(Prefix.of(ImmutableList.of("not", "in", "corpus"))).size());
+
+        for (int seed = 0; seed < 10; seed++) {
+            assertEquals(GeneratedText.words(built, seed, 1_000), GeneratedText.words(opened, seed, 1_000));
+        }
+    }
+
+    @Test
+    @DisplayName("A model read through a page cache smaller than the file should have the same states and text")
+    void pagedRoundTrip() throws IOException {
+        TextFiniteStateMachine built = createStateMachine(PrefixSize.of(3));
+        Path modelFile = createModelFile();
+        textFiniteStateMachineFile.save(built, modelFile);
+
+        PageCache pageCache = new PageCache(4096, 8);
+        assertThat(Files.size(modelFile) > 8 * 4096, is(true));
+        Either<TextFiniteStateMachineError, TextFiniteStateMachine> result = textFiniteStateMachineFile.open(modelFile, pageCache);
+        assertThat(result.isRight(), is(true));
+        TextFiniteStateMachine paged = result.right().get();
+
+        assertEquals(built.statesCount(), paged.statesCount());
+        assertEquals(built.prefixes(), paged.prefixes());
+        for (Prefix prefix : built.prefixes()) {
+            assertEquals(built.sufficesFor(prefix), paged.sufficesFor(prefix));
+        }
+        for (int seed = 0; seed < 10; seed++) {
+            assertEquals(GeneratedText.words(built, seed, 1_000), GeneratedText.words(paged, seed, 1_000));
+        }
+
+        assertThat(pageCache.residentPages() <= 8, is(true));
+        assertThat(pageCache.hits() > 0, is(true));
+        assertThat(pageCache.evictions() > 0, is(true));
+        assertEquals(pageCache.misses(), pageCache.residentPages() + pageCache.evictions());
+
+        // Closing the model closes its file and takes its pages out of the cache
+        paged.close();
+        assertEquals(0, pageCache.residentPages());
+        expectThrows(UncheckedIOException.class, () -> GeneratedText.words(paged, 0, 1_000));
+    }
+
+    @Test
+    @DisplayName("Opening a file that is not a model through a page cache should fail")
+    void notAModelPaged() throws IOException {
+        Path notAModel = createModelFile();
+        Files.write(notAModel, new byte[TextFiniteStateMachineFile.HEADER_SIZE]);
+
+        assertThat(textFiniteStateMachineFile.open(notAModel, new PageCache(4096, 8)).isLeft(), is(true));
+    }
+
+    @Test
+    @DisplayName("A model with no states should round trip")
+    void emptyModel() throws IOException {
+        TextFiniteStateMachine built = new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(ImmutableList.of("too", "short")), PrefixSize.of(5))
+                .right()
+                .get();
+        Path modelFile = createModelFile();
+
+        textFiniteStateMachineFile.save(built, modelFile);
+        TextFiniteStateMachine opened = textFiniteStateMachineFile.open(modelFile).right().get();
+
+        assertEquals(0, opened.statesCount());
+        assertEquals(0, opened.prefixes().size());
+        assertThat(new MarkovChainRandomTextGenerator(opened).iterator().hasNext(), is(false));
+    }
+
+    @Test
+    @DisplayName("Opening a file that is not a model or has another version should fail")
+    void notAModel() throws IOException {
+        Path notAModel = createModelFile();
+        Files.write(notAModel, new byte[TextFiniteStateMachineFile.HEADER_SIZE]);
+        Either<TextFiniteStateMachineError, TextFiniteStateMachine> result = textFiniteStateMachineFile.open(notAModel);
+        assertThat(result.isLeft(), is(true));
+
+        Path tooShort = createModelFile();
+        Files.write(tooShort, new byte[]{1, 2, 3});
+        assertThat(textFiniteStateMachineFile.open(tooShort).isLeft(), is(true));
+
+        Path otherVersion = createModelFile();
+        textFiniteStateMachineFile.save(createStateMachine(PrefixSize.of(2)), otherVersion);
+        try (FileChannel channel = FileChannel.open(otherVersion, StandardOpenOption.WRITE)) {
+            ByteBuffer version = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            version.putInt(TextFiniteStateMachineFile.VERSION + 1).flip();
+            channel.write(version, Integer.BYTES);
+        }
+        result = textFiniteStateMachineFile.open(otherVersion);
+        assertThat(result.isLeft(), is(true));
+        assertEquals("Unsupported model file version 2, only version 1 can be opened", result.left().get().errorMessage());
+    }
+
+    @Test
+    @DisplayName("Opening a truncated model file should fail")
+    void truncatedModel() throws IOException {
+        Path modelFile = createModelFile();
+        textFiniteStateMachineFile.save(createStateMachine(PrefixSize.of(2)), modelFile);
+
+        try (FileChannel channel = FileChannel.open(modelFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 64);
+        }
+
+        assertThat(textFiniteStateMachineFile.open(modelFile).isLeft(), is(true));
+    }
+
+    private TextFiniteStateMachine createStateMachine(PrefixSize prefixSize) {
+        Random corpusRng = new Random(0xF11E);
+        String[] vocabulary = {"the", "cat", "sat", "on", "mat.\n", "\u00F1and\u00FA", "caf\u00E9", "\u4E16\u754C", "a", "of"};
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            words.add(vocabulary[corpusRng.nextInt(vocabulary.length)] + (i % 7 == 0 ? corpusRng.nextInt(100) : ""));
+        }
+
+        return new TextFiniteStateMachineFactory()
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(words), prefixSize)
+                .right()
+                .get();
+    }
+
+    private Path createModelFile() throws IOException {
+        Path modelFile = Files.createTempFile("model", ".mcm");
+        modelFile.toFile().deleteOnExit();
+        return modelFile;
+    }
+}
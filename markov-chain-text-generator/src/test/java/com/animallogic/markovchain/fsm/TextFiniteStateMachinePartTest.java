@@ -0,0 +1,182 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream;
+import com.animallogic.markovchain.corpus.stream.InMemoryCorpusStream;
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
+import io.atlassian.fugue.Either;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TextFiniteStateMachinePartTest {
+    private final TextFiniteStateMachineFactory textFiniteStateMachineFactory = new TextFiniteStateMachineFactory();
+
+    @Test
+    @DisplayName("Merging the parts of a corpus in any grouping should give the state machine of the whole corpus")
+    void mergedPartsEqualWholeCorpus() {
+        Random rng = new Random(0x9A27);
+        for (int size = 2; size <= 4; size++) {
+            PrefixSize prefixSize = PrefixSize.of(size);
+            // Documents shorter than the prefix, including empty ones, make states straddle several documents
+            List<List<String>> documents = createDocuments(rng, 60, 12);
+            List<String> corpus = new ArrayList<>();
+            List<TextFiniteStateMachinePart> parts = new ArrayList<>();
+            for (List<String> document : documents) {
+                corpus.addAll(document);
+                parts.add(createPart(document, prefixSize));
+            }
+            TextFiniteStateMachine expected = textFiniteStateMachineFactory
+                    .createTextFiniteStateMachine(new InMemoryCorpusStream(corpus), prefixSize)
+                    .right()
+                    .get();
+
+            TextFiniteStateMachinePart leftFold = TextFiniteStateMachinePart.empty(prefixSize);
+            for (TextFiniteStateMachinePart part : parts) {
+                leftFold = leftFold.merge(part);
+            }
+            TextFiniteStateMachinePart rightFold = TextFiniteStateMachinePart.empty(prefixSize);
+            for (int i = parts.size() - 1; i >= 0; i--) {
+                rightFold = parts.get(i).merge(rightFold);
+            }
+            TextFiniteStateMachinePart tree = parts.parallelStream().reduce(TextFiniteStateMachinePart.empty(prefixSize), TextFiniteStateMachinePart::merge);
+
+            for (TextFiniteStateMachinePart merged : new TextFiniteStateMachinePart[]{leftFold, rightFold, tree, TextFiniteStateMachinePart.merge(prefixSize, parts)}) {
+                assertEquals(corpus.size(), merged.wordCount());
+                assertSameStateMachine(expected, merged.toStateMachine());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Merging a part with the empty part should give the same part")
+    void emptyPartIsTheIdentity() {
+        List<String> words = createDocuments(new Random(7), 1, 500).get(0);
+        TextFiniteStateMachinePart part = createPart(words, PrefixSize.of(2));
+        TextFiniteStateMachinePart empty = TextFiniteStateMachinePart.empty(PrefixSize.of(2));
+
+        assertSameStateMachine(part.toStateMachine(), empty.merge(part).toStateMachine());
+        assertSameStateMachine(part.toStateMachine(), part.merge(empty).toStateMachine());
+        assertEquals(0, empty.toStateMachine().statesCount());
+    }
+
+    @Test
+    @DisplayName("A saved part should open with the same states, and files that are not parts should fail to open")
+    void saveAndOpen() throws IOException {
+        List<String> words = createDocuments(new Random(11), 1, 2_000).get(0);
+        TextFiniteStateMachinePart part = createPart(words, PrefixSize.of(3));
+        Path partFile = createTempFile();
+
+        assertThat(part.save(partFile).isRight(), is(true));
+        Either<TextFiniteStateMachineError, TextFiniteStateMachinePart> opened = TextFiniteStateMachinePart.open(partFile);
+        assertThat(opened.isRight(), is(true));
+        assertEquals(part.statesCount(), opened.right().get().statesCount());
+        assertSameStateMachine(part.toStateMachine(), opened.right().get().toStateMachine());
+
+        byte[] bytes = Files.readAllBytes(partFile);
+        Files.write(partFile, Arrays.copyOf(bytes, bytes.length - 10));
+        assertThat(TextFiniteStateMachinePart.open(partFile).isLeft(), is(true));
+        Files.write(partFile, "not a part".getBytes(StandardCharsets.UTF_8));
+        assertThat(TextFiniteStateMachinePart.open(partFile).isLeft(), is(true));
+    }
+
+    @Test
+    @DisplayName("Parts built by separate worker processes should merge into the state machine of the whole collection")
+    void partsFromWorkerProcesses() throws IOException, InterruptedException {
+        Random rng = new Random(0xD0C5);
+        List<Path> documentFiles = new ArrayList<>();
+        for (List<String> document : createDocuments(rng, 40, 200)) {
+            Path documentFile = createTempFile();
+            Files.write(documentFile, String.join(" ", document).getBytes(StandardCharsets.UTF_8));
+            documentFiles.add(documentFile);
+        }
+
+        int workers = 4;
+        List<Process> processes = new ArrayList<>();
+        List<Path> partFiles = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            Path partFile = createTempFile();
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(TextFiniteStateMachinePartWorker.class.getName());
+            command.add("3");
+            command.add(partFile.toString());
+            for (Path documentFile : documentFiles.subList(w * documentFiles.size() / workers, (w + 1) * documentFiles.size() / workers)) {
+                command.add(documentFile.toString());
+            }
+            processes.add(new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.INHERIT).redirectError(ProcessBuilder.Redirect.INHERIT).start());
+            partFiles.add(partFile);
+        }
+
+        List<TextFiniteStateMachinePart> parts = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            assertThat(processes.get(w).waitFor(2, TimeUnit.MINUTES), is(true));
+            assertEquals(0, processes.get(w).exitValue());
+            parts.add(TextFiniteStateMachinePart.open(partFiles.get(w)).right().get());
+        }
+
+        List<String> corpus = new ArrayList<>();
+        for (Path documentFile : documentFiles) {
+            try (FileCorpusStream stream = new FileCorpusStream(documentFile)) {
+                for (Optional<String> word = stream.nextWord(); word.isPresent(); word = stream.nextWord()) {
+                    corpus.add(word.get());
+                }
+            }
+        }
+        TextFiniteStateMachine expected = textFiniteStateMachineFactory
+                .createTextFiniteStateMachine(new InMemoryCorpusStream(corpus), PrefixSize.of(3))
+                .right()
+                .get();
+
+        assertSameStateMachine(expected, TextFiniteStateMachinePart.merge(PrefixSize.of(3), parts).toStateMachine());
+    }
+
+    private void assertSameStateMachine(TextFiniteStateMachine expected, TextFiniteStateMachine actual) {
+        assertEquals(expected.statesCount(), actual.statesCount());
+        assertEquals(expected.prefixes(), actual.prefixes());
+        for (Prefix prefix : expected.prefixes()) {
+            assertEquals(expected.sufficesFor(prefix), actual.sufficesFor(prefix));
+        }
+    }
+
+    private TextFiniteStateMachinePart createPart(List<String> words, PrefixSize prefixSize) {
+        return textFiniteStateMachineFactory.createTextFiniteStateMachinePart(new InMemoryCorpusStream(words), prefixSize).right().get();
+    }
+
+    private List<List<String>> createDocuments(Random rng, int count, int maxLength) {
+        List<List<String>> documents = new ArrayList<>();
+        for (int d = 0; d < count; d++) {
+            List<String> document = new ArrayList<>();
+            int length = rng.nextInt(maxLength + 1);
+            for (int i = 0; i < length; i++) {
+                document.add("w" + rng.nextInt(6));
+            }
+            documents.add(document);
+        }
+        return documents;
+    }
+
+    private Path createTempFile() throws IOException {
+        Path path = Files.createTempFile("part", ".bin");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+}
@@ -0,0 +1,37 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.corpus.stream.FileCorpusStream;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.TextFiniteStateMachineError;
+import io.atlassian.fugue.Either;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Worker process for TextFiniteStateMachinePartTest: builds one part per document, merges them and saves the result
+// Arguments: prefix size, part file, documents in corpus order
+public class TextFiniteStateMachinePartWorker {
+    public static void main(String[] args) throws IOException {
+        PrefixSize prefixSize = PrefixSize.of(Integer.parseInt(args[0]));
+        Path partFile = Paths.get(args[1]);
+
+        TextFiniteStateMachineFactory textFiniteStateMachineFactory = new TextFiniteStateMachineFactory();
+        List<TextFiniteStateMachinePart> parts = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            Either<TextFiniteStateMachineError, TextFiniteStateMachinePart> part =
+                    textFiniteStateMachineFactory.createTextFiniteStateMachinePart(new FileCorpusStream(Paths.get(args[i])), prefixSize);
+            if (part.isLeft()) {
+                System.err.println(part.left().get().errorMessage());
+                System.exit(1);
+            }
+            parts.add(part.right().get());
+        }
+
+        if (TextFiniteStateMachinePart.merge(prefixSize, parts).save(partFile).isLeft()) {
+            System.exit(2);
+        }
+    }
+}
@@ -4,13 +4,20 @@ import com.animallogic.markovchain.fsm.types.Prefix;
 import com.animallogic.markovchain.fsm.types.PrefixSize;
 import com.animallogic.markovchain.fsm.types.State;
 import com.animallogic.markovchain.fsm.types.Suffix;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.expectThrows;
 
 public class TextFiniteStateMachineTest {
@@ -85,6 +92,78 @@ public class TextFiniteStateMachineTest {
         assertEquals(3, textFiniteStateMachine.prefixes().size());
     }
 
+    @Test
+    @DisplayName("Should take less than a third of the bytes of a multimap of prefixes to suffixes for the same states")
+    void lessMemoryThanMultimap() {
+        List<State> states = createSkewedStates(PrefixSize.of(3), 200_000);
+
+        Multimap<Prefix, Suffix> multimap = ArrayListMultimap.create();
+        for (State state : states) {
+            multimap.put(Prefix.of(new ArrayList<>(state.prefix().words())), Suffix.of(state.suffix().value()));
+        }
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachine(PrefixSize.of(3));
+        states.forEach(textFiniteStateMachine::addState);
+
+        assertEquals(multimap.size(), textFiniteStateMachine.statesCount());
+        assertEquals(multimap.keySet().size(), textFiniteStateMachine.prefixes().size());
+
+        long fsmBytes = textFiniteStateMachine.tableBytes();
+        long multimapBytes = multimapBytes(multimap);
+        assertTrue(3 * fsmBytes < multimapBytes,
+                String.format("The state machine takes %d bytes, the multimap %d bytes", fsmBytes, multimapBytes));
+    }
+
+    private List<State> createSkewedStates(PrefixSize prefixSize, int count) {
+        Random rng = new Random(0x5EED);
+        String[] vocabulary = new String[5_000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = "word" + i;
+        }
+
+        List<String> corpus = new ArrayList<>(count + prefixSize.value());
+        for (int i = 0; i < count + prefixSize.value(); i++) {
+            double r = rng.nextDouble();
+            corpus.add(vocabulary[(int) (r * r * vocabulary.length)]);
+        }
+
+        List<State> states = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<String> prefixWords = corpus.subList(i, i + prefixSize.value());
+            states.add(createState(prefixWords, corpus.get(i + prefixSize.value())));
+        }
+        return states;
+    }
+
+    // Bytes of an ArrayListMultimap on the terms of SuffixMemoryReport: a hash map node, a Prefix and the copy of its
+    // word list per key, an ArrayList grown from 3 values and a Suffix per value, and every distinct word once
+    private long multimapBytes(Multimap<Prefix, Suffix> multimap) {
+        long bytes = arrayBytes(Integer.highestOneBit((int) Math.ceil(multimap.keySet().size() / 0.75) - 1) << 1);
+        Set<String> words = new HashSet<>();
+        for (Prefix prefix : multimap.keySet()) {
+            bytes += 32 + 16 + 24 + arrayBytes(prefix.words().size());
+            words.addAll(prefix.words());
+
+            int values = multimap.get(prefix).size();
+            int capacity = 3;
+            while (capacity < values) {
+                capacity += capacity >> 1;
+            }
+            bytes += 24 + arrayBytes(capacity) + 16L * values;
+        }
+        for (Suffix suffix : multimap.values()) {
+            words.add(suffix.value());
+        }
+        for (String word : words) {
+            bytes += 24 + ((16 + 2L * word.length() + 7) & -8L);
+        }
+        return bytes;
+    }
+
+    // Array of references or ints
+    private long arrayBytes(long length) {
+        return (16 + 4 * length + 7) & -8L;
+    }
+
     private State createState(List<String> words, String suffixWord) {
         Prefix prefix = Prefix.of(words);
         Suffix suffix = Suffix.of(suffixWord);
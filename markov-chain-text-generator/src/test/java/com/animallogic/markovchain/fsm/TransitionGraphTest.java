@@ -0,0 +1,278 @@
+package com.animallogic.markovchain.fsm;
+
+import com.animallogic.markovchain.fsm.types.Prefix;
+import com.animallogic.markovchain.fsm.types.PrefixSize;
+import com.animallogic.markovchain.fsm.types.State;
+import com.animallogic.markovchain.fsm.types.Suffix;
+import com.animallogic.markovchain.random.RandomSource;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multiset;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TransitionGraphTest {
+    @Test
+    @DisplayName("Every transition should point to the state of the prefix rotated with its suffix")
+    void transitionsPointToRotatedPrefix() {
+        // (A, is) -> father, (is, father) -> [of, of], (father, of) -> [B., C.], (of, B.) -> B, (B., B) -> is,
+        // (B, is) -> father, (of, C.) -> EOF
+        TextFiniteStateMachine textFiniteStateMachine = createStateMachine("A", "is", "father", "of", "B.", "B", "is", "father", "of", "C.");
+
+        TransitionGraph graph = textFiniteStateMachine.transitionGraph();
+
+        assertEquals(7, graph.stateCount());
+        for (int state = 0; state < graph.stateCount(); state++) {
+            Prefix prefix = textFiniteStateMachine.prefixes().get(state);
+            List<Suffix> suffixes = textFiniteStateMachine.sufficesFor(prefix);
+            Multiset<Suffix> suffixCounts = HashMultiset.create(suffixes);
+
+            assertEquals(suffixCounts.elementSet().size(), graph.transitionCount(state));
+            assertEquals(prefix.toString(), graph.stateText(state));
+
+            for (int i = 0; i < graph.transitionCount(state); i++) {
+                int transition = graph.firstTransition(state) + i;
+                int wordId = graph.wordId(transition);
+                Suffix suffix = graph.isEof(wordId) ? Suffix.EOF : Suffix.of(graph.word(wordId));
+
+                assertEquals(suffixCounts.count(suffix), graph.occurrences(transition));
+
+                Prefix rotated = Prefix.of(ImmutableList.of(prefix.words().get(1), suffix.value()));
+                int expectedTarget = textFiniteStateMachine.prefixes().indexOf(rotated);
+                assertEquals(expectedTarget < 0 ? TransitionGraph.NO_STATE : expectedTarget, graph.target(state, transition));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Repeated suffixes should be stored once with their number of occurrences")
+    void repeatedSuffixesAreCounted() {
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachine(PrefixSize.of(2));
+        Prefix prefix = Prefix.of(ImmutableList.of("saw", "the"));
+        for (String word : ImmutableList.of("cat", "dog", "cat", "cat", "bird", "dog")) {
+            textFiniteStateMachine.addState(State.of(prefix, Suffix.of(word)));
+        }
+
+        TransitionGraph graph = textFiniteStateMachine.transitionGraph();
+
+        assertEquals(3, graph.transitionCount(0));
+        assertEquals(3, graph.occurrences(graph.firstTransition(0)));
+        assertEquals(2, graph.occurrences(graph.firstTransition(0) + 1));
+        assertEquals(1, graph.occurrences(graph.firstTransition(0) + 2));
+        assertEquals(6, textFiniteStateMachine.sufficesFor(prefix).size());
+    }
+
+    @Test
+    @DisplayName("Random transitions should follow the frequencies of the suffixes in the corpus")
+    void randomTransitionsFollowSuffixFrequencies() {
+        int[] occurrences = {50, 25, 15, 9, 1};
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachine(PrefixSize.of(2));
+        Prefix prefix = Prefix.of(ImmutableList.of("saw", "the"));
+        for (int i = 0; i < occurrences.length; i++) {
+            for (int j = 0; j < occurrences[i]; j++) {
+                textFiniteStateMachine.addState(State.of(prefix, Suffix.of("word" + i)));
+            }
+        }
+        TransitionGraph graph = textFiniteStateMachine.transitionGraph();
+
+        int samples = 100_000;
+        long[] observed = new long[occurrences.length];
+        RandomSource rng = RandomSource.of(new Random(0x5EED));
+        for (int i = 0; i < samples; i++) {
+            observed[graph.randomTransition(0, rng) - graph.firstTransition(0)]++;
+        }
+
+        // Pearson's chi-squared against the corpus frequencies, 18.47 is the 0.999 quantile for 4 degrees of freedom
+        double chiSquared = 0;
+        for (int i = 0; i < occurrences.length; i++) {
+            double expected = samples * occurrences[i] / 100.0;
+            chiSquared += (observed[i] - expected) * (observed[i] - expected) / expected;
+        }
+        assertThat(chiSquared, is(lessThan(18.47)));
+    }
+
+    @Test
+    @DisplayName("Alias tables should give every transition its exact share of the occurrences of the state")
+    void aliasTablesMatchOccurrences() {
+        Random corpusRng = new Random(0xA11A5);
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachine(PrefixSize.of(2));
+        for (int i = 0; i < 20_000; i++) {
+            Prefix prefix = Prefix.of(ImmutableList.of("p" + corpusRng.nextInt(5), "q" + corpusRng.nextInt(5)));
+            // Squaring skews the suffixes so states mix very frequent and very rare transitions
+            int suffix = corpusRng.nextInt(40);
+            textFiniteStateMachine.addState(State.of(prefix, Suffix.of("s" + suffix * suffix / 40)));
+        }
+        TransitionGraph graph = textFiniteStateMachine.transitionGraph();
+
+        for (int state = 0; state < graph.stateCount(); state++) {
+            int total = 0;
+            for (int i = 0; i < graph.transitionCount(state); i++) {
+                total += graph.occurrences(graph.firstTransition(state) + i);
+            }
+
+            for (int i = 0; i < graph.transitionCount(state); i++) {
+                int transition = graph.firstTransition(state) + i;
+                assertEquals((double) graph.occurrences(transition) / total, graph.selectionProbability(state, transition), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("States with a single transition should not draw from the random generator")
+    void singleTransitionDoesNotDraw() {
+        TextFiniteStateMachine textFiniteStateMachine = createStateMachine("this", "is", "a", "test");
+        TransitionGraph graph = textFiniteStateMachine.transitionGraph();
+
+        Random rng = new Random(42);
+        for (int state = 0; state < graph.stateCount(); state++) {
+            assertEquals(graph.firstTransition(state), graph.randomTransition(state, RandomSource.of(rng)));
+        }
+        assertEquals(new Random(42).nextInt(), rng.nextInt());
+    }
+
+    @Test
+    @DisplayName("Line start states should be the first prefix and the prefixes that follow a word ending a line")
+    void lineStartStates() {
+        // (This, is), (is, a\n), (a\n, simple), (simple, test.\n), (test.\n, With), (With, no), (no, more.)
+        TextFiniteStateMachine textFiniteStateMachine = createStateMachine("This", "is", "a\n", "simple", "test.\n", "With", "no", "more.");
+
+        TransitionGraph graph = textFiniteStateMachine.transitionGraph();
+
+        List<Prefix> lineStarts = new ArrayList<>();
+        for (int i = 0; i < graph.lineStartCount(); i++) {
+            lineStarts.add(textFiniteStateMachine.prefixes().get(graph.lineStartState(i)));
+        }
+        assertEquals(ImmutableList.of(
+                Prefix.of(ImmutableList.of("This", "is")),
+                Prefix.of(ImmutableList.of("simple", "test.\n")),
+                Prefix.of(ImmutableList.of("With", "no"))
+        ), lineStarts);
+    }
+
+    @Test
+    @DisplayName("Chains of single transition states should be collapsed into runs split only where chains join")
+    void singleTransitionChainsAreCollapsed() {
+        TransitionGraph chain = createStateMachine("a", "b", "c", "d", "e", "f").transitionGraph();
+
+        assertEquals(0, chain.runSlot(0));
+        for (int slot = 0; slot < 4; slot++) {
+            assertEquals(TransitionGraph.CONTINUES_RUN, chain.runNext(slot));
+        }
+        assertEquals(TransitionGraph.NO_STATE, chain.runNext(4));
+        assertEquals(1, chain.statistics().runs());
+        assertEquals(5.0, chain.statistics().compressionRatio(), 1e-9);
+
+        // (A, is) -> (is, father) -> (father, of) branches, (of, B.) -> (B., B) -> (B, is) -> (is, father) joins the
+        // first run and (of, C.) -> EOF
+        TransitionGraph joined = createStateMachine("A", "is", "father", "of", "B.", "B", "is", "father", "of", "C.").transitionGraph();
+        ModelStatistics statistics = joined.statistics();
+
+        assertEquals(-1, joined.runSlot(2));
+        assertEquals(2, joined.runNext(joined.runSlot(1)));
+        assertEquals(1, joined.runNext(joined.runSlot(5)));
+        assertEquals(TransitionGraph.NO_STATE, joined.runNext(joined.runSlot(6)));
+        assertEquals(7, statistics.states());
+        assertEquals(6, statistics.singleTransitionStates());
+        assertEquals(3, statistics.runs());
+        assertEquals(4, statistics.collapsedSteps());
+        assertEquals(7.0 / 4, statistics.compressionRatio(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Runs should hold the words and the targets of the transitions they stand for")
+    void runsFollowTheTransitions() {
+        Random corpusRng = new Random(0xC4A1);
+        String[] words = new String[5_000];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "w" + (int) (Math.pow(corpusRng.nextDouble(), 3) * 300);
+        }
+        TransitionGraph graph = createStateMachine(words).transitionGraph();
+
+        int singleTransitionStates = 0;
+        for (int state = 0; state < graph.stateCount(); state++) {
+            int slot = graph.runSlot(state);
+            assertEquals(graph.transitionCount(state) == 1, slot >= 0);
+            if (slot < 0) {
+                continue;
+            }
+            singleTransitionStates++;
+
+            int transition = graph.firstTransition(state);
+            assertEquals(graph.wordId(transition), graph.runWord(slot));
+            int next = graph.target(state, transition);
+            if (graph.runNext(slot) == TransitionGraph.CONTINUES_RUN) {
+                assertEquals(slot + 1, graph.runSlot(next));
+            } else {
+                assertEquals(next, graph.runNext(slot));
+            }
+        }
+        assertEquals(singleTransitionStates, graph.statistics().singleTransitionStates());
+        assertThat(graph.statistics().runs() < singleTransitionStates, is(true));
+    }
+
+    @Test
+    @DisplayName("States with the same suffixes should share their distribution and keep their own targets")
+    void identicalSuffixesAreShared() {
+        // (x, y) and (x, w) are both followed once by z
+        TransitionGraph graph = createStateMachine("x", "y", "z", "x", "w", "z", "q").transitionGraph();
+        ModelStatistics statistics = graph.statistics();
+
+        assertEquals(6, statistics.transitions());
+        assertEquals(5, statistics.distributions());
+        assertEquals(5, statistics.distributionTransitions());
+        assertEquals(graph.firstTransition(0), graph.firstTransition(3));
+        assertEquals(1, graph.target(0, graph.firstTransition(0)));
+        assertEquals(4, graph.target(3, graph.firstTransition(3)));
+
+        TransitionGraph unshared = graph.unshared();
+        assertEquals(6, unshared.statistics().distributions());
+        assertEquals(graph.totalOccurrences(), unshared.totalOccurrences());
+        for (int state = 0; state < graph.stateCount(); state++) {
+            assertEquals(graph.transitionCount(state), unshared.transitionCount(state));
+            assertEquals(graph.occurrenceCount(state), unshared.occurrenceCount(state));
+            for (int i = 0; i < graph.transitionCount(state); i++) {
+                int transition = graph.firstTransition(state) + i;
+                int unsharedTransition = unshared.firstTransition(state) + i;
+                assertEquals(graph.wordId(transition), unshared.wordId(unsharedTransition));
+                assertEquals(graph.occurrences(transition), unshared.occurrences(unsharedTransition));
+                assertEquals(graph.target(state, transition), unshared.target(state, unsharedTransition));
+                assertEquals(graph.selectionProbability(state, transition), unshared.selectionProbability(state, unsharedTransition), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("The graph should be compiled once and recompiled after adding states")
+    void compiledOnce() {
+        TextFiniteStateMachine textFiniteStateMachine = createStateMachine("this", "is", "a", "test");
+
+        TransitionGraph graph = textFiniteStateMachine.transitionGraph();
+        assertThat(textFiniteStateMachine.transitionGraph(), is(sameInstance(graph)));
+
+        textFiniteStateMachine.addState(State.of(Prefix.of(ImmutableList.of("a", "test")), Suffix.of("again")));
+
+        TransitionGraph recompiled = textFiniteStateMachine.transitionGraph();
+        assertThat(recompiled == graph, is(false));
+        assertEquals(4, recompiled.transitionCount(0) + recompiled.transitionCount(1) + recompiled.transitionCount(2));
+    }
+
+    private TextFiniteStateMachine createStateMachine(String... words) {
+        TextFiniteStateMachine textFiniteStateMachine = new TextFiniteStateMachine(PrefixSize.of(2));
+        for (int i = 2; i <= words.length; i++) {
+            Prefix prefix = Prefix.of(ImmutableList.of(words[i - 2], words[i - 1]));
+            Suffix suffix = i < words.length ? Suffix.of(words[i]) : Suffix.EOF;
+            textFiniteStateMachine.addState(State.of(prefix, suffix));
+        }
+        return textFiniteStateMachine;
+    }
+}
@@ -0,0 +1,275 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.expectThrows;
+
+public class PageCacheTest {
+    @Test
+    @DisplayName("Ints read through the cache should be the ones in the file")
+    void readsTheFile() throws IOException {
+        try (FileChannel channel = FileChannel.open(intsFile(10_000), StandardOpenOption.READ)) {
+            PageCache pageCache = new PageCache(64, 4);
+            IntArray ints = pageCache.file(channel, ByteOrder.LITTLE_ENDIAN).ints(8, 9_000 * Integer.BYTES);
+
+            assertEquals(9_000, ints.length());
+            for (int i = 0; i < ints.length(); i++) {
+                assertEquals(i + 2, ints.get(i));
+            }
+            expectThrows(IndexOutOfBoundsException.class, () -> ints.get(9_000));
+        }
+    }
+
+    @Test
+    @DisplayName("The least recently used page should be evicted once the cache is full")
+    void evictsTheLeastRecentlyUsedPage() throws IOException {
+        try (FileChannel channel = FileChannel.open(intsFile(1_000), StandardOpenOption.READ)) {
+            // 16 ints per page
+            PageCache pageCache = new PageCache(64, 2);
+            IntArray ints = pageCache.file(channel, ByteOrder.LITTLE_ENDIAN).ints(0, 1_000 * Integer.BYTES);
+
+            ints.get(0);
+            ints.get(16);
+            ints.get(1);
+            assertEquals(1, pageCache.hits());
+            assertEquals(2, pageCache.misses());
+
+            // Page 1 is the least recently used one
+            ints.get(32);
+            ints.get(2);
+            assertEquals(2, pageCache.hits());
+            assertEquals(3, pageCache.misses());
+            assertEquals(1, pageCache.evictions());
+
+            ints.get(17);
+            assertEquals(4, pageCache.misses());
+            assertEquals(2, pageCache.evictions());
+            assertEquals(2, pageCache.residentPages());
+        }
+    }
+
+    @Test
+    @DisplayName("A cache split in segments should stay within its pages when read from many threads")
+    void segmentedCacheFromManyThreads() throws Exception {
+        try (FileChannel channel = FileChannel.open(intsFile(100_000), StandardOpenOption.READ)) {
+            // 16 ints per page, 6,250 pages read through 4 segments of 64 pages
+            PageCache pageCache = new PageCache(64, 256);
+            IntArray ints = pageCache.file(channel, ByteOrder.LITTLE_ENDIAN).ints(0, 100_000 * Integer.BYTES);
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> readers = new ArrayList<>();
+                for (int thread = 0; thread < 4; thread++) {
+                    int first = thread;
+                    readers.add(executor.submit(() -> {
+                        for (int i = first; i < ints.length(); i += 4) {
+                            assertEquals(i, ints.get(i));
+                        }
+                    }));
+                }
+                for (Future<?> reader : readers) {
+                    reader.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            assertThat(pageCache.residentPages() <= 256, is(true));
+            assertEquals(100_000, pageCache.hits() + pageCache.misses());
+            // Threads missing the same page at once both read it but only one of them keeps it
+            assertThat(pageCache.misses() >= pageCache.residentPages() + pageCache.evictions(), is(true));
+        }
+    }
+
+    @Test
+    @DisplayName("Closing a paged file should close its channel and drop only its pages")
+    void closingDropsThePagesOfTheFile() throws IOException {
+        PageCache pageCache = new PageCache(64, 8);
+        FileChannel channel = FileChannel.open(intsFile(1_000), StandardOpenOption.READ);
+        try (FileChannel otherChannel = FileChannel.open(intsFile(1_000), StandardOpenOption.READ)) {
+            PageCache.PagedFile file = pageCache.file(channel, ByteOrder.LITTLE_ENDIAN);
+            IntArray ints = file.ints(0, 1_000 * Integer.BYTES);
+            IntArray otherInts = pageCache.file(otherChannel, ByteOrder.LITTLE_ENDIAN).ints(0, 1_000 * Integer.BYTES);
+
+            ints.get(0);
+            ints.get(16);
+            otherInts.get(0);
+            assertEquals(3, pageCache.residentPages());
+
+            file.close();
+            assertThat(channel.isOpen(), is(false));
+            assertEquals(1, pageCache.residentPages());
+            assertEquals(0, otherInts.get(0));
+            expectThrows(UncheckedIOException.class, () -> ints.get(0));
+        }
+    }
+
+    @Test
+    @DisplayName("A page still being read when its file is closed should not be put back in the cache")
+    void pageLoadedWhileClosingIsNotCached() throws Exception {
+        PageCache pageCache = new PageCache(64, 8);
+        StallingChannel channel = new StallingChannel(FileChannel.open(intsFile(1_000), StandardOpenOption.READ));
+        PageCache.PagedFile file = pageCache.file(channel, ByteOrder.LITTLE_ENDIAN);
+        IntArray ints = file.ints(0, 1_000 * Integer.BYTES);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> load = executor.submit(() -> ints.get(17));
+            channel.read.await();
+            file.close();
+            channel.release.countDown();
+
+            assertEquals(17, (int) load.get());
+            assertEquals(0, pageCache.residentPages());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Pages should not be smaller than a double or other than a power of two")
+    void rejectsBadPageSizes() {
+        expectThrows(IllegalArgumentException.class, () -> new PageCache(4, 16));
+        expectThrows(IllegalArgumentException.class, () -> new PageCache(100, 16));
+        expectThrows(IllegalArgumentException.class, () -> new PageCache(4096, 0));
+    }
+
+    private Path intsFile(int count) throws IOException {
+        Path file = Files.createTempFile("pages", ".bin");
+        file.toFile().deleteOnExit();
+
+        ByteBuffer buffer = ByteBuffer.allocate(count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(i);
+        }
+        Files.write(file, buffer.array());
+        return file;
+    }
+
+    // Reads a page and then waits to be released before returning it, the other operations are not used by the cache
+    private static final class StallingChannel extends FileChannel {
+        private final FileChannel channel;
+        private final CountDownLatch read = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        StallingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position) throws IOException {
+            int count = channel.read(destination, position);
+            read.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            return count;
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void force(boolean metaData) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
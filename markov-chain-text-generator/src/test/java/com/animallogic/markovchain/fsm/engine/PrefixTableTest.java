@@ -0,0 +1,54 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PrefixTableTest {
+    @Test
+    @DisplayName("Interning the same tuple twice should return the same prefix id")
+    void internIsIdempotent() {
+        PrefixTable prefixTable = new PrefixTable(3);
+
+        int prefixId = prefixTable.intern(new int[]{1, 2, 3}, 0);
+
+        assertEquals(prefixId, prefixTable.intern(new int[]{1, 2, 3}, 0));
+        assertEquals(prefixId, prefixTable.find(new int[]{1, 2, 3}, 0));
+        assertEquals(-1, prefixTable.find(new int[]{3, 2, 1}, 0));
+        assertEquals(1, prefixTable.size());
+    }
+
+    @Test
+    @DisplayName("Tuples should be read from the window as a ring buffer starting at the given index")
+    void ringBufferWindow() {
+        PrefixTable prefixTable = new PrefixTable(3);
+
+        int prefixId = prefixTable.intern(new int[]{1, 2, 3}, 0);
+
+        assertEquals(prefixId, prefixTable.find(new int[]{3, 1, 2}, 1));
+        assertEquals(prefixId, prefixTable.find(new int[]{2, 3, 1}, 2));
+
+        int rotatedId = prefixTable.intern(new int[]{4, 2, 3}, 1);
+        assertEquals(2, prefixTable.wordAt(rotatedId, 0));
+        assertEquals(3, prefixTable.wordAt(rotatedId, 1));
+        assertEquals(4, prefixTable.wordAt(rotatedId, 2));
+    }
+
+    @Test
+    @DisplayName("Prefix ids should be dense and in insertion order, even after the table grows")
+    void denseIdsAfterGrowing() {
+        PrefixTable prefixTable = new PrefixTable(2);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, prefixTable.intern(new int[]{i, i * 7}, 0));
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, prefixTable.find(new int[]{i, i * 7}, 0));
+            assertEquals(i, prefixTable.wordAt(i, 0));
+            assertEquals(i * 7, prefixTable.wordAt(i, 1));
+        }
+        assertEquals(10_000, prefixTable.size());
+    }
+}
@@ -0,0 +1,71 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ShardedStateTableTest {
+    @Test
+    @DisplayName("Prefix ids, suffix orders and occurrences should be the ones of interning every window in order")
+    void sameAsSequentialInterning() {
+        Random rng = new Random(0x5AAD);
+        for (int parallelism : new int[]{1, 2, 3, 8}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                for (int tokenCount : new int[]{0, 1, 2, 3, 5, 20, 5_000}) {
+                    for (int prefixSize = 1; prefixSize <= 4; prefixSize++) {
+                        int[] tokens = new int[tokenCount + 3];
+                        for (int i = 0; i < tokenCount; i++) {
+                            tokens[i] = 1 + rng.nextInt(6);
+                        }
+
+                        assertSameTables(tokens, tokenCount, prefixSize, ShardedStateTable.build(tokens, tokenCount, prefixSize, pool));
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Partitions should cover every hash")
+    void partitionOfEveryHash() {
+        for (int partitions = 1; partitions <= 16; partitions++) {
+            assertEquals(0, ShardedStateTable.partitionOf(0, partitions));
+            assertEquals(partitions - 1, ShardedStateTable.partitionOf(-1, partitions));
+            assertEquals(partitions / 2, ShardedStateTable.partitionOf(Integer.MIN_VALUE, partitions));
+        }
+    }
+
+    private void assertSameTables(int[] tokens, int tokenCount, int prefixSize, ShardedStateTable sharded) {
+        PrefixTable prefixTable = new PrefixTable(prefixSize);
+        SuffixStore suffixStore = new SuffixStore();
+        int[] window = new int[prefixSize];
+        int states = 0;
+        for (int position = 0; position + prefixSize <= tokenCount; position++) {
+            System.arraycopy(tokens, position, window, 0, prefixSize);
+            int next = position + prefixSize;
+            suffixStore.add(prefixTable.intern(window, 0), next < tokenCount ? tokens[next] : WordDictionary.EOF_ID);
+            states++;
+        }
+
+        assertEquals(states, sharded.statesCount());
+        assertEquals(prefixTable.size(), sharded.prefixTable().size());
+        for (int prefixId = 0; prefixId < prefixTable.size(); prefixId++) {
+            for (int i = 0; i < prefixSize; i++) {
+                assertEquals(prefixTable.wordAt(prefixId, i), sharded.prefixTable().wordAt(prefixId, i));
+            }
+            assertEquals(suffixStore.distinctSuffixCount(prefixId), sharded.suffixStore().distinctSuffixCount(prefixId));
+            assertEquals(suffixStore.occurrenceCount(prefixId), sharded.suffixStore().occurrenceCount(prefixId));
+            for (int s = 0; s < suffixStore.distinctSuffixCount(prefixId); s++) {
+                assertEquals(suffixStore.suffixAt(prefixId, s), sharded.suffixStore().suffixAt(prefixId, s));
+                assertEquals(suffixStore.occurrencesAt(prefixId, s), sharded.suffixStore().occurrencesAt(prefixId, s));
+            }
+        }
+    }
+}
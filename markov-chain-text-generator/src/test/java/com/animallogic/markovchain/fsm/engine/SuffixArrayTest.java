@@ -0,0 +1,85 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SuffixArrayTest {
+    @Test
+    @DisplayName("Suffixes and LCPs should match sorting every suffix by brute force")
+    void sameAsSortingEverySuffix() {
+        Random rng = new Random(0x5A);
+        for (int length : new int[]{0, 1, 2, 17, 500}) {
+            for (int alphabetSize : new int[]{1, 2, 5, 40}) {
+                int[] tokens = new int[length];
+                for (int i = 0; i < length; i++) {
+                    tokens[i] = rng.nextInt(alphabetSize);
+                }
+
+                SuffixArray suffixArray = SuffixArray.build(tokens, alphabetSize);
+
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < length; i++) {
+                    expected.add(i);
+                }
+                expected.sort(Comparator.comparing(i -> i, (a, b) -> compareSuffixes(tokens, a, b)));
+
+                for (int rank = 0; rank < length; rank++) {
+                    assertEquals((int) expected.get(rank), suffixArray.suffixAt(rank));
+                    assertEquals(rank, suffixArray.rankOf(expected.get(rank)));
+                    if (rank > 0) {
+                        assertEquals(commonPrefix(tokens, expected.get(rank - 1), expected.get(rank)), suffixArray.lcpAt(rank));
+                    }
+                }
+                if (length > 0) {
+                    assertEquals(expected.indexOf(0), suffixArray.firstPositionRank());
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Bounds should delimit the suffixes that start with the given words")
+    void boundsOfAPrefix() {
+        // 0:a 1:b 2:a 3:b 4:c 5:a 6:b
+        int[] tokens = {1, 2, 1, 2, 3, 1, 2};
+        SuffixArray suffixArray = SuffixArray.build(tokens, 4);
+
+        int[] ab = {1, 2};
+        assertEquals(3, suffixArray.upperBound(ab, 0, 2) - suffixArray.lowerBound(ab, 0, 2));
+        int[] abc = {1, 2, 3};
+        assertEquals(1, suffixArray.upperBound(abc, 0, 3) - suffixArray.lowerBound(abc, 0, 3));
+        assertEquals(2, suffixArray.suffixAt(suffixArray.lowerBound(abc, 0, 3)));
+        // Read as a ring buffer from the second word: b a
+        int[] ba = {1, 2};
+        assertEquals(1, suffixArray.upperBound(ba, 1, 2) - suffixArray.lowerBound(ba, 1, 2));
+        assertEquals(1, suffixArray.suffixAt(suffixArray.lowerBound(ba, 1, 2)));
+        int[] missing = {3, 3};
+        assertEquals(0, suffixArray.upperBound(missing, 0, 2) - suffixArray.lowerBound(missing, 0, 2));
+    }
+
+    private int compareSuffixes(int[] tokens, int a, int b) {
+        while (a < tokens.length && b < tokens.length) {
+            if (tokens[a] != tokens[b]) {
+                return Integer.compare(tokens[a], tokens[b]);
+            }
+            a++;
+            b++;
+        }
+        return Integer.compare(tokens.length - a, tokens.length - b);
+    }
+
+    private int commonPrefix(int[] tokens, int a, int b) {
+        int common = 0;
+        while (a + common < tokens.length && b + common < tokens.length && tokens[a + common] == tokens[b + common]) {
+            common++;
+        }
+        return common;
+    }
+}
@@ -0,0 +1,96 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SuffixStoreTest {
+    @Test
+    @DisplayName("Suffixes should keep their first seen order and occurrences whatever the fan-out of the prefix")
+    void everyFanOutKeepsOrderAndOccurrences() {
+        int[] fanOuts = {1, 2, 3, 4, SuffixStore.PACKED_MAX, SuffixStore.PACKED_MAX + 1, SuffixStore.PACKED_MAX + 2, 5_000};
+        SuffixStore suffixStore = new SuffixStore();
+        List<Map<Integer, Integer>> expected = new ArrayList<>();
+
+        Random rng = new Random(0x5F0);
+        for (int prefixId = 0; prefixId < fanOuts.length; prefixId++) {
+            expected.add(new LinkedHashMap<>());
+        }
+        // Interleaved adds with repeated words, occasionally with big occurrence counts like merged tables have
+        for (int round = 0; round < 60_000; round++) {
+            int prefixId = rng.nextInt(fanOuts.length);
+            int wordId = rng.nextInt(fanOuts[prefixId]);
+            int occurrences = rng.nextInt(50) == 0 ? 1 + rng.nextInt(100_000) : 1;
+
+            suffixStore.add(prefixId, wordId, occurrences);
+            expected.get(prefixId).merge(wordId, occurrences, Integer::sum);
+        }
+
+        for (int prefixId = 0; prefixId < fanOuts.length; prefixId++) {
+            Map<Integer, Integer> suffixes = expected.get(prefixId);
+            assertEquals(suffixes.size(), suffixStore.distinctSuffixCount(prefixId));
+            assertEquals(suffixes.values().stream().mapToInt(Integer::intValue).sum(), suffixStore.occurrenceCount(prefixId));
+
+            int index = 0;
+            for (Map.Entry<Integer, Integer> suffix : suffixes.entrySet()) {
+                assertEquals((int) suffix.getKey(), suffixStore.suffixAt(prefixId, index));
+                assertEquals((int) suffix.getValue(), suffixStore.occurrencesAt(prefixId, index));
+                index++;
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Prefixes never added to should have no suffixes")
+    void unknownPrefixes() {
+        SuffixStore suffixStore = new SuffixStore();
+        suffixStore.add(5, 1);
+
+        assertEquals(0, suffixStore.distinctSuffixCount(2));
+        assertEquals(0, suffixStore.distinctSuffixCount(6));
+        assertEquals(0, suffixStore.occurrenceCount(2));
+        assertEquals(1, suffixStore.distinctSuffixCount(5));
+    }
+
+    @Test
+    @DisplayName("The memory report should count fan-outs and tiers and save memory on prefixes with few suffixes")
+    void memoryReport() {
+        SuffixStore suffixStore = new SuffixStore();
+        int prefixId = 0;
+        for (int i = 0; i < 10_000; i++) {
+            suffixStore.add(prefixId++, 1);
+        }
+        for (int i = 0; i < 1_000; i++) {
+            suffixStore.add(prefixId, 1);
+            suffixStore.add(prefixId++, 2);
+        }
+        for (int i = 0; i < 100; i++, prefixId++) {
+            for (int wordId = 0; wordId < 5; wordId++) {
+                suffixStore.add(prefixId, wordId);
+            }
+        }
+        for (int wordId = 0; wordId < 1_000; wordId++) {
+            suffixStore.add(prefixId, wordId);
+        }
+
+        SuffixMemoryReport report = suffixStore.memoryReport();
+        assertEquals(10_000, report.prefixesWithFanOutBucket(0));
+        assertEquals(1_000, report.prefixesWithFanOutBucket(1));
+        assertEquals(100, report.prefixesWithFanOutBucket(2));
+        assertEquals(1, report.prefixesWithFanOutBucket(9));
+        assertEquals(11_000, report.inlinePrefixes());
+        assertEquals(100, report.packedPrefixes());
+        assertEquals(1, report.countedPrefixes());
+        assertThat(report.savedBytes() > 0, is(true));
+        assertThat(report.toString().contains("512-1023"), is(true));
+    }
+}
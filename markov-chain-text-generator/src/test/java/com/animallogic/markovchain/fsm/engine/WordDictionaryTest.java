@@ -0,0 +1,93 @@
+package com.animallogic.markovchain.fsm.engine;
+
+import com.animallogic.markovchain.fsm.types.Suffix;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.expectThrows;
+
+public class WordDictionaryTest {
+    @Test
+    @DisplayName("The EOF suffix should always be the first word of the dictionary")
+    void eofIsTheFirstWord() {
+        WordDictionary dictionary = new WordDictionary();
+
+        assertEquals(1, dictionary.size());
+        assertEquals(WordDictionary.EOF_ID, dictionary.idOf(Suffix.EOF.value()));
+        assertEquals(Suffix.EOF.value(), dictionary.word(WordDictionary.EOF_ID));
+    }
+
+    @Test
+    @DisplayName("Interning the same word twice should return the same id")
+    void internIsIdempotent() {
+        WordDictionary dictionary = new WordDictionary();
+
+        int id = dictionary.intern("hello");
+
+        assertEquals(id, dictionary.intern(new String("hello")));
+        assertEquals(id, dictionary.idOf("hello"));
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    @DisplayName("Ids should be dense and in insertion order, even after the table grows")
+    void denseIdsAfterGrowing() {
+        WordDictionary dictionary = new WordDictionary();
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i + 1, dictionary.intern("word" + i));
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i + 1, dictionary.idOf("word" + i));
+            assertEquals("word" + i, dictionary.word(i + 1));
+        }
+        assertEquals(-1, dictionary.idOf("missing"));
+        assertEquals(-1, dictionary.idOf(null));
+    }
+
+    @Test
+    @DisplayName("Asking for an unknown id should fail")
+    void unknownId() {
+        WordDictionary dictionary = new WordDictionary();
+
+        //noinspection ThrowableResultOfMethodCallIgnored
+        expectThrows(IndexOutOfBoundsException.class, () -> dictionary.word(1));
+    }
+
+    @Test
+    @DisplayName("Packed words should copy their UTF-8 bytes into buffers of any size, from heap and direct buffers")
+    void packedWordsCopyTheirBytes() {
+        WordDictionary dictionary = new WordDictionary();
+        String[] words = {"plain", "naïve", "日本語", "emoji\uD83D\uDE00", "line.\n"};
+        for (String word : words) {
+            dictionary.intern(word);
+        }
+
+        PackedWordIndex packed = dictionary.pack();
+        for (PackedWordIndex index : new PackedWordIndex[]{packed, packed.offHeap()}) {
+            for (String word : words) {
+                int id = index.idOf(word);
+                byte[] expected = word.getBytes(StandardCharsets.UTF_8);
+                assertEquals(expected.length, index.byteLength(id));
+                assertThat(index.endsWith(id, (byte) '\n'), is(word.endsWith("\n")));
+
+                // Two bytes at a time, splitting the multi-byte characters
+                ByteBuffer target = ByteBuffer.allocate(expected.length);
+                for (int copied = 0; copied < expected.length; ) {
+                    ByteBuffer chunk = ByteBuffer.allocate(2);
+                    copied += index.copyBytes(id, copied, chunk);
+                    chunk.flip();
+                    target.put(chunk);
+                }
+                assertEquals(word, new String(target.array(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
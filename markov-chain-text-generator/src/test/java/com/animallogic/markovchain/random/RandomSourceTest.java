@@ -0,0 +1,115 @@
+package com.animallogic.markovchain.random;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class RandomSourceTest {
+    @Test
+    @DisplayName("Seeded sources and the sources split from them should repeat their numbers")
+    void seededSourcesRepeat() {
+        for (long seed : new long[]{0, 7, -1}) {
+            assertSameNumbers(RandomSource.splittable(seed), RandomSource.splittable(seed));
+            assertSameNumbers(RandomSource.xoroshiro(seed), RandomSource.xoroshiro(seed));
+            assertSameNumbers(RandomSource.of(new Random(seed)), RandomSource.of(new Random(seed)));
+
+            assertSameNumbers(RandomSource.splittable(seed).split(), RandomSource.splittable(seed).split());
+            assertSameNumbers(RandomSource.xoroshiro(seed).split(), RandomSource.xoroshiro(seed).split());
+            assertSameNumbers(RandomSource.of(new Random(seed)).split(), RandomSource.of(new Random(seed)).split());
+        }
+
+        RandomSource parent = RandomSource.xoroshiro(7);
+        RandomSource child = parent.split();
+        assertNotEquals(parent.nextLong(), child.nextLong());
+        assertNotEquals(RandomSource.xoroshiro(7).nextLong(), RandomSource.xoroshiro(8).nextLong());
+
+        assertSameNumbers(RandomSource.xoroshiro(7), RandomSource.xoroshiro(7, 0));
+        assertSameNumbers(RandomSource.xoroshiro(7, 1_000), RandomSource.xoroshiro(7, 1_000));
+        assertNotEquals(RandomSource.xoroshiro(7, 1).nextLong(), RandomSource.xoroshiro(7, 2).nextLong());
+    }
+
+    @Test
+    @DisplayName("Sources over a java.util.Random should draw exactly what the Random draws")
+    void javaRandomDrawsTheSame() {
+        Random expected = new Random(0x5EED);
+        RandomSource randomSource = RandomSource.of(new Random(0x5EED));
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(expected.nextInt(i + 1), randomSource.nextInt(i + 1));
+            assertEquals(expected.nextDouble(), randomSource.nextDouble());
+        }
+    }
+
+    @Test
+    @DisplayName("Only the sources over java.util.Random and ThreadLocalRandom should be thread safe")
+    void threadSafeSources() {
+        assertThat(RandomSource.of(new Random(0)).isThreadSafe(), is(true));
+        assertThat(RandomSource.threadLocal().isThreadSafe(), is(true));
+        assertThat(RandomSource.splittable(0).isThreadSafe(), is(false));
+        assertThat(RandomSource.xoroshiro(0).isThreadSafe(), is(false));
+        assertThat(RandomSource.xoroshiro(0, 1).split().isThreadSafe(), is(false));
+    }
+
+    @Test
+    @DisplayName("Bounded numbers should be in range and uniform for every source")
+    void boundedNumbersAreUniform() {
+        for (RandomSource randomSource : ImmutableList.of(RandomSource.of(new Random(1)), RandomSource.splittable(1),
+                RandomSource.threadLocal(), RandomSource.xoroshiro(1))) {
+            int samples = 60_000;
+            long[] observed = new long[6];
+            for (int i = 0; i < samples; i++) {
+                observed[randomSource.nextInt(6)]++;
+                assertEquals(0, randomSource.nextInt(1));
+
+                int big = randomSource.nextInt(Integer.MAX_VALUE);
+                assertThat(big >= 0, is(true));
+                double unit = randomSource.nextDouble();
+                assertThat(unit >= 0 && unit < 1, is(true));
+            }
+
+            // Pearson's chi-squared, 20.52 is the 0.999 quantile for 5 degrees of freedom
+            double expected = samples / 6.0;
+            double chiSquared = 0;
+            for (long count : observed) {
+                chiSquared += (count - expected) * (count - expected) / expected;
+            }
+            assertThat(chiSquared, is(lessThan(20.52)));
+        }
+    }
+
+    @Test
+    @DisplayName("Bounded numbers should draw again instead of favouring the low values")
+    void boundedNumbersRejectBiasedDraws() {
+        // For a bound of 3, 2^32 % 3 = 1 of the 2^32 values of a draw is one too many: 0 has to be rejected
+        long[] draws = {0L, 0xFFFFFFFF00000000L};
+        int[] drawn = {0};
+        RandomSource scripted = new RandomSource() {
+            @Override
+            public long nextLong() {
+                return draws[drawn[0]++];
+            }
+
+            @Override
+            public RandomSource split() {
+                return this;
+            }
+        };
+
+        assertEquals(2, scripted.nextInt(3));
+        assertEquals(2, drawn[0]);
+    }
+
+    private void assertSameNumbers(RandomSource expected, RandomSource actual) {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(expected.nextLong(), actual.nextLong());
+            assertEquals(expected.nextInt(1_000), actual.nextInt(1_000));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.animallogic.server.conf;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+// Generated text is streamed to the clients on the MVC async executor, which by default starts a new thread for every
+// response. The pool caps the responses streamed at once and the ones waiting for a thread, the others are rejected.
+@Configuration
+public class AsyncSupportConfiguration extends WebMvcConfigurerAdapter {
+    private final int threads;
+    private final int queueCapacity;
+
+    AsyncSupportConfiguration(@Value("${generation.threads}") int threads,
+                              @Value("${generation.queue-capacity}") int queueCapacity) {
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor createGenerationTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(threads);
+        taskExecutor.setMaxPoolSize(threads);
+        taskExecutor.setQueueCapacity(queueCapacity);
+        taskExecutor.setThreadNamePrefix("generation-");
+        return taskExecutor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(createGenerationTaskExecutor());
+    }
+}
@@ -17,16 +17,18 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.Iterator;
-import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 
 @RestController
 class RandomTextGeneratorResource {
     private static final Logger LOGGER = LoggerFactory.getLogger(RandomTextGeneratorResource.class);
+    private static final MediaType TEXT_PLAIN_UTF8 = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+    private static final int OUTPUT_BUFFER_SIZE = 8192;
 
     private final TextFiniteStateMachineFactory textFiniteStateMachineFactory;
 
@@ -39,9 +41,9 @@ class RandomTextGeneratorResource {
             method = RequestMethod.POST
     )
     @ResponseBody
-    public DeferredResult<ResponseEntity<?>> uploadTextFile(@RequestParam(value = "prefix-size") int prefixSize,
-                                                            @RequestParam(value = "extra-spaces-as-words", required = false, defaultValue = "false") boolean treatExtraSpacesAsWords,
-                                                            @RequestParam("text-file") MultipartFile file) {
+    public ResponseEntity<StreamingResponseBody> uploadTextFile(@RequestParam(value = "prefix-size") int prefixSize,
+                                                                @RequestParam(value = "extra-spaces-as-words", required = false, defaultValue = "false") boolean treatExtraSpacesAsWords,
+                                                                @RequestParam("text-file") MultipartFile file) {
         if (!file.getContentType().startsWith(MediaType.TEXT_PLAIN_VALUE)) {
             LOGGER.warn("Uploaded file type unsupported: '{}'", file.getContentType());
             return badRequest();
@@ -67,34 +69,26 @@ class RandomTextGeneratorResource {
 
             TextFiniteStateMachine finiteStateMachine = errorOrStateMachine.right().get();
 
-            LOGGER.debug("Generating random text promise");
+            LOGGER.debug("Streaming random text");
 
-            return toDeferredResult(asyncGenerateRandomText(finiteStateMachine).thenApply(ResponseEntity::ok));
+            return ResponseEntity.ok().contentType(TEXT_PLAIN_UTF8).body(randomText(finiteStateMachine));
         } catch (Exception e) {
             return badRequest();
         }
     }
 
-    private DeferredResult<ResponseEntity<?>> badRequest() {
-        return toDeferredResult(CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.BAD_REQUEST)));
+    private ResponseEntity<StreamingResponseBody> badRequest() {
+        return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
     }
 
-    private DeferredResult<ResponseEntity<?>> internalServerError() {
-        return toDeferredResult(CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR)));
+    private ResponseEntity<StreamingResponseBody> internalServerError() {
+        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
-    private <T> DeferredResult<T> toDeferredResult(CompletableFuture<T> completableFuture) {
-        DeferredResult<T> deferredResult = new DeferredResult<>();
-        completableFuture.thenAccept(deferredResult::setResult);
-        return deferredResult;
-    }
-
-    private CompletableFuture<String> asyncGenerateRandomText(TextFiniteStateMachine finiteStateMachine) {
-        return CompletableFuture.supplyAsync(
-                () -> new MarkovChainRandomTextGenerator(finiteStateMachine)
-                        .stream()
-                        .map(s -> s.endsWith("\n") ? s : s + " ")
-                        .collect(Collectors.joining())
-        );
+    // Written to the response as it is generated, on the bounded MVC async executor (see AsyncSupportConfiguration), so
+    // the text is never held in memory
+    private StreamingResponseBody randomText(TextFiniteStateMachine finiteStateMachine) {
+        return outputStream -> new MarkovChainRandomTextGenerator(finiteStateMachine)
+                .writeTo(Channels.newChannel(outputStream), ByteBuffer.allocate(OUTPUT_BUFFER_SIZE));
     }
 }
@@ -9,14 +9,23 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
-import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.fileUpload;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
@@ -30,6 +39,9 @@ public class RandomTextGeneratorResourceTest {
     @Autowired
     private WebApplicationContext wac;
 
+    @Autowired
+    private ThreadPoolTaskExecutor generationTaskExecutor;
+
 
     @BeforeEach
     public void setup() {
@@ -41,7 +53,7 @@ public class RandomTextGeneratorResourceTest {
     @DisplayName("Should test the happy path, that is, upload a corpus text file and get random text")
     public void testHappyPath() throws Exception {
         String corpusText = loremIpsum();
-        MockMultipartFile testFile = new MockMultipartFile("text-file", "filename.txt", "text/plain", corpusText.getBytes());
+        MockMultipartFile testFile = new MockMultipartFile("text-file", "filename.txt", "text/plain", corpusText.getBytes(StandardCharsets.UTF_8));
 
         MvcResult result = mockMvc
                 .perform(
@@ -54,10 +66,25 @@ public class RandomTextGeneratorResourceTest {
                 .andExpect(request().asyncStarted())
                 .andReturn();
 
-        mockMvc.perform(asyncDispatch(result))
-                .andExpect(content().contentType(MediaType.TEXT_PLAIN_VALUE + ";charset=UTF-8"))
-                .andExpect(content().string(not(corpusText)))
-                .andExpect(status().isOk());
+        // The text is streamed to the response by the async executor, all written once the async result is set
+        result.getAsyncResult(10_000);
+        status().isOk().match(result);
+        content().contentType(MediaType.TEXT_PLAIN_VALUE + ";charset=UTF-8").match(result);
+        assertThat(generationTaskExecutor.getThreadPoolExecutor().getTaskCount() > 0, is(true));
+
+        String randomText = new String(result.getResponse().getContentAsByteArray(), StandardCharsets.UTF_8);
+        assertThat(randomText.isEmpty(), is(false));
+        assertThat(randomText, not(corpusText));
+
+        // Words are followed by a space unless they end a line, and are all words of the corpus decoded back as UTF-8
+        Set<String> corpusWords = new HashSet<>(Arrays.asList(corpusText.split("\\s+")));
+        Matcher word = Pattern.compile("([^ \n]*)(\n| )").matcher(randomText);
+        int end = 0;
+        while (word.find() && word.start() == end) {
+            assertThat(word.group(1), word.group(1).isEmpty() || corpusWords.contains(word.group(1)), is(true));
+            end = word.end();
+        }
+        assertThat(end, is(randomText.length()));
     }
 
     @Test
@@ -80,16 +107,13 @@ public class RandomTextGeneratorResourceTest {
                 .andExpect(status().isBadRequest());
 
         // Wrong file type
-        MvcResult result = mockMvc.
-                perform(
+        mockMvc.perform(
                         fileUpload("/api/v1/random/generate-from-file")
                                 .file(wrongFile2)
                                 .param("prefix-size", "3")
                                 .contentType(MediaType.MULTIPART_FORM_DATA)
                 )
-                .andExpect(request().asyncStarted())
-                .andReturn();
-        mockMvc.perform(asyncDispatch(result))
+                .andExpect(request().asyncNotStarted())
                 .andExpect(status().isBadRequest());
 
         // Wrong prefix-size
@@ -134,7 +158,8 @@ public class RandomTextGeneratorResourceTest {
                 "congue, augue quis dictum sagittis, eros orci auctor massa, sit amet suscipit odio enim nec dolor. " +
                 "Donec mollis fermentum libero in vestibulum. Nulla viverra varius ipsum sit amet varius. Aenean " +
                 "mollis, velit quis suscipit vestibulum, neque risus pellentesque massa, vitae aliquam tellus neque " +
-                "non risus. Nam et lectus dolor.";
+                "non risus. Nam et lectus dolor.\n" +
+                "Caf\u00E9 cr\u00E8me br\u00FBl\u00E9e, \u00E0 la mani\u00E8re na\u00EFve.";
     }
 
 }
\ No newline at end of file